@@ -0,0 +1,61 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+//Adding a block paying one hot address which already has fanIn counterparties.
+//Address aggregates (balances, counts of counterparties) of such address must not cost more with its history.
+//Every iteration the graph is filled with all blocks but the last one, the last one is measured
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class AddressAggregateBenchmark {
+    private static final int TX_PER_BLOCK = 50;
+
+    @Param({"100", "1000"})
+    private int fanIn;
+
+    private List<DecodedBlock> decoded;
+    private BenchmarkBlocks fixture;
+    private BenchmarkGraph graph;
+
+    @Setup(Level.Trial)
+    public void load() throws Exception {
+        fixture = BenchmarkBlocks.generate(fanIn / TX_PER_BLOCK + 3, TX_PER_BLOCK, 1);
+        decoded = fixture.decode();
+    }
+
+    @Setup(Level.Iteration)
+    public void fillGraph() throws Exception {
+        graph = new BenchmarkGraph(fixture.getParams());
+        graph.parse(decoded.subList(0, decoded.size() - 1));
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeGraph() throws Exception {
+        graph.close();
+    }
+
+    @Benchmark
+    public int parseHotBlock() throws Exception {
+        graph.parse(decoded.get(decoded.size() - 1));
+        return graph.getHeight();
+    }
+}
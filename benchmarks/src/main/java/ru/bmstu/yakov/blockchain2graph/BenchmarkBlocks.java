@@ -0,0 +1,198 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.LegacyAddress;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.params.MainNetParams;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.script.ScriptBuilder;
+
+//Raw blocks for benchmarks in chain order.
+//If -Dblk.file=path/blk00000.dat is set, first blocks of that mainnet file are used. Otherwise first mainnet blocks
+//bundled as mainnet-blocks.dat resource are used, it's written by main method of this class from blk file of
+//Bitcoin node. Without the resource a chain is generated with unit test parameters: every transaction spends an
+//earlier output and pays one of a few hot addresses (like exchanges and pools with high fan-in) and a new address.
+//Keys and choices of generated chain come from a seeded random, so every trial gets the same blocks
+public final class BenchmarkBlocks {
+    public static final String BLK_FILE_PROPERTY = "blk.file";
+    public static final String SAMPLE_RESOURCE = "/mainnet-blocks.dat";
+    private static final long SEED = 42;
+    private static final long GENESIS_TIME = 1231006505;
+
+    private final NetworkParameters np;
+    private final List<byte[]> blocks;
+
+    private BenchmarkBlocks(NetworkParameters np, List<byte[]> blocks) {
+        this.np = np;
+        this.blocks = blocks;
+    }
+
+    //Load count blocks from blk file or bundled sample, or generate them with txPerBlock transactions paying
+    //hotAddresses addresses. Sample may have less than count blocks
+    public static BenchmarkBlocks load(int count, int txPerBlock, int hotAddresses) throws Exception {
+        String blkFile = System.getProperty(BLK_FILE_PROPERTY);
+        if (blkFile != null) {
+            return read(new File(blkFile), count);
+        }
+        try (InputStream sample = BenchmarkBlocks.class.getResourceAsStream(SAMPLE_RESOURCE)) {
+            if (sample != null) {
+                return readSample(sample, count);
+            }
+        }
+        return generate(count, txPerBlock, hotAddresses);
+    }
+
+    //Generated chain, it's used when blocks must have a given shape
+    public static BenchmarkBlocks generate(int count, int txPerBlock, int hotAddresses) {
+        NetworkParameters np = UnitTestParams.get();
+        Context.propagate(new Context(np));
+        Random random = new Random(SEED);
+        ECKey[] hot = new ECKey[hotAddresses];
+        for (int i = 0; i < hot.length; i++) {
+            hot[i] = key(random);
+        }
+
+        List<byte[]> blocks = new ArrayList<>(count);
+        List<TransactionOutPoint> unspent = new ArrayList<>();
+        //Genesis block of unit test parameters gets current time, chain is started from a copy with fixed time
+        Block block = np.getDefaultSerializer().makeBlock(np.getGenesisBlock().bitcoinSerialize());
+        block.setTime(GENESIS_TIME);
+        block.setNonce(0);
+        block.solve();
+        blocks.add(block.bitcoinSerialize());
+        for (int height = 1; height < count; height++) {
+            //Coinbase is made here: bitcoinj puts a static counter into coinbase made by createNextBlock,
+            //so its txid would change from trial to trial
+            Transaction coinbase = new Transaction(np);
+            coinbase.addInput(new TransactionInput(np, coinbase, new ScriptBuilder().number(height).build()
+                    .getProgram()));
+            coinbase.addOutput(Coin.FIFTY_COINS, key(random));
+            List<Transaction> transactions = new ArrayList<>();
+            transactions.add(coinbase);
+
+            List<TransactionOutPoint> created = new ArrayList<>();
+            for (int i = 0; i < txPerBlock && !unspent.isEmpty(); i++) {
+                TransactionOutPoint spent = unspent.remove(random.nextInt(unspent.size()));
+                Transaction tx = new Transaction(np);
+                tx.addInput(new TransactionInput(np, tx, new byte[0], spent));
+                tx.addOutput(Coin.CENT, LegacyAddress.fromKey(np, hot[random.nextInt(hot.length)]));
+                tx.addOutput(Coin.CENT, LegacyAddress.fromKey(np, key(random)));
+                transactions.add(tx);
+                created.add(new TransactionOutPoint(np, 1, tx.getTxId()));
+            }
+            created.add(new TransactionOutPoint(np, 0, coinbase.getTxId()));
+            unspent.addAll(created);
+
+            Block next = new Block(np, Block.BLOCK_VERSION_GENESIS, block.getHash(), null,
+                    block.getTimeSeconds() + 600, block.getDifficultyTarget(), 0, transactions);
+            next.solve();
+            blocks.add(next.bitcoinSerialize());
+            block = next;
+        }
+        return new BenchmarkBlocks(np, blocks);
+    }
+
+    public NetworkParameters getParams() {
+        return np;
+    }
+
+    public List<byte[]> getBlocks() {
+        return blocks;
+    }
+
+    //Decode all blocks, decoded blocks are parsed into Graph Database by benchmarks
+    public List<DecodedBlock> decode() {
+        List<DecodedBlock> decoded = new ArrayList<>(blocks.size());
+        for (byte[] bytes : blocks) {
+            decoded.add(DecodedBlock.decode(bytes, np));
+        }
+        return decoded;
+    }
+
+    //Write first blocks of mainnet blk file in chain order as a sample to be bundled with benchmarks:
+    //BenchmarkBlocks <blk file> <count> <sample file>
+    public static void main(String[] args) throws Exception {
+        if (args.length != 3) {
+            System.err.println("Usage: BenchmarkBlocks <blk file> <count> <sample file>");
+            System.exit(1);
+        }
+        BenchmarkBlocks sample = read(new File(args[0]), Integer.parseInt(args[1]));
+        try (OutputStream out = new FileOutputStream(args[2])) {
+            for (byte[] block : sample.blocks) {
+                out.write(ByteBuffer.allocate(8).putInt((int) sample.np.getPacketMagic())
+                        .order(ByteOrder.LITTLE_ENDIAN).putInt(block.length).array());
+                out.write(block);
+            }
+        }
+        System.out.println(sample.blocks.size() + " blocks are written to " + args[2]);
+    }
+
+    private static BenchmarkBlocks read(File file, int count) throws Exception {
+        NetworkParameters np = MainNetParams.get();
+        Context.propagate(new Context(np));
+        List<byte[]> blocks = new ArrayList<>(count);
+        try (BlockFileMap blockFiles = new BlockFileMap(1)) {
+            Iterator<BlockLocation> locations = new ChainBuilder(0)
+                    .order(new RawBlockReader(np, Arrays.asList(file), blockFiles));
+            while (locations.hasNext() && blocks.size() < count) {
+                ByteBuffer slice = blockFiles.slice(locations.next());
+                byte[] bytes = new byte[slice.remaining()];
+                slice.get(bytes);
+                blocks.add(bytes);
+            }
+        }
+        return new BenchmarkBlocks(np, blocks);
+    }
+
+    //Sample is written in chain order as magic, little-endian length and block
+    private static BenchmarkBlocks readSample(InputStream sample, int count) throws IOException {
+        NetworkParameters np = MainNetParams.get();
+        Context.propagate(new Context(np));
+        List<byte[]> blocks = new ArrayList<>(count);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(sample));
+        while (blocks.size() < count) {
+            int magic;
+            try {
+                magic = in.readInt();
+            } catch (EOFException e) {
+                break;
+            }
+            if (magic != (int) np.getPacketMagic()) {
+                throw new IOException("Sample " + SAMPLE_RESOURCE + " has no magic of mainnet block");
+            }
+            byte[] block = new byte[Integer.reverseBytes(in.readInt())];
+            in.readFully(block);
+            blocks.add(block);
+        }
+        return new BenchmarkBlocks(np, Collections.unmodifiableList(blocks));
+    }
+
+    //Key made of seeded random, 255 bits are always less than order of the curve
+    private static ECKey key(Random random) {
+        return ECKey.fromPrivate(new BigInteger(255, random).max(BigInteger.ONE));
+    }
+}
@@ -0,0 +1,85 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.GraphTraversalSource;
+import org.bitcoinj.core.NetworkParameters;
+
+//BlockchainToGraph writing into in-memory JanusGraph. UTXO and counterparty files are kept in a temporary directory,
+//which is deleted when graph is closed
+public final class BenchmarkGraph implements Closeable {
+    private final Path dir;
+    private final BlockchainToGraph bp;
+    private String best;
+    private int height = -1;
+
+    public BenchmarkGraph(NetworkParameters np) throws Exception {
+        dir = Files.createTempDirectory("blockchain2graph-bench");
+        Files.createDirectories(dir.resolve("blocks"));
+        File properties = dir.resolve("inmemory.properties").toFile();
+        try (PrintWriter writer = new PrintWriter(properties, "UTF-8")) {
+            writer.println("gremlin.graph=org.janusgraph.core.JanusGraphFactory");
+            writer.println("storage.backend=inmemory");
+        }
+        TransactionGraph tg = new TransactionGraph(properties.getPath());
+        GraphTraversalSource g = tg.openGraph();
+        tg.createSchema();
+
+        Map<String, String> options = new HashMap<>();
+        options.put("utxodir", dir.toString());
+        options.put("blockindex", "false");
+        options.put("utxocapacity", "65536");
+        options.put("counterpartycapacity", "65536");
+        options.put("metricsjmx", "false");
+        bp = new BlockchainToGraph(g, np, tg, dir.toString(), dir.toString(), options);
+    }
+
+    //Add blocks one after another starting from the next height
+    public void parse(List<DecodedBlock> blocks) throws Exception {
+        for (DecodedBlock block : blocks) {
+            parse(block);
+        }
+    }
+
+    public void parse(DecodedBlock block) throws Exception {
+        bp.parseBlock(block, ++height, null);
+        bp.commitBatch(true);
+        best = block.getHashAsString();
+    }
+
+    //Delete the last added block
+    public void deleteTip(String prevHash) throws Exception {
+        bp.deleteBlock(best, height--);
+        best = prevHash;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            bp.close();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Can't close graph", e);
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
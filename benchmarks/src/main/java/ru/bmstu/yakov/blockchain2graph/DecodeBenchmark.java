@@ -0,0 +1,49 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//Deserializing block and extracting output addresses and fees, it is what decoder threads do for every block
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DecodeBenchmark {
+    @Param("200")
+    private int blocks;
+
+    @Param("100")
+    private int txPerBlock;
+
+    private BenchmarkBlocks fixture;
+    private List<byte[]> raw;
+    private int next;
+
+    @Setup
+    public void load() throws Exception {
+        fixture = BenchmarkBlocks.load(blocks, txPerBlock, 10);
+        raw = fixture.getBlocks();
+    }
+
+    //One block per operation
+    @Benchmark
+    public DecodedBlock decode() {
+        byte[] bytes = raw.get(next);
+        next = (next + 1) % raw.size();
+        return DecodedBlock.decode(bytes, fixture.getParams());
+    }
+}
@@ -0,0 +1,61 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+//Reorg path: deleting the tip block with all its transactions, outputs and addresses.
+//Every iteration the graph is filled with all blocks and the last one is deleted
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DeleteBlockBenchmark {
+    @Param("50")
+    private int blocks;
+
+    @Param("50")
+    private int txPerBlock;
+
+    private List<DecodedBlock> decoded;
+    private BenchmarkBlocks fixture;
+    private BenchmarkGraph graph;
+
+    @Setup(Level.Trial)
+    public void load() throws Exception {
+        fixture = BenchmarkBlocks.load(blocks, txPerBlock, 10);
+        decoded = fixture.decode();
+    }
+
+    @Setup(Level.Iteration)
+    public void fillGraph() throws Exception {
+        graph = new BenchmarkGraph(fixture.getParams());
+        graph.parse(decoded);
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeGraph() throws Exception {
+        graph.close();
+    }
+
+    @Benchmark
+    public int deleteTip() throws Exception {
+        graph.deleteTip(decoded.get(decoded.size() - 1).getPrevBlockHash());
+        return graph.getHeight();
+    }
+}
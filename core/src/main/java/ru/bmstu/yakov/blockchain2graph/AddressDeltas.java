@@ -0,0 +1,124 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+//Changes of addresses made by one block. Outputs, inputs and counterparties of its transactions only add up
+//in memory, then every touched address is read and written once, and only its changed properties are.
+//An address paid hundreds of times in a block isn't read and written back hundreds of times.
+//Its methods are synchronized, so writer threads can share it
+public class AddressDeltas {
+    private final Map<Object, Delta> deltas = new LinkedHashMap<>();
+
+    //Changes of one address. Balances and counts are added to stored values, last appear date and wallet id
+    //replace stored ones if they are set. Address created by the block starts from zero values and gets all properties
+    public static final class Delta {
+        public final Object id;
+        public final boolean created;
+        public Date firstAppearDate;
+        public Date lastAppearDate;
+        public long balance;
+        public long inputTransactionBalance;
+        public long outputTransactionBalance;
+        public int transactionCount;
+        public int inputTransactionCount;
+        public int outputTransactionCount;
+        public int inputAddressCount;
+        public int outputAddressCount;
+        public int betweenAddressTransactionCount;
+        public int walletId;
+
+        private Delta(Object id, boolean created) {
+            this.id = id;
+            this.created = created;
+        }
+    }
+
+    //Address vertex with given id is created by the block as a wallet of its own
+    public synchronized void created(Object id, Date date, int walletId) {
+        final Delta delta = deltas.computeIfAbsent(id, k -> new Delta(id, true));
+        delta.firstAppearDate = date;
+        delta.walletId = walletId;
+    }
+
+    //Address gets output with given value, between is true if it's an input address of the same transaction too
+    public synchronized void output(Object id, long value, Date date, boolean between) {
+        final Delta delta = get(id);
+        delta.balance += value;
+        delta.inputTransactionBalance += value;
+        delta.transactionCount++;
+        delta.inputTransactionCount++;
+        if (between) {
+            delta.betweenAddressTransactionCount++;
+        }
+        delta.lastAppearDate = date;
+    }
+
+    //Output of address with given value is spent
+    public synchronized void input(Object id, long value, Date date) {
+        final Delta delta = get(id);
+        delta.balance -= value;
+        delta.outputTransactionBalance += value;
+        delta.transactionCount++;
+        delta.outputTransactionCount++;
+        delta.lastAppearDate = date;
+    }
+
+    //Output of address is deleted with its transaction, it's the reverse of output. Last appear date is found again
+    //when the whole block is deleted
+    public synchronized void removeOutput(Object id, long value, boolean between) {
+        final Delta delta = get(id);
+        delta.balance -= value;
+        delta.inputTransactionBalance -= value;
+        delta.transactionCount--;
+        delta.inputTransactionCount--;
+        if (between) {
+            delta.betweenAddressTransactionCount--;
+        }
+    }
+
+    //Output of address is unspent again, because transaction spending it is deleted. It's the reverse of input
+    public synchronized void removeInput(Object id, long value) {
+        final Delta delta = get(id);
+        delta.balance += value;
+        delta.outputTransactionBalance -= value;
+        delta.transactionCount--;
+        delta.outputTransactionCount--;
+    }
+
+    //Last appear date of address found again after its transactions are deleted
+    public synchronized void lastAppearDate(Object id, Date date) {
+        get(id).lastAppearDate = date;
+    }
+
+    //Numbers of input and output counterparties of address change by given values
+    public synchronized void counterparties(Object id, int inputAddressCount, int outputAddressCount) {
+        final Delta delta = get(id);
+        delta.inputAddressCount += inputAddressCount;
+        delta.outputAddressCount += outputAddressCount;
+    }
+
+    //Address is moved to wallet with given id
+    public synchronized void wallet(Object id, int walletId) {
+        get(id).walletId = walletId;
+    }
+
+    //Changes in order of first touch, accumulator is empty after that
+    public synchronized List<Delta> drain() {
+        final List<Delta> drained = new ArrayList<>(deltas.values());
+        deltas.clear();
+        return drained;
+    }
+
+    //Forget all changes, it must be called when Graph Database transaction is rolled back
+    public synchronized void clear() {
+        deltas.clear();
+    }
+
+    private Delta get(Object id) {
+        return deltas.computeIfAbsent(id, k -> new Delta(id, false));
+    }
+}
@@ -0,0 +1,270 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bitcoinj.core.Sha256Hash;
+
+//Addresses met by offline export stored off-heap in memory-mapped files. Address gets a number when it is first
+//paid, in order of appearance. Its totals are kept in a record at position of its number and its name is appended
+//to a file of names, so records and names are read back together in number order when all blocks are exported.
+//Name is found by first 16 bytes of its SHA-256 hash in a mapped hash table, which isn't undone.
+//Files are work files of export and are deleted when table is closed
+public class AddressTable implements Closeable {
+    private static final long MAGIC = 0x4144445249445831L;
+    private static final int SLOT_SIZE = 24;
+    private static final int KEY_SIZE = 16;
+    private static final int RECORD_SIZE = 88;
+    private static final int SEGMENT_RECORDS = 1 << 24;
+
+    //Slot layout
+    private static final int KEY_HIGH_OFFSET = 0;
+    private static final int KEY_LOW_OFFSET = 8;
+    private static final int NUMBER_OFFSET = 16;
+
+    //Record layout
+    private static final int BALANCE_OFFSET = 0;
+    private static final int INPUT_BALANCE_OFFSET = 8;
+    private static final int OUTPUT_BALANCE_OFFSET = 16;
+    private static final int FIRST_DATE_OFFSET = 24;
+    private static final int LAST_DATE_OFFSET = 32;
+    private static final int TRANSACTION_COUNT_OFFSET = 40;
+    private static final int INPUT_COUNT_OFFSET = 44;
+    private static final int OUTPUT_COUNT_OFFSET = 48;
+    private static final int INPUT_ADDRESS_COUNT_OFFSET = 52;
+    private static final int OUTPUT_ADDRESS_COUNT_OFFSET = 56;
+    private static final int BETWEEN_COUNT_OFFSET = 60;
+
+    private final File indexFile;
+    private final File recordFile;
+    private final File nameFile;
+    private final NameIndex index;
+    private final RandomAccessFile records;
+    private final List<MappedByteBuffer> recordSegments = new ArrayList<>();
+    private final DataOutputStream names;
+    private long size;
+
+    //Totals of address, they are the values of its properties after all exported blocks
+    public static final class Totals {
+        public long balance;
+        public long inputTransactionBalance;
+        public long outputTransactionBalance;
+        public long firstAppearDate;
+        public long lastAppearDate;
+        public int transactionCount;
+        public int inputTransactionCount;
+        public int outputTransactionCount;
+        public int inputAddressCount;
+        public int outputAddressCount;
+        public int betweenAddressTransactionCount;
+    }
+
+    public interface Visitor {
+        void visit(long number, String name, Totals totals) throws IOException;
+    }
+
+    //Table in given directory with given initial capacity of name index (number of slots, power of two)
+    public AddressTable(File dir, long initialCapacity) throws IOException {
+        this.indexFile = new File(dir, "address-index.dat");
+        this.recordFile = new File(dir, "address.dat");
+        this.nameFile = new File(dir, "address-names.dat");
+        Files.deleteIfExists(indexFile.toPath());
+        Files.deleteIfExists(recordFile.toPath());
+        this.index = new NameIndex(indexFile, initialCapacity);
+        this.records = new RandomAccessFile(recordFile, "rw");
+        this.names = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(nameFile), 1 << 16));
+    }
+
+    //Number of address, -1 if it wasn't met
+    public long number(String name) {
+        return index.number(key(name));
+    }
+
+    //Adding new address first paid at given date, returns its number
+    public long add(String name, long date) throws IOException {
+        final long known = index.add(key(name), size);
+        if (known >= 0) {
+            return known;
+        }
+        final long number = size++;
+        names.writeUTF(name);
+        final ByteBuffer record = record(number);
+        final int pos = position(number);
+        for (int i = 0; i < RECORD_SIZE; i += 8) {
+            record.putLong(pos + i, 0);
+        }
+        record.putLong(pos + FIRST_DATE_OFFSET, date);
+        return number;
+    }
+
+    //Address gets output with given value, between is true if it's an input address of the same transaction too
+    public void output(long number, long value, long date, boolean between) throws IOException {
+        final ByteBuffer record = record(number);
+        final int pos = position(number);
+        addLong(record, pos + BALANCE_OFFSET, value);
+        addLong(record, pos + INPUT_BALANCE_OFFSET, value);
+        addInt(record, pos + TRANSACTION_COUNT_OFFSET, 1);
+        addInt(record, pos + INPUT_COUNT_OFFSET, 1);
+        if (between) {
+            addInt(record, pos + BETWEEN_COUNT_OFFSET, 1);
+        }
+        record.putLong(pos + LAST_DATE_OFFSET, date);
+    }
+
+    //Output of address with given value is spent
+    public void input(long number, long value, long date) throws IOException {
+        final ByteBuffer record = record(number);
+        final int pos = position(number);
+        addLong(record, pos + BALANCE_OFFSET, -value);
+        addLong(record, pos + OUTPUT_BALANCE_OFFSET, value);
+        addInt(record, pos + TRANSACTION_COUNT_OFFSET, 1);
+        addInt(record, pos + OUTPUT_COUNT_OFFSET, 1);
+        record.putLong(pos + LAST_DATE_OFFSET, date);
+    }
+
+    //Numbers of input and output counterparties of address change by given values
+    public void counterparties(long number, int inputAddressCount, int outputAddressCount) throws IOException {
+        final ByteBuffer record = record(number);
+        final int pos = position(number);
+        addInt(record, pos + INPUT_ADDRESS_COUNT_OFFSET, inputAddressCount);
+        addInt(record, pos + OUTPUT_ADDRESS_COUNT_OFFSET, outputAddressCount);
+    }
+
+    public long size() {
+        return size;
+    }
+
+    //Visiting all addresses in number order
+    public void forEach(Visitor visitor) throws IOException {
+        names.flush();
+        final Totals totals = new Totals();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(nameFile), 1 << 16))) {
+            for (long number = 0; number < size; number++) {
+                final String name = in.readUTF();
+                final ByteBuffer record = record(number);
+                final int pos = position(number);
+                totals.balance = record.getLong(pos + BALANCE_OFFSET);
+                totals.inputTransactionBalance = record.getLong(pos + INPUT_BALANCE_OFFSET);
+                totals.outputTransactionBalance = record.getLong(pos + OUTPUT_BALANCE_OFFSET);
+                totals.firstAppearDate = record.getLong(pos + FIRST_DATE_OFFSET);
+                totals.lastAppearDate = record.getLong(pos + LAST_DATE_OFFSET);
+                totals.transactionCount = record.getInt(pos + TRANSACTION_COUNT_OFFSET);
+                totals.inputTransactionCount = record.getInt(pos + INPUT_COUNT_OFFSET);
+                totals.outputTransactionCount = record.getInt(pos + OUTPUT_COUNT_OFFSET);
+                totals.inputAddressCount = record.getInt(pos + INPUT_ADDRESS_COUNT_OFFSET);
+                totals.outputAddressCount = record.getInt(pos + OUTPUT_ADDRESS_COUNT_OFFSET);
+                totals.betweenAddressTransactionCount = record.getInt(pos + BETWEEN_COUNT_OFFSET);
+                visitor.visit(number, name, totals);
+            }
+        }
+    }
+
+    //Closing and deleting files of table
+    @Override
+    public void close() throws IOException {
+        names.close();
+        index.close();
+        records.close();
+        recordSegments.clear();
+        Files.deleteIfExists(indexFile.toPath());
+        Files.deleteIfExists(recordFile.toPath());
+        Files.deleteIfExists(nameFile.toPath());
+    }
+
+    //Record of address, file of records is mapped one more segment at a time
+    private ByteBuffer record(long number) throws IOException {
+        final int segment = (int) (number / SEGMENT_RECORDS);
+        while (recordSegments.size() <= segment) {
+            recordSegments.add(records.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                    (long) recordSegments.size() * SEGMENT_RECORDS * RECORD_SIZE, (long) SEGMENT_RECORDS * RECORD_SIZE));
+        }
+        return recordSegments.get(segment);
+    }
+
+    private static int position(long number) {
+        return (int) (number % SEGMENT_RECORDS) * RECORD_SIZE;
+    }
+
+    private static void addLong(ByteBuffer b, int pos, long delta) {
+        b.putLong(pos, b.getLong(pos) + delta);
+    }
+
+    private static void addInt(ByteBuffer b, int pos, int delta) {
+        b.putInt(pos, b.getInt(pos) + delta);
+    }
+
+    //First 16 bytes of SHA-256 hash of name
+    private static byte[] key(String name) {
+        final byte[] key = new byte[16];
+        System.arraycopy(Sha256Hash.hash(name.getBytes(StandardCharsets.UTF_8)), 0, key, 0, 16);
+        return key;
+    }
+
+    //Index of names by their keys, slot keeps number of address plus one, so zero means empty slot
+    private static final class NameIndex extends MappedHashTable {
+        NameIndex(File file, long initialCapacity) throws IOException {
+            super(file, initialCapacity, "address index", MAGIC, SLOT_SIZE, KEY_SIZE, false);
+        }
+
+        //Number of address with given key, -1 if it wasn't met
+        long number(byte[] key) {
+            final long slot = find(key);
+            return slot < 0 ? -1 : segment(slot).getLong(position(slot) + NUMBER_OFFSET) - 1;
+        }
+
+        //Adding key with given number if it's new, otherwise number of key is returned
+        long add(byte[] key, long number) throws IOException {
+            ensureCapacity();
+            final long slot = find(key);
+            if (slot >= 0) {
+                return segment(slot).getLong(position(slot) + NUMBER_OFFSET) - 1;
+            }
+            final ByteBuffer b = segment(~slot);
+            final int pos = position(~slot);
+            final ByteBuffer k = ByteBuffer.wrap(key);
+            b.putLong(pos + KEY_HIGH_OFFSET, k.getLong(0));
+            b.putLong(pos + KEY_LOW_OFFSET, k.getLong(8));
+            b.putLong(pos + NUMBER_OFFSET, number + 1);
+            added(~slot);
+            return -1;
+        }
+
+        //Find slot of key. If there's no such key returns ~slot of first empty slot
+        private long find(byte[] key) {
+            final ByteBuffer k = ByteBuffer.wrap(key);
+            final long high = k.getLong(0);
+            final long low = k.getLong(8);
+            return find(home(high), (b, pos) ->
+                    b.getLong(pos + KEY_HIGH_OFFSET) == high && b.getLong(pos + KEY_LOW_OFFSET) == low);
+        }
+
+        @Override
+        protected long hash(ByteBuffer b, int pos) {
+            return home(b.getLong(pos + KEY_HIGH_OFFSET));
+        }
+
+        @Override
+        protected boolean isEmpty(ByteBuffer b, int pos) {
+            return b.getLong(pos + NUMBER_OFFSET) == 0;
+        }
+
+        private static long home(long high) {
+            return high ^ (high >>> 31);
+        }
+    }
+}
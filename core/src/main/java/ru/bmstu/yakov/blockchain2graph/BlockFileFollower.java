@@ -0,0 +1,122 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.bitcoinj.core.NetworkParameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+//Follows blk***.dat files while Bitcoin Core appends blocks to them. It remembers the file and the offset it has
+//read up to, so only records appended after it are read, and goes on to the next file when node starts it.
+//Reading stops at the first place of file with no record, it's the zero-filled preallocated tail of file.
+//Blocks directory is watched, so a block announced by node before it's seen in the file is waited for,
+//only changes of blk files make follower read again. Locations of the last blocks read are kept by hash
+public class BlockFileFollower implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BlockFileFollower.class);
+    private static final Pattern BLOCK_FILE = Pattern.compile("blk\\d+\\.dat");
+
+    private final NetworkParameters np;
+    private final File blocksDir;
+    private final BlockFileMap blockFiles;
+    private final WatchService watcher;
+    private final Map<String, BlockLocation> locations;
+    private int fileNumber;
+    private long offset;
+
+    //Follower starting from given offset of blk file with given number, it keeps locations of capacity blocks
+    public BlockFileFollower(NetworkParameters np, File blocksDir, BlockFileMap blockFiles, int fileNumber,
+                             long offset, final int capacity) throws IOException {
+        this.np = np;
+        this.blocksDir = blocksDir;
+        this.blockFiles = blockFiles;
+        this.fileNumber = Math.max(0, fileNumber);
+        this.offset = offset;
+        this.locations = new LinkedHashMap<String, BlockLocation>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, BlockLocation> eldest) {
+                return size() > capacity;
+            }
+        };
+        this.watcher = FileSystems.getDefault().newWatchService();
+        blocksDir.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        LOGGER.info("Following " + file(this.fileNumber) + " from offset " + offset);
+    }
+
+    //Location of block with given hash. Appended records are read, then blocks directory is watched until
+    //the block is written or timeout is over. Null is returned if block isn't found
+    public synchronized BlockLocation find(String hash, long timeoutMillis) throws IOException, InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        readAppended();
+        while (true) {
+            final BlockLocation location = locations.get(hash);
+            if (location != null) {
+                return location;
+            }
+            final long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                return null;
+            }
+            final WatchKey key = watcher.poll(left, TimeUnit.NANOSECONDS);
+            if (key != null) {
+                boolean appended = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    appended |= event.kind() == StandardWatchEventKinds.OVERFLOW
+                            || BLOCK_FILE.matcher(((Path) event.context()).getFileName().toString()).matches();
+                }
+                key.reset();
+                if (appended) {
+                    readAppended();
+                }
+            }
+        }
+    }
+
+    //Reading records appended since last call. When next file exists, the current one is read to the end
+    //once more, because node could append to it before starting the next one
+    private void readAppended() throws IOException {
+        while (file(fileNumber).exists()) {
+            read(file(fileNumber));
+            if (!file(fileNumber + 1).exists()) {
+                return;
+            }
+            read(file(fileNumber));
+            fileNumber++;
+            offset = 0;
+            LOGGER.info("Following " + file(fileNumber));
+        }
+    }
+
+    private void read(File file) throws IOException {
+        final RawBlockReader reader = new RawBlockReader(np, Collections.singletonList(file), blockFiles, offset,
+                true);
+        while (reader.hasNext()) {
+            final BlockLocation location = reader.next();
+            locations.put(location.getHash(), location);
+            offset = location.getOffset() + location.getSize();
+        }
+    }
+
+    private File file(int number) {
+        return new File(blocksDir, String.format(Locale.US, "blk%05d.dat", number));
+    }
+
+    @Override
+    public void close() throws IOException {
+        watcher.close();
+    }
+}
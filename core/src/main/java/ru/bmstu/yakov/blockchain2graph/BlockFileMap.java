@@ -0,0 +1,75 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//blk***.dat files mapped into memory. Blocks are given out as slices of the mapping, so block bytes
+//are not copied by reader thread. Only a few last used files are kept mapped, the rest are unmapped by GC
+//when their slices are not used anymore.
+//File that Bitcoin Core is still appending to is mapped again when a block beyond the mapping is requested
+public class BlockFileMap implements Closeable {
+    private final Map<File, MappedByteBuffer> mapped;
+
+    public BlockFileMap(final int maxFiles) {
+        this.mapped = new LinkedHashMap<File, MappedByteBuffer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<File, MappedByteBuffer> eldest) {
+                return size() > maxFiles;
+            }
+        };
+    }
+
+    //Whole file mapped read-only, byte order is little-endian as in blk***.dat files
+    public synchronized ByteBuffer map(File file) throws IOException {
+        MappedByteBuffer buffer = mapped.get(file);
+        if (buffer == null || buffer.capacity() < file.length()) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            mapped.put(file, buffer);
+        }
+        //Calls go through ByteBuffer and Buffer: newer JDK compiles them to methods missing in Java 8
+        return ((ByteBuffer) buffer).duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    //Bytes of block from its location. If size is unknown, it is read before the block
+    public ByteBuffer slice(BlockLocation location) throws IOException {
+        ByteBuffer buffer = map(location.getFile());
+        int offset = (int) location.getOffset();
+        int size = location.getSize() < 0 ? readSize(buffer, offset) : location.getSize();
+        if (size < 0 || offset + (long) size > buffer.capacity()) {
+            //Mapping is older than the block
+            buffer = remap(location.getFile());
+            size = location.getSize() < 0 ? readSize(buffer, offset) : location.getSize();
+        }
+        if (size < 0 || offset + (long) size > buffer.capacity()) {
+            throw new IOException("Block " + location + " is beyond the end of file");
+        }
+        ((Buffer) buffer).limit(offset + size);
+        ((Buffer) buffer).position(offset);
+        return buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public synchronized void close() {
+        mapped.clear();
+    }
+
+    private synchronized ByteBuffer remap(File file) throws IOException {
+        mapped.remove(file);
+        return map(file);
+    }
+
+    private static int readSize(ByteBuffer buffer, int offset) {
+        return offset - 4 >= 0 && offset <= buffer.capacity() ? buffer.getInt(offset - 4) : -1;
+    }
+}
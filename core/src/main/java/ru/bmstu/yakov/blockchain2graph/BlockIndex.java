@@ -0,0 +1,239 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+
+import org.bitcoinj.core.Sha256Hash;
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.DBIterator;
+import org.iq80.leveldb.Options;
+import org.iq80.leveldb.impl.Iq80DBFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+//Reader of Bitcoin Core blocks/index LevelDB. It maps block hash and height to blk***.dat file and offset,
+//so blocks can be read in chain order without scanning all files.
+//Bitcoin Core keeps the database locked, so a snapshot of it is opened: table files are immutable
+//and are hard linked, the rest is copied. Bitcoin Core names table files ******.ldb, but the reader
+//opens only ******.sst, so they get .sst names in the snapshot
+public class BlockIndex implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BlockIndex.class);
+
+    private static final byte BLOCK_KEY = 'b';
+    private static final int BLOCK_VALID_MASK = 7;
+    private static final int BLOCK_VALID_TRANSACTIONS = 3;
+    private static final int BLOCK_HAVE_DATA = 8;
+    private static final int BLOCK_HAVE_UNDO = 16;
+    private static final int BLOCK_FAILED_MASK = 32 | 64;
+
+    private final File blocksDir;
+    private final Path snapshot;
+    private final DB db;
+
+    //Best chain, index is height. Hashes are stored in Bitcoin Core byte order, 32 bytes per block
+    private int bestHeight;
+    private int[] chainFiles;
+    private int[] chainPositions;
+    private byte[] chainHashes;
+
+    //Block index entry as Bitcoin Core stores it (CDiskBlockIndex)
+    private static final class Entry {
+        int height;
+        int status;
+        int file;
+        int dataPos;
+        byte[] prevHash;
+    }
+
+    //Open snapshot of index in blocksDir/index and load best chain
+    public static BlockIndex open(File indexDir, File blocksDir) throws IOException {
+        if (!new File(indexDir, "CURRENT").exists()) {
+            throw new IOException("There's no LevelDB block index in " + indexDir);
+        }
+        Path snapshot = Files.createTempDirectory("blockindex");
+        try (Stream<Path> files = Files.list(indexDir.toPath())) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.equals("LOCK") || name.startsWith("LOG")) {
+                    continue;
+                }
+                if (name.endsWith(".ldb")) {
+                    name = name.substring(0, name.length() - ".ldb".length()) + ".sst";
+                }
+                Path target = snapshot.resolve(name);
+                if (name.endsWith(".sst")) {
+                    try {
+                        Files.createLink(target, file);
+                        continue;
+                    } catch (IOException | UnsupportedOperationException e) {
+                        //Other file system, table file is copied
+                    }
+                }
+                Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        return new BlockIndex(snapshot, blocksDir);
+    }
+
+    private BlockIndex(Path snapshot, File blocksDir) throws IOException {
+        this.snapshot = snapshot;
+        this.blocksDir = blocksDir;
+        Options options = new Options();
+        options.createIfMissing(false);
+        options.paranoidChecks(false);
+        this.db = Iq80DBFactory.factory.open(snapshot.toFile(), options);
+        loadBestChain();
+    }
+
+    public int getBestHeight() {
+        return bestHeight;
+    }
+
+    //Location of block of the best chain
+    public BlockLocation getByHeight(int height) {
+        String hash = Sha256Hash.wrapReversed(Arrays.copyOfRange(chainHashes, height * 32, height * 32 + 32)).toString();
+        String prevHash = height == 0 ? ChainBuilder.GENESIS_PREV_HASH
+                : Sha256Hash.wrapReversed(Arrays.copyOfRange(chainHashes, (height - 1) * 32, height * 32)).toString();
+        return new BlockLocation(blockFile(chainFiles[height]), chainPositions[height], -1, hash, prevHash);
+    }
+
+    //Location of any block stored on disk, or null if there's no such block
+    public BlockLocation get(String hash) {
+        Entry entry = read(Sha256Hash.wrap(hash).getReversedBytes());
+        if (entry == null || (entry.status & BLOCK_HAVE_DATA) == 0) {
+            return null;
+        }
+        return new BlockLocation(blockFile(entry.file), entry.dataPos, -1, hash,
+                Sha256Hash.wrapReversed(entry.prevHash).toString());
+    }
+
+    //Blocks of the best chain starting from given height. It can be used after index is closed
+    public Iterator<BlockLocation> iterator(final int fromHeight) {
+        return new Iterator<BlockLocation>() {
+            private int height = fromHeight;
+
+            @Override
+            public boolean hasNext() {
+                return height <= bestHeight;
+            }
+
+            @Override
+            public BlockLocation next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return getByHeight(height++);
+            }
+        };
+    }
+
+    //Close database and delete snapshot
+    @Override
+    public void close() throws IOException {
+        db.close();
+        try (Stream<Path> files = Files.walk(snapshot)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    //Find the highest valid block and walk back to genesis by previous hashes
+    private void loadBestChain() throws IOException {
+        byte[] bestKey = null;
+        Entry best = null;
+        try (DBIterator it = db.iterator()) {
+            for (it.seek(new byte[]{BLOCK_KEY}); it.hasNext(); ) {
+                Map.Entry<byte[], byte[]> e = it.next();
+                if (e.getKey().length != 33 || e.getKey()[0] != BLOCK_KEY) {
+                    break;
+                }
+                Entry entry = parse(e.getValue());
+                if ((entry.status & BLOCK_HAVE_DATA) != 0 && (entry.status & BLOCK_FAILED_MASK) == 0
+                        && (entry.status & BLOCK_VALID_MASK) >= BLOCK_VALID_TRANSACTIONS
+                        && (best == null || entry.height > best.height)) {
+                    best = entry;
+                    bestKey = e.getKey();
+                }
+            }
+        }
+        if (best == null) {
+            throw new IOException("There are no blocks in block index");
+        }
+
+        bestHeight = best.height;
+        chainFiles = new int[bestHeight + 1];
+        chainPositions = new int[bestHeight + 1];
+        chainHashes = new byte[(bestHeight + 1) * 32];
+        byte[] hash = Arrays.copyOfRange(bestKey, 1, 33);
+        Entry entry = best;
+        for (int height = bestHeight; height >= 0; height--) {
+            if (entry == null || entry.height != height) {
+                throw new IOException("Block index is broken at height " + height);
+            }
+            chainFiles[height] = entry.file;
+            chainPositions[height] = entry.dataPos;
+            System.arraycopy(hash, 0, chainHashes, height * 32, 32);
+            hash = entry.prevHash;
+            entry = height > 0 ? read(hash) : null;
+        }
+        LOGGER.info("Loaded best chain from block index: height = " + bestHeight);
+    }
+
+    private Entry read(byte[] hash) {
+        byte[] key = new byte[33];
+        key[0] = BLOCK_KEY;
+        System.arraycopy(hash, 0, key, 1, 32);
+        byte[] value = db.get(key);
+        return value == null ? null : parse(value);
+    }
+
+    //Parse CDiskBlockIndex: version, height, status, tx count, file, data and undo positions, then block header
+    private static Entry parse(byte[] value) {
+        int[] pos = {0};
+        Entry entry = new Entry();
+        readVarInt(value, pos);
+        entry.height = (int) readVarInt(value, pos);
+        entry.status = (int) readVarInt(value, pos);
+        readVarInt(value, pos);
+        if ((entry.status & (BLOCK_HAVE_DATA | BLOCK_HAVE_UNDO)) != 0) {
+            entry.file = (int) readVarInt(value, pos);
+        }
+        if ((entry.status & BLOCK_HAVE_DATA) != 0) {
+            entry.dataPos = (int) readVarInt(value, pos);
+        }
+        if ((entry.status & BLOCK_HAVE_UNDO) != 0) {
+            readVarInt(value, pos);
+        }
+        //Header: version (4 bytes), previous block hash (32 bytes), ...
+        entry.prevHash = Arrays.copyOfRange(value, pos[0] + 4, pos[0] + 36);
+        return entry;
+    }
+
+    //Bitcoin Core VARINT: base 128, most significant group first, one is added to every group but the last
+    private static long readVarInt(byte[] bytes, int[] pos) {
+        long n = 0;
+        while (true) {
+            int b = bytes[pos[0]++] & 0xff;
+            n = (n << 7) | (b & 0x7f);
+            if ((b & 0x80) != 0) {
+                n++;
+            } else {
+                return n;
+            }
+        }
+    }
+
+    private File blockFile(int file) {
+        return new File(blocksDir, String.format(Locale.US, "blk%05d.dat", file));
+    }
+}
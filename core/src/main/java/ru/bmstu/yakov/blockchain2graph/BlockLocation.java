@@ -0,0 +1,48 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.io.File;
+
+//Position of a block in blk***.dat file together with its hash and hash of previous block.
+//It is all that is kept in memory while block waits for its place in the chain
+public final class BlockLocation {
+    private final File file;
+    private final long offset;
+    private final int size;
+    private final String hash;
+    private final String prevHash;
+
+    public BlockLocation(File file, long offset, int size, String hash, String prevHash) {
+        this.file = file;
+        this.offset = offset;
+        this.size = size;
+        this.hash = hash;
+        this.prevHash = prevHash;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    //Offset of the first byte of block in file, right after magic bytes and length
+    public long getOffset() {
+        return offset;
+    }
+
+    //Size of block in bytes or -1 if it is unknown yet
+    public int getSize() {
+        return size;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public String getPrevHash() {
+        return prevHash;
+    }
+
+    @Override
+    public String toString() {
+        return hash + " (" + file.getName() + ":" + offset + ")";
+    }
+}
@@ -0,0 +1,141 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+//Staged decoding of blk***.dat files. One reader thread takes blocks from mapped files at locations given
+//in chain order (by BlockIndex or ChainBuilder), a pool of decoder threads deserializes them into DecodedBlock,
+//and the graph writer takes them in height order.
+//Bounded queue between stages doesn't let reader and decoders run far ahead of the writer
+public class BlockPipeline implements Iterable<DecodedBlock>, Iterator<DecodedBlock>, Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BlockPipeline.class);
+    private static final Decoding END = new Decoding(null, CompletableFuture.completedFuture(null));
+
+    //Block being decoded together with its location
+    private static final class Decoding {
+        final BlockLocation location;
+        final Future<DecodedBlock> block;
+
+        Decoding(BlockLocation location, Future<DecodedBlock> block) {
+            this.location = location;
+            this.block = block;
+        }
+    }
+
+    private final BlockingQueue<Decoding> queue;
+    private final ExecutorService decoders;
+    private final Thread reader;
+    private DecodedBlock next;
+    private BlockLocation nextLocation;
+    private BlockLocation location;
+    private boolean finished;
+
+    public BlockPipeline(final NetworkParameters np, final Iterator<BlockLocation> locations,
+                         final BlockFileMap blockFiles, int threads, int queueSize) {
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        final Context context = Context.getOrCreate(np);
+        final AtomicInteger threadCounter = new AtomicInteger();
+        this.decoders = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(() -> {
+                Context.propagate(context);
+                r.run();
+            }, "block-decoder-" + threadCounter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        this.reader = new Thread(() -> {
+            try {
+                while (locations.hasNext()) {
+                    final BlockLocation location = locations.next();
+                    submit(location, blockFiles.slice(location), np);
+                }
+                queue.put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException | IOException e) {
+                CompletableFuture<DecodedBlock> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                try {
+                    queue.put(new Decoding(null, failed));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "block-reader");
+        this.reader.setDaemon(true);
+        LOGGER.info("Starting block pipeline with " + threads + " decoder threads");
+        this.reader.start();
+    }
+
+    //Give slice of mapped file to decoders, block bytes are not copied by reader thread
+    private void submit(BlockLocation location, final ByteBuffer bytes, NetworkParameters np)
+            throws InterruptedException {
+        queue.put(new Decoding(location, decoders.submit(() -> DecodedBlock.decode(bytes, np))));
+    }
+
+    @Override
+    public Iterator<DecodedBlock> iterator() {
+        return this;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !finished) {
+            try {
+                final Decoding decoding = queue.take();
+                next = decoding.block.get();
+                nextLocation = decoding.location;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for decoded block", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Failed to decode block", e.getCause());
+            }
+            if (next == null) {
+                finished = true;
+                close();
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public DecodedBlock next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        DecodedBlock block = next;
+        location = nextLocation;
+        next = null;
+        return block;
+    }
+
+    //Location of the block returned by the last call of next
+    public BlockLocation getLocation() {
+        return location;
+    }
+
+    //Stop reader and decoder threads
+    @Override
+    public void close() {
+        reader.interrupt();
+        decoders.shutdownNow();
+    }
+}
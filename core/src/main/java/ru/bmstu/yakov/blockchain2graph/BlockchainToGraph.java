@@ -0,0 +1,2056 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.codahale.metrics.Timer;
+import org.apache.tinkerpop.gremlin.process.traversal.Order;
+import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.GraphTraversal;
+import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.GraphTraversalSource;
+import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.__;
+import org.apache.tinkerpop.gremlin.structure.Edge;
+import org.apache.tinkerpop.gremlin.structure.T;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.bitcoinj.core.*;
+import org.bitcoinj.params.MainNetParams;
+import org.janusgraph.core.JanusGraphTransaction;
+import org.janusgraph.core.SchemaViolationException;
+import org.janusgraph.diskstorage.TemporaryBackendException;
+import org.janusgraph.diskstorage.locking.PermanentLockingException;
+import org.janusgraph.graphdb.database.idassigner.IDPoolExhaustedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sun.misc.Signal;
+import sun.misc.SignalHandler;
+
+public class BlockchainToGraph {
+    private static String BLOCKSPATH;
+    private static String BITCOINDPATH;
+    private static GraphTraversalSource g;
+    private static NetworkParameters np;
+    private static TransactionGraph tg;
+    private boolean isExit;
+    private boolean canContinue;
+    private String best;
+    private int height;
+    private int currentFileCount;
+    private static final Logger LOGGER = LoggerFactory.getLogger(BlockchainToGraph.class);
+    //Number of blocks written in one Graph Database transaction
+    private int batchSize;
+    private List<DecodedBlock> pendingBlocks;
+    private String pendingBest;
+    private int pendingHeight;
+    //Location of the last pending block in blk***.dat files, null if it wasn't read from them
+    private BlockLocation pendingLocation;
+    //Cache of vertex ids to avoid nameIndex lookups
+    private VertexCache vertexCache;
+    //Encoding of vertex names in Graph Database
+    private VertexNames names;
+    //Threads decoding blocks ahead of graph writer and number of blocks they can decode ahead
+    private int decoderThreads;
+    private int decoderQueueSize;
+    //Number of blocks on top of a block before it is taken as a part of the chain, longer branch wins
+    private int forkDepth;
+    //Bitcoin Core block index to find blocks without scanning blk***.dat files. Its snapshot is opened once
+    //and kept, it is opened again only when a new block isn't found in it
+    private boolean useBlockIndex;
+    private File blockIndexDir;
+    private BlockIndex blockIndex;
+    //blk***.dat files mapped into memory
+    private BlockFileMap blockFiles;
+    //Follower of blk***.dat files appended by Bitcoin node and how long a block not written yet is waited for
+    private BlockFileFollower follower;
+    private long blockWait;
+    //Off-heap set of unspent outputs to resolve inputs without reading Graph Database
+    private UtxoSet utxoSet;
+    //Initial import: JanusGraph batch loading, vertex ids from chain position and edges added in groups.
+    //Vertex id is BULK_ID_BASE + (height << BULK_ID_BITS) + number of vertex in block, the base keeps them
+    //far from ids allocated by JanusGraph in incremental mode
+    static final long BULK_ID_BASE = 1L << 52;
+    static final int BULK_ID_BITS = 20;
+    private boolean bulkLoad;
+    private EdgeBuffer edgeBuffer;
+    private int bulkHeight;
+    private int bulkSequence;
+    //Writer threads writing transactions of block, null if they are written by the main thread.
+    //They share one Graph Database transaction for the whole batch
+    private ExecutorService writers;
+    private JanusGraphTransaction batchTx;
+    //Locks of addresses added by writer threads
+    private StripedLocks addressLocks;
+    //Changes of addresses made by current block
+    private AddressDeltas addressDeltas;
+    //Batches failed because of lock or id conflicts or temporary failures of storage backend are written again
+    private int writeRetries;
+    private long retryBackoff;
+    private int retries;
+    //Off-heap counterparties of addresses to keep AddressInputAddressCount and AddressOutputAddressCount
+    private CounterpartySet counterparties;
+    //Off-heap wallets of addresses to keep AddressWalletID
+    private WalletSet wallets;
+    //Throughput, commit and method timings, reorgs and lag published over JMX and HTTP
+    private IngestMetrics metrics;
+    //Metadata vertex keeping hash and height of the last committed block. It is written in the same
+    //Graph Database transaction as blocks, so the tip is read at start instead of walking the chain
+    private static final String TIP = "tip";
+    private Object tipId;
+    //Checking stored tip against BlockHeight index in background, walking the chain instead of reading the tip
+    private boolean tipCheck;
+    private boolean tipRebuild;
+    //Undo journals of blocks near the tip, so rolling back a block doesn't read Graph Database.
+    //Journal of block being written and journals of blocks waiting for commit
+    private UndoJournal undoJournal;
+    private UndoJournal.Block undo;
+    private List<UndoJournal.Block> pendingUndo;
+    //Options of tip source giving new blocks of Bitcoin node after blockchain is parsed
+    private Map<String, String> tipOptions;
+    //Position of the last committed block written after every commit, restart goes on right after it
+    private File cursorFile;
+    private ResumeCursor cursor;
+    //Locations of blocks read by hash while new blocks of Bitcoin node are added
+    private final Map<String, BlockLocation> located = new HashMap<>();
+    //Summaries of addresses given by query service on localhost. Summaries of addresses written by pending blocks
+    //are put into the cache when the blocks are committed, the cache is cleared when blocks are deleted
+    private SummaryCache summaries;
+    private QueryService queryService;
+    private final Map<String, Map<String, Object>> pendingSummaries = new HashMap<>();
+
+    //Get best chain off Graph Database: from metadata vertex, or by walking the chain if Graph Database
+    //was created by older version or tip rebuild is asked
+    private void getBestAndHeight() {
+        LOGGER.info("Checking if blocks downloaded");
+        final Optional<Vertex> tip = g.V().has("Meta", "Meta", TIP).tryNext();
+        if (tip.isPresent() && !tipRebuild) {
+            tipId = tip.get().id();
+            best = tip.get().value("TipHash");
+            height = tip.get().value("TipHeight");
+            g.tx().rollback();
+            canContinue = false;
+            LOGGER.info("Loaded best chain: best = " + best + "; height = " + height);
+            if (tipCheck) {
+                final String tipHash = best;
+                final int tipHeight = height;
+                final Thread checker = new Thread(() -> checkTip(tipHash, tipHeight), "tip-check");
+                checker.setDaemon(true);
+                checker.start();
+            }
+            return;
+        }
+        tipId = tip.map(Vertex::id).orElse(null);
+        if (g.V().has("Block", "BlockHeight", 0).hasNext()) {
+            LOGGER.info("Block 0 is downloaded. Loading best chain. It can take more than 1 minute");
+            canContinue = false;
+            final Vertex block = g.V().has("Block", "BlockHeight", 0)
+                    .repeat(__.out("chain")).until(__.not(__.out("chain"))).next();
+            best = names.of(g, block);
+            height = block.value("BlockHeight");
+            LOGGER.info("Loaded best chain: best = " + best + "; height = " + height);
+            final Object id = writeTip(best, height);
+            g.tx().commit();
+            tipId = id;
+        }
+    }
+
+    //Writing hash and height of the last block in current Graph Database transaction, metadata vertex is created
+    //if there's no one. Its id is returned to be kept after commit
+    private Object writeTip(String tipHash, int tipHeight) {
+        if (tipId != null) {
+            g.V(tipId).property("TipHash", tipHash).property("TipHeight", tipHeight).iterate();
+            return tipId;
+        }
+        GraphTraversal<Vertex, Vertex> tip = g.addV("Meta");
+        if (bulkLoad) {
+            tip = tip.property(T.id, tg.toVertexId(BULK_ID_BASE - 1));
+        }
+        return tip.property("Meta", TIP).property("TipHash", tipHash).property("TipHeight", tipHeight)
+                .id().next();
+    }
+
+    //Checking stored tip against BlockHeight index: block of stored height must have stored hash and there must be
+    //no block above it unless the tip has already moved. It is done in its own transaction
+    private void checkTip(String tipHash, int tipHeight) {
+        final JanusGraphTransaction tx = tg.getJanusGraph().newTransaction();
+        try {
+            final GraphTraversalSource t = tx.traversal();
+            final boolean found = names.find(t, "Block", tipHash).has("BlockHeight", tipHeight).hasNext();
+            final boolean above = t.V().has("Block", "BlockHeight", tipHeight + 1).hasNext();
+            if (found && (!above || storedTipHeight() > tipHeight)) {
+                LOGGER.info("Stored tip " + tipHash + " is checked");
+            } else {
+                LOGGER.error("Stored tip " + tipHash + " at height " + tipHeight
+                        + " doesn't match blocks in Graph Database. Restart with tiprebuild=true to walk the chain");
+            }
+        } catch (RuntimeException e) {
+            LOGGER.warn("Can't check stored tip", e);
+        } finally {
+            tx.rollback();
+        }
+    }
+
+    //Height of the tip in Graph Database read in new transaction
+    private int storedTipHeight() {
+        final JanusGraphTransaction tx = tg.getJanusGraph().newTransaction();
+        try {
+            return (Integer) tx.traversal().V().has("Meta", "Meta", TIP).values("TipHeight").next();
+        } finally {
+            tx.rollback();
+        }
+    }
+
+    public BlockchainToGraph(GraphTraversalSource g, NetworkParameters np, TransactionGraph tg,
+                             String fileNameBitcoin, String fileNameBlockchainData, Map<String, String> options)
+            throws IOException {
+        this.g = g;
+        this.np = np;
+        this.tg = tg;
+        this.isExit = false;
+        this.canContinue = true;
+        this.BLOCKSPATH = fileNameBlockchainData;
+        this.BITCOINDPATH = fileNameBitcoin;
+        this.batchSize = Integer.parseInt(options.getOrDefault("batchsize", "1"));
+        this.pendingBlocks = new ArrayList<>();
+        this.vertexCache = new VertexCache(Integer.parseInt(options.getOrDefault("cachesize", "1000000")));
+        this.decoderThreads = Integer.parseInt(options.getOrDefault("decoderthreads",
+                String.valueOf(Math.max(1, Runtime.getRuntime().availableProcessors() - 1))));
+        this.decoderQueueSize = Integer.parseInt(options.getOrDefault("decoderqueue", "256"));
+        this.forkDepth = Integer.parseInt(options.getOrDefault("forkdepth", "100"));
+        this.useBlockIndex = Boolean.parseBoolean(options.getOrDefault("blockindex", "true"));
+        this.blockIndexDir = new File(options.getOrDefault("blockindexdir", fileNameBlockchainData + "/blocks/index"));
+        this.blockFiles = new BlockFileMap(8);
+        this.blockWait = Long.parseLong(options.getOrDefault("blockwait", "5000"));
+        this.bulkLoad = Boolean.parseBoolean(options.getOrDefault("bulkload", "false"));
+        this.edgeBuffer = new EdgeBuffer(Integer.parseInt(options.getOrDefault("edgebuffer", "100000")));
+        final int writerThreads = Integer.parseInt(options.getOrDefault("writerthreads", "1"));
+        if (writerThreads > 1) {
+            final AtomicInteger threadCounter = new AtomicInteger();
+            this.writers = Executors.newFixedThreadPool(writerThreads, r -> {
+                Thread t = new Thread(r, "graph-writer-" + threadCounter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        this.addressDeltas = new AddressDeltas();
+        this.addressLocks = new StripedLocks(Integer.parseInt(options.getOrDefault("lockstripes", "1024")));
+        this.writeRetries = Integer.parseInt(options.getOrDefault("writeretries", "3"));
+        this.retryBackoff = Long.parseLong(options.getOrDefault("retrybackoff", "100"));
+        this.utxoSet = new UtxoSet(new File(options.getOrDefault("utxodir", System.getProperty("user.dir")), "utxo.dat"),
+                Long.parseLong(options.getOrDefault("utxocapacity", "1048576")));
+        this.counterparties = new CounterpartySet(
+                new File(options.getOrDefault("utxodir", System.getProperty("user.dir")), "counterparty.dat"),
+                Long.parseLong(options.getOrDefault("counterpartycapacity", "1048576")));
+        this.wallets = new WalletSet(
+                new File(options.getOrDefault("utxodir", System.getProperty("user.dir")), "wallet.dat"),
+                Long.parseLong(options.getOrDefault("walletcapacity", "1048576")));
+        this.metrics = new IngestMetrics(Boolean.parseBoolean(options.getOrDefault("metricsjmx", "true")),
+                Integer.parseInt(options.getOrDefault("metricsport", "0")),
+                Long.parseLong(options.getOrDefault("progressinterval", "10")));
+        this.tipCheck = Boolean.parseBoolean(options.getOrDefault("tipcheck", "true"));
+        this.tipRebuild = Boolean.parseBoolean(options.getOrDefault("tiprebuild", "false"));
+        this.undoJournal = new UndoJournal(
+                new File(options.getOrDefault("utxodir", System.getProperty("user.dir")), "undo"),
+                Integer.parseInt(options.getOrDefault("undodepth", "100")));
+        this.pendingUndo = new ArrayList<>();
+        this.tipOptions = options;
+        this.cursorFile = new File(options.getOrDefault("utxodir", System.getProperty("user.dir")), "cursor.dat");
+        this.cursor = ResumeCursor.read(cursorFile);
+        this.names = new VertexNames(options.getOrDefault("hashencoding", VertexNames.HEX));
+        tg.checkHashEncoding(names);
+        this.getBestAndHeight();
+        metrics.setHeight(height);
+        if (!utxoSet.isConsistent(best, height)) {
+            this.rebuildUtxoSet();
+        }
+        if (!counterparties.isConsistent(best, height)) {
+            this.rebuildCounterparties();
+        }
+        if (!wallets.isConsistent(best, height)) {
+            this.rebuildWallets();
+        }
+        this.getCurrentFile();
+        final int queryPort = Integer.parseInt(options.getOrDefault("queryport", "0"));
+        if (queryPort != 0) {
+            this.summaries = new SummaryCache(Integer.parseInt(options.getOrDefault("querycache", "100000")));
+            this.queryService = new QueryService(tg, names, summaries, queryPort,
+                    Integer.parseInt(options.getOrDefault("querythreads", "2")));
+        }
+    }
+
+    //Get id of vertex with given label and name. Vertex cache is checked first, then unique name index of the label
+    private Object vertexId(String label, String name) {
+        Object id = vertexCache.get(name);
+        if (id == null) {
+            id = names.find(g, label, name).id().next();
+            vertexCache.put(name, id);
+        }
+        return id;
+    }
+
+    //Check if vertex with given label and name is in Graph Database
+    private boolean hasVertex(String label, String name) {
+        if (vertexCache.get(name) != null) {
+            return true;
+        }
+        Optional<Object> id = names.find(g, label, name).id().tryNext();
+        if (id.isPresent()) {
+            vertexCache.put(name, id.get());
+            return true;
+        }
+        return false;
+    }
+
+    //Start adding vertex with given label. In bulk-load mode its id is set from position in the chain
+    private GraphTraversal<Vertex, Vertex> addVertex(String label) {
+        if (!bulkLoad) {
+            return g.addV(label);
+        }
+        if (bulkSequence >= 1 << BULK_ID_BITS) {
+            throw new IllegalStateException("Too many vertices in block " + bulkHeight);
+        }
+        long count = BULK_ID_BASE + ((long) bulkHeight << BULK_ID_BITS) + bulkSequence++;
+        return g.addV(label).property(T.id, tg.toVertexId(count));
+    }
+
+    //Adding vertex with given label and unique name. Unique name index of the label is checked by JanusGraph
+    //when name is set, so vertex is not looked up before. Binary hashes have no unique index, so with them vertex
+    //is looked up. Null is returned if such vertex already exists. In bulk-load mode uniqueness is not checked
+    private Vertex addNamedVertex(String label, String name) {
+        if (names.isBinary() && !bulkLoad && hasVertex(label, name)) {
+            return null;
+        }
+        final Vertex vertex = addVertex(label).next();
+        try {
+            names.set(vertex, name);
+        } catch (SchemaViolationException e) {
+            vertex.remove();
+            return null;
+        }
+        vertexCache.put(name, vertex.id());
+        if (undo != null) {
+            undo.created(vertex.id(), name);
+        }
+        return vertex;
+    }
+
+    //Adding edge between vertices with given ids and properties given as key and value pairs.
+    //In bulk-load mode it is buffered until the batch is committed
+    private void addEdge(Object outId, String label, Object inId, Object... keyValues) {
+        if (bulkLoad) {
+            if (edgeBuffer.add(outId, label, inId, keyValues)) {
+                edgeBuffer.flush(g);
+            }
+        } else {
+            GraphTraversal<Vertex, Edge> edge = g.V(outId).as("a").V(inId).addE(label).from("a");
+            for (int i = 0; i < keyValues.length; i += 2) {
+                edge = edge.property(keyValues[i], keyValues[i + 1]);
+            }
+            edge.iterate();
+        }
+    }
+
+    //Date of the newest output locked to address, or given date if it's newer. Locked edges are read from
+    //lockedByDate index newest first, so only one of them is loaded even for addresses with millions of outputs.
+    //JanusGraph folds order and limit into the index query only inside local step
+    private Date lastLockedDate(Object addressId, Date otherwise) {
+        for (Edge locked : g.V(addressId).local(__.inE("locked").order().by("LockedDate", Order.desc).limit(1))
+                .toList()) {
+            Date date = locked.value("LockedDate");
+            return date.after(otherwise) ? date : otherwise;
+        }
+        return otherwise;
+    }
+
+    //Initial import reached the tip: Graph Database is reopened in incremental mode
+    private void finishBulkLoad() throws Exception {
+        commitBatch(true);
+        LOGGER.info("Bulk load is finished at block " + height + ". Switching to incremental mode");
+        tg.closeGraph();
+        g = tg.openGraph(false);
+        bulkLoad = false;
+    }
+
+    //Rebuilding UTXO set from unspent outputs stored in Graph Database
+    private void rebuildUtxoSet() throws IOException {
+        LOGGER.info("UTXO set doesn't match Graph Database. Rebuilding it. It can take a lot of time");
+        utxoSet.clear();
+        if (best == null) {
+            return;
+        }
+        long count = 0;
+        Iterator<Vertex> outputs = g.V().hasLabel("Output").has("OutputIsUsed", false);
+        while (outputs.hasNext()) {
+            Vertex output = outputs.next();
+            Optional<Object> addressId = g.V(output).out("locked").id().tryNext();
+            if (!addressId.isPresent()) {
+                continue;
+            }
+            String outputHash = names.of(g, output);
+            int i = outputHash.indexOf(':');
+            long outputBalance = output.value("OutputBalance");
+            utxoSet.put(Sha256Hash.wrap(outputHash.substring(0, i)).getBytes(),
+                    Integer.parseInt(outputHash.substring(i + 1)), (Long) output.id(), outputBalance,
+                    (Long) addressId.get());
+            if (++count % 100000 == 0) {
+                utxoSet.commit(best, height);
+                LOGGER.info("Loaded " + count + " unspent outputs");
+            }
+        }
+        utxoSet.commit(best, height);
+        g.tx().rollback();
+        LOGGER.info("UTXO set is rebuilt with " + utxoSet.size() + " unspent outputs");
+    }
+
+    //Rebuilding counterparty set from transactions stored in Graph Database and recalculating address counts.
+    //Addresses are read in current transaction and counts are written in another one committed in parts
+    private void rebuildCounterparties() throws IOException {
+        LOGGER.info("Counterparty set doesn't match Graph Database. Rebuilding it. It can take a lot of time");
+        counterparties.clear();
+        if (best == null) {
+            return;
+        }
+        long count = 0;
+        JanusGraphTransaction writer = tg.getJanusGraph().newTransaction();
+        try {
+            Iterator<Vertex> addresses = g.V().hasLabel("Address");
+            while (addresses.hasNext()) {
+                Vertex address = addresses.next();
+                long addressId = (Long) address.id();
+                int inputAddressCount = 0;
+                int outputAddressCount = 0;
+                for (Object tx : g.V(address).in("locked").in("output").dedup().id().toList()) {
+                    for (Object c : g.V(tx).in("input").out("locked").dedup().id().toList()) {
+                        if (!c.equals(addressId) && counterparties.increment(addressId, (Long) c, CounterpartySet.INPUT)) {
+                            inputAddressCount++;
+                        }
+                    }
+                }
+                for (Object tx : g.V(address).in("locked").out("input").dedup().id().toList()) {
+                    for (Object c : g.V(tx).out("output").out("locked").dedup().id().toList()) {
+                        if (!c.equals(addressId) && counterparties.increment(addressId, (Long) c, CounterpartySet.OUTPUT)) {
+                            outputAddressCount++;
+                        }
+                    }
+                }
+                writer.traversal().V(addressId).property("AddressInputAddressCount", inputAddressCount)
+                        .property("AddressOutputAddressCount", outputAddressCount).iterate();
+                if (++count % 10000 == 0) {
+                    writer.commit();
+                    writer = tg.getJanusGraph().newTransaction();
+                    counterparties.commit(best, height);
+                    LOGGER.info("Loaded counterparties of " + count + " addresses");
+                }
+            }
+            writer.commit();
+        } catch (RuntimeException e) {
+            writer.rollback();
+            throw e;
+        }
+        counterparties.commit(best, height);
+        g.tx().rollback();
+        LOGGER.info("Counterparty set is rebuilt with " + counterparties.size() + " links");
+    }
+
+    //Rebuilding wallet set from Graph Database: every address is added with its stored wallet id, addresses without
+    //it are added as wallets of their own, and input addresses of every transaction are joined. Wallets sharing
+    //an id get new ids. Then only addresses whose wallet id changed are written, in another transaction
+    //committed in parts
+    private void rebuildWallets() throws IOException {
+        LOGGER.info("Wallet set doesn't match Graph Database. Rebuilding it. It can take a lot of time");
+        wallets.clear();
+        if (best == null) {
+            return;
+        }
+        long count = 0;
+        Iterator<Vertex> addresses = g.V().hasLabel("Address");
+        while (addresses.hasNext()) {
+            final Vertex address = addresses.next();
+            final int walletId = address.<Integer>property("AddressWalletID").orElse(0);
+            if (walletId > 0) {
+                wallets.add((Long) address.id(), walletId);
+            }
+            if (++count % 100000 == 0) {
+                wallets.commit(best, height);
+                LOGGER.info("Added " + count + " addresses to wallet set");
+            }
+        }
+        Iterator<Object> ids = g.V().hasLabel("Address").id();
+        while (ids.hasNext()) {
+            final long id = (Long) ids.next();
+            if (wallets.walletId(id) == 0) {
+                wallets.add(id);
+                if (++count % 100000 == 0) {
+                    wallets.commit(best, height);
+                    LOGGER.info("Added " + count + " addresses to wallet set");
+                }
+            }
+        }
+        count = 0;
+        Iterator<Object> transactions = g.V().hasLabel("Transaction").id();
+        while (transactions.hasNext()) {
+            List<Object> inputs = g.V(transactions.next()).in("input").out("locked").dedup().id().toList();
+            for (int i = 1; i < inputs.size(); i++) {
+                wallets.union((Long) inputs.get(0), (Long) inputs.get(i), (id, walletId) -> { });
+            }
+            if (++count % 100000 == 0) {
+                wallets.commit(best, height);
+                LOGGER.info("Joined input addresses of " + count + " transactions");
+            }
+        }
+        wallets.separate();
+        wallets.commit(best, height);
+
+        count = 0;
+        long changed = 0;
+        JanusGraphTransaction writer = tg.getJanusGraph().newTransaction();
+        try {
+            addresses = g.V().hasLabel("Address");
+            while (addresses.hasNext()) {
+                final Vertex address = addresses.next();
+                final int walletId = wallets.walletId((Long) address.id());
+                if (address.<Integer>property("AddressWalletID").orElse(0) != walletId) {
+                    writer.traversal().V(address.id()).property("AddressWalletID", walletId).iterate();
+                    if (++changed % 10000 == 0) {
+                        writer.commit();
+                        writer = tg.getJanusGraph().newTransaction();
+                        LOGGER.info("Written wallet ids of " + changed + " addresses");
+                    }
+                }
+                count++;
+            }
+            writer.commit();
+        } catch (RuntimeException e) {
+            writer.rollback();
+            throw e;
+        }
+        g.tx().rollback();
+        if (summaries != null && changed > 0) {
+            summaries.clear();
+        }
+        LOGGER.info("Wallet set is rebuilt with " + wallets.size() + " addresses, wallet ids of " + changed
+                + " of " + count + " addresses are changed");
+    }
+
+    //Joining wallets of input addresses of transaction. Addresses whose wallet id changes get it
+    //with other changes of the block
+    private void joinWallets(Set<Object> inputAddressIds) {
+        Long first = null;
+        for (Object id : inputAddressIds) {
+            if (first == null) {
+                first = (Long) id;
+            } else {
+                wallets.union(first, (Long) id, addressDeltas::wallet);
+            }
+        }
+    }
+
+    //Splitting wallets of addresses touched by block deleted without journal. Members of every such wallet are
+    //joined again by transactions left in Graph Database, so only these wallets are read. Every part gets its
+    //wallet id back, addresses deleted with the block are removed. Only addresses whose wallet id changed
+    //are written, in current transaction
+    private void splitWallets(Set<Object> touched) throws IOException {
+        final Set<Long> done = new HashSet<>();
+        for (Object id : touched) {
+            if (done.contains(id)) {
+                continue;
+            }
+            final List<Long> members = wallets.members((Long) id);
+            done.addAll(members);
+            final Map<Long, Long> parents = new HashMap<>();
+            final List<Long> deleted = new ArrayList<>();
+            for (Long member : members) {
+                if (g.V(member).hasNext()) {
+                    parents.put(member, member);
+                } else {
+                    deleted.add(member);
+                }
+            }
+            final Set<Object> spending = new HashSet<>();
+            for (Long member : members) {
+                if (!parents.containsKey(member)) {
+                    continue;
+                }
+                for (Object tx : g.V(member).in("locked").out("input").dedup().id().toList()) {
+                    if (!spending.add(tx)) {
+                        continue;
+                    }
+                    final List<Object> inputs = g.V(tx).in("input").out("locked").dedup().id().toList();
+                    for (int i = 1; i < inputs.size(); i++) {
+                        parents.put(root(parents, (Long) inputs.get(i)), root(parents, (Long) inputs.get(0)));
+                    }
+                }
+            }
+
+            final Map<Long, List<Long>> parts = new LinkedHashMap<>();
+            for (Long member : members) {
+                if (parents.containsKey(member)) {
+                    parts.computeIfAbsent(root(parents, member), k -> new ArrayList<>()).add(member);
+                }
+            }
+            for (List<Long> part : parts.values()) {
+                wallets.split(part);
+            }
+            for (Long member : deleted) {
+                wallets.delete(member);
+            }
+            for (Long member : parents.keySet()) {
+                final int walletId = wallets.walletId(member);
+                if (g.V(member).values("AddressWalletID").next().equals(walletId)) {
+                    continue;
+                }
+                g.V(member).property("AddressWalletID", walletId).iterate();
+            }
+            if (parts.size() > 1) {
+                LOGGER.info("Wallet of " + members.size() + " addresses is split into " + parts.size() + " wallets");
+            }
+        }
+    }
+
+    //Root of address in wallets joined by splitWallets
+    private static Long root(Map<Long, Long> parents, Long id) {
+        Long root = id;
+        while (!parents.get(root).equals(root)) {
+            root = parents.get(root);
+        }
+        return root;
+    }
+
+    //Input and output addresses of written transaction
+    private static final class TransactionAddresses {
+        final Set<Object> inputs;
+        final Set<Object> outputs;
+
+        TransactionAddresses(Set<Object> inputs, Set<Object> outputs) {
+            this.inputs = inputs;
+            this.outputs = outputs;
+        }
+    }
+
+    //Wallet set is changed by transactions written by writer threads in order of the block, as if they were
+    //written one after another: input addresses of transaction are joined, then its new output addresses are added.
+    //So wallet ids don't depend on which thread was first
+    private void updateWallets(List<TransactionAddresses> transactions) throws IOException {
+        for (TransactionAddresses tx : transactions) {
+            joinWallets(tx.inputs);
+            for (Object id : tx.outputs) {
+                if (wallets.walletId((Long) id) == 0) {
+                    addressDeltas.wallet(id, wallets.add((Long) id));
+                }
+            }
+        }
+    }
+
+    //Linking input and output addresses of transaction as counterparties, sign is 1 when transaction is added
+    //and -1 when it is deleted. Only addresses whose number of counterparties changed get changes,
+    //which are written with other changes of the block
+    private void updateCounterparties(Set<Object> inputs, Set<Object> outputs, int sign) throws IOException {
+        Map<Object, int[]> deltas = new HashMap<>();
+        for (Object in : inputs) {
+            for (Object out : outputs) {
+                if (in.equals(out)) {
+                    continue;
+                }
+                //Output address got coins from input address and input address sent coins to output address
+                if (link((Long) out, (Long) in, CounterpartySet.INPUT, sign)) {
+                    deltas.computeIfAbsent(out, k -> new int[2])[0] += sign;
+                }
+                if (link((Long) in, (Long) out, CounterpartySet.OUTPUT, sign)) {
+                    deltas.computeIfAbsent(in, k -> new int[2])[1] += sign;
+                }
+            }
+        }
+        for (Map.Entry<Object, int[]> delta : deltas.entrySet()) {
+            addressDeltas.counterparties(delta.getKey(), delta.getValue()[0], delta.getValue()[1]);
+        }
+    }
+
+    private boolean link(long addressId, long counterpartyId, int direction, int sign) throws IOException {
+        return sign > 0 ? counterparties.increment(addressId, counterpartyId, direction)
+                : counterparties.decrement(addressId, counterpartyId, direction);
+    }
+
+    //Flushing pending blocks and closing UTXO set and Graph Database
+    void close() throws Exception {
+        commitBatch(true);
+        //Tip loaded at start or by walking the chain gets its cursor too
+        if (best != null && (cursor == null || !cursor.isAt(best, height))) {
+            writeCursor(ResumeCursor.of(null, height, best));
+        }
+        if (writers != null) {
+            writers.shutdown();
+        }
+        utxoSet.close();
+        counterparties.close();
+        wallets.close();
+        blockFiles.close();
+        closeBlockIndex();
+        if (follower != null) {
+            follower.close();
+        }
+        if (queryService != null) {
+            queryService.close();
+        }
+        metrics.close();
+        tg.closeGraph();
+    }
+
+    //Off-heap sets kept with Graph Database, they are checked by tests
+    UtxoSet getUtxoSet() {
+        return utxoSet;
+    }
+
+    CounterpartySet getCounterparties() {
+        return counterparties;
+    }
+
+    WalletSet getWallets() {
+        return wallets;
+    }
+
+    //Get last blk***.dat file
+    private void getCurrentFile() {
+        for (int i = 0; true; i++) {
+            File file = new File(BLOCKSPATH + "/blocks/" + String.format(Locale.US, "blk%05d.dat", i));
+            if (!file.exists())  {
+                currentFileCount = i - 1;
+                break;
+            }
+        }
+    }
+
+    //Adds new best block of Bitcoin node to Graph Database and deletes wrong chain.
+    //Node can skip blocks in notifications, so blocks are read back from new one until a block of Graph Database.
+    //Raw block given by tip source is parsed without reading blk***.dat files
+    private void updateDatabase(TipSource.Tip tip) throws Exception {
+
+        //Blocks left from parsing blockchain must be in Graph Database before going on
+        commitBatch(true);
+        located.clear();
+
+        //New best block is already in Graph Database, blocks above it are deleted if there are any
+        if (hasVertex("Block", tip.getHash())) {
+            deleteInvalidBlocks(tip.getHash());
+            return;
+        }
+
+        //New blocks from the last one down to the first one on top of a block of Graph Database
+        final Deque<DecodedBlock> blocks = new ArrayDeque<>();
+        DecodedBlock block = tip.getRaw() != null ? DecodedBlock.decode(tip.getRaw(), np) : readBlock(tip.getHash());
+        while (block != null) {
+            blocks.push(block);
+            if (hasVertex("Block", block.getPrevBlockHash())) {
+                break;
+            }
+            block = readBlock(block.getPrevBlockHash());
+        }
+        if (block == null) {
+            LOGGER.warn("Block " + (blocks.isEmpty() ? tip.getHash() : blocks.peek().getPrevBlockHash())
+                    + " is not found in blk files");
+            return;
+        }
+
+        //Deleting wrong blocks and adding new ones
+        deleteInvalidBlocks(block.getPrevBlockHash());
+        for (DecodedBlock next : blocks) {
+            parseBlock(next, height + 1, located.remove(next.getHashAsString()));
+            commitBatch(true);
+        }
+    }
+
+    //Reading block with given hash from blk***.dat files, null if it's not found
+    private DecodedBlock readBlock(String hash) throws Exception {
+        final BlockLocation location = findBlock(hash);
+        if (location == null) {
+            return null;
+        }
+        located.put(hash, location);
+        return DecodedBlock.decode(blockFiles.slice(location), np);
+    }
+
+    //Starting Synchronize blocks. New blocks are taken from tip source until it is closed or program is stopped.
+    //Failures don't stop synchronizing: blocks of failed tip are already rolled back, so the tip is added again
+    //after a pause, which doubles with every retry. After the last retry the tip is skipped, its blocks are added
+    //with the next one. Failed poll is retried the same way. Only interruption stops synchronizing
+    private void synchronizeDatabase() {
+        LOGGER.info("Start synchronizing");
+        try (TipSource source = TipSource.open(tipOptions, BITCOINDPATH, BLOCKSPATH, file -> currentFileCount = file)) {
+            TipSource.Tip tip = null;
+            int failures = 0;
+            while (!isExit && !source.isClosed()) {
+                try {
+                    if (tip == null) {
+                        tip = source.poll();
+                        if (tip == null) {
+                            continue;
+                        }
+                        LOGGER.info("New block was found with hash " + tip.getHash());
+                    }
+
+                    //Call update method to add new block and delete wrong chain
+                    updateDatabase(tip);
+                    metrics.setTipHeight(tip.getHeight() >= 0 ? tip.getHeight() : height);
+                    tip = null;
+                    failures = 0;
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    g.tx().rollback();
+                    located.clear();
+                    if (tip != null && failures >= writeRetries) {
+                        LOGGER.error("Failed to add block " + tip.getHash() + ". It is skipped, its blocks are added "
+                                + "with the next block", e);
+                        tip = null;
+                        failures = 0;
+                        continue;
+                    }
+                    final long pause = retryBackoff << Math.min(failures++, 10);
+                    LOGGER.warn((tip == null ? "Failed to get new block" : "Failed to add block " + tip.getHash())
+                            + ": " + e + ". Trying again in " + pause + " ms", e);
+                    Thread.sleep(pause);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.error("Synchronizing is interrupted", e);
+        } catch (Exception e) {
+            LOGGER.error(e.getMessage(), e);
+        }
+    }
+
+    //This methods adds Block to Graph Database
+    private void addBlockToGraph(String prevBlockHash, String curBlockHash, Date blockDate,
+                                        int blockHeight, int blockTransactionCount, long blockBalance,
+                                        long blockCoinBaseBalance, long blockFee) {
+        //Block is not added again if it is already in Graph Database
+        final Vertex curBlock = addNamedVertex("Block", curBlockHash);
+        if (curBlock == null) {
+            return;
+        }
+        g.V(curBlock).property("BlockDate", blockDate).property("BlockHeight", blockHeight)
+                .property("BlockTransactionCount", blockTransactionCount).property("BlockBalance", blockBalance)
+                .property("BlockCoinBaseBalance", blockCoinBaseBalance).property("BlockFee", blockFee).iterate();
+
+        if (blockHeight != 0) {
+            addEdge(vertexId("Block", prevBlockHash), "chain", curBlock.id());
+        }
+    }
+
+    //This methods adds Transaction to Graph Database
+    private void addTransactionToGraph(String blockHash, int blockHeight, String transactionHash,
+                                              int transactionInputCount, int transactionOutputCount,
+                                       long transactionBalance, Date transactionDate, int transactionNewAddressCount,
+                                       boolean transactionIsCoinBase, long transactionFee,
+                                       boolean transactionIsBetweenOneAddress) {
+        //Transaction is not added again if it is already in Graph Database
+        final Vertex transaction = addNamedVertex("Transaction", transactionHash);
+        if (transaction == null) {
+            return;
+        }
+        g.V(transaction).property("TransactionInputCount", transactionInputCount)
+                .property("TransactionOutputCount", transactionOutputCount)
+                .property("TransactionBalance", transactionBalance)
+                .property("TransactionDate", transactionDate)
+                .property("TransactionNewAddressCount", transactionNewAddressCount)
+                .property("TransactionIsCoinBase", transactionIsCoinBase)
+                .property("TransactionFee", transactionFee)
+                .property("TransactionIsBetweenOneAddress", transactionIsBetweenOneAddress).iterate();
+
+        addEdge(vertexId("Block", blockHash), "has", transaction.id());
+    }
+
+    //This methods updates output into input of Graph Database
+    private void addInputToGraph(String transactionHash, String outputHash, Object outputId, long outputBalance) {
+        g.V(outputId).property("OutputIsUsed", true).iterate();
+
+        addEdge(outputId, "input", vertexId("Transaction", transactionHash), "InputBalance", outputBalance);
+    }
+
+    //This methods adds Input to Graph Database
+    private void addOutputToGraph(int blockHeight, String transactionHash,
+                                  String outputHash, int outputHeight, long outputBalance, boolean outputIsUsed) {
+        //Output is not added again if it is already in Graph Database
+        final Vertex output = addNamedVertex("Output", outputHash);
+        if (output == null) {
+            return;
+        }
+        g.V(output).property("OutputHeight", outputHeight).property("OutputBalance", outputBalance)
+                .property("OutputIsUsed", outputIsUsed).iterate();
+
+        addEdge(vertexId("Transaction", transactionHash), "output", output.id(), "OutputIndex", outputHeight);
+    }
+
+    //This methods adds Address to Graph Database. Its properties are set when changes of the block are written
+    private Object addAddressToGraph(String addressAddress, Date addressFirstAppearDate) throws IOException {
+        final Object addressId = addVertex("Address").property("name", addressAddress).id().next();
+        vertexCache.put(addressAddress, addressId);
+        if (undo != null) {
+            undo.created(addressId, addressAddress);
+        }
+        //Writer threads add new addresses to wallet set after the block is written, in order of its transactions
+        addressDeltas.created(addressId, addressFirstAppearDate, isConcurrent() ? 0 : wallets.add((Long) addressId));
+        return addressId;
+    }
+
+    //Writing changes of addresses made by the block. Every address is read and written once: properties of
+    //address created by the block are set, stored balances and counts of other addresses are changed
+    //only if their changes are not zero
+    private void writeAddresses() {
+        for (AddressDeltas.Delta delta : addressDeltas.drain()) {
+            //Address can be already deleted with its last output
+            final Optional<Vertex> found = g.V(delta.id).tryNext();
+            if (!found.isPresent()) {
+                continue;
+            }
+            final Vertex address = found.get();
+            if (delta.created) {
+                address.property("AddressBalance", delta.balance);
+                address.property("AddressFirstAppearDate", delta.firstAppearDate);
+                address.property("AddressLastAppearDate", delta.lastAppearDate);
+                address.property("AddressInputTransactionBalance", delta.inputTransactionBalance);
+                address.property("AddressOutputTransactionBalance", delta.outputTransactionBalance);
+                address.property("AddressTransactionCount", delta.transactionCount);
+                address.property("AddressInputTransactionCount", delta.inputTransactionCount);
+                address.property("AddressOutputTransactionCount", delta.outputTransactionCount);
+                address.property("AddressInputAddressCount", delta.inputAddressCount);
+                address.property("AddressOutputAddressCount", delta.outputAddressCount);
+                address.property("AddressBetweenAddressTransactionCount", delta.betweenAddressTransactionCount);
+                address.property("AddressWalletID", delta.walletId);
+                summarize(address);
+                continue;
+            }
+            if (undo != null) {
+                undo.address(address);
+            }
+            add(address, "AddressBalance", delta.balance);
+            if (delta.lastAppearDate != null) {
+                address.property("AddressLastAppearDate", delta.lastAppearDate);
+            }
+            add(address, "AddressInputTransactionBalance", delta.inputTransactionBalance);
+            add(address, "AddressOutputTransactionBalance", delta.outputTransactionBalance);
+            add(address, "AddressTransactionCount", delta.transactionCount);
+            add(address, "AddressInputTransactionCount", delta.inputTransactionCount);
+            add(address, "AddressOutputTransactionCount", delta.outputTransactionCount);
+            add(address, "AddressInputAddressCount", delta.inputAddressCount);
+            add(address, "AddressOutputAddressCount", delta.outputAddressCount);
+            add(address, "AddressBetweenAddressTransactionCount", delta.betweenAddressTransactionCount);
+            if (delta.walletId != 0) {
+                address.property("AddressWalletID", delta.walletId);
+            }
+            summarize(address);
+        }
+    }
+
+    //Keeping summary of written address until its block is committed
+    private void summarize(Vertex address) {
+        if (summaries != null) {
+            final String name = address.value("name");
+            pendingSummaries.put(name, SummaryCache.summary(address, name));
+        }
+    }
+
+    //Putting summaries of addresses written by committed blocks into the cache, or forgetting them after rollback
+    private void publishSummaries(boolean committed) {
+        if (summaries != null && committed) {
+            for (Map.Entry<String, Map<String, Object>> summary : pendingSummaries.entrySet()) {
+                summaries.put("Address", summary.getKey(), summary.getValue());
+            }
+        }
+        pendingSummaries.clear();
+    }
+
+    private static void add(Vertex address, String key, long delta) {
+        if (delta != 0) {
+            address.property(key, address.<Long>value(key) + delta);
+        }
+    }
+
+    private static void add(Vertex address, String key, int delta) {
+        if (delta != 0) {
+            address.property(key, address.<Integer>value(key) + delta);
+        }
+    }
+
+    //This method parses blockchain. It parses blk***.dat files stored on disk and
+    //adds information from them in Graph Database
+    public void parseBlockChain() throws Exception{
+
+        //Counter to control the progress
+        int blockCounter = 0;
+
+        //Hash of previous block to check the blockchain
+        String previousHash = ChainBuilder.GENESIS_PREV_HASH;
+
+        //Blocks after the last committed one if resume cursor points to it, otherwise blocks from genesis
+        //are checked against Graph Database
+        Iterator<BlockLocation> locations = resumeLocations();
+        if (locations != null) {
+            LOGGER.info("Resuming after block " + cursor);
+            blockCounter = height + 1;
+            previousHash = best;
+            canContinue = true;
+        } else {
+            locations = blockLocations();
+        }
+
+        //Creating a pipeline that reads blocks in chain order and decodes them in other threads.
+        BlockPipeline loader = new BlockPipeline(np, locations, blockFiles, decoderThreads, decoderQueueSize);
+
+        //Parsing all blockchain
+        for (DecodedBlock block : loader) {
+
+            //Checking blocks for right chain
+            if (!block.getPrevBlockHash().equals(previousHash)) {
+                throw new Exception("Invalid chain");
+            }
+            previousHash = block.getHashAsString();
+
+            //Parsing block
+            if (isExit) {
+                loader.close();
+                close();
+                LOGGER.info("Last checked block " + (blockCounter - 1) + ". Shutting down. " + vertexCache);
+                System.exit(0);
+            }
+            metrics.progress(blockCounter);
+            if (canContinue) {
+                parseBlock(block, blockCounter, loader.getLocation());
+            } else {
+                String checkBlockHash = block.getHashAsString();
+                if (checkBlockHash.equals(best)) {
+                    canContinue = true;
+                }  else if (!hasVertex("Block", checkBlockHash)) {
+                    String lastBlockHash = block.getPrevBlockHash();
+                    deleteInvalidBlocks(lastBlockHash);
+                    canContinue = true;
+                    parseBlock(block, blockCounter, loader.getLocation());
+                }
+            }
+            blockCounter++;
+        }
+
+        commitBatch(true);
+        LOGGER.info("Blockchain is parsed. " + vertexCache);
+        if (bulkLoad) {
+            finishBulkLoad();
+        }
+    }
+
+    //Blocks in chain order: from Bitcoin Core block index if it can be read,
+    //otherwise all blk***.dat files are scanned and blocks are ordered by their previous hash
+    private Iterator<BlockLocation> blockLocations() {
+        final BlockIndex index = blockIndex(false);
+        if (index != null) {
+            return index.iterator(0);
+        }
+        return new ChainBuilder(forkDepth).order(new RawBlockReader(np, buildList(0), blockFiles));
+    }
+
+    //Blocks after the block of resume cursor if cursor points to the stored tip. Block index gives them
+    //by height if the block is still in its best chain. Otherwise blk***.dat files are scanned if the block is
+    //still at the position of cursor: Bitcoin Core stores blocks a little out of order, so scanning starts from
+    //the file before it, and blocks not descending from the block are skipped. Null if cursor can't be used
+    private Iterator<BlockLocation> resumeLocations() {
+        if (cursor == null || best == null) {
+            return null;
+        }
+        if (!cursor.isAt(best, height)) {
+            LOGGER.info("Resume cursor " + cursor + " doesn't match stored tip " + best + ". Checking blocks from genesis");
+            return null;
+        }
+        final BlockIndex index = blockIndex(false);
+        if (index != null) {
+            if (height <= index.getBestHeight() && index.getByHeight(height).getHash().equals(best)) {
+                return index.iterator(height + 1);
+            }
+            LOGGER.info("Block " + best + " is not in the best chain of block index. Checking blocks from genesis");
+            return null;
+        }
+        if (!cursor.isStored(new File(BLOCKSPATH + "/blocks"), blockFiles)) {
+            LOGGER.info("Block " + cursor + " is not found at its position. Checking blocks from genesis");
+            return null;
+        }
+        return new ChainBuilder(forkDepth, best, height)
+                .order(new RawBlockReader(np, buildList(Math.max(0, cursor.getFileNumber() - 1)), blockFiles));
+    }
+
+    //Location of new block: blocks appended to blk***.dat files since last call are read first, then Bitcoin Core
+    //block index is checked if it can be read, at last blk***.dat files are watched until the block is written.
+    //Follower starts from the beginning of the last file
+    private BlockLocation findBlock(String hash) throws IOException, InterruptedException {
+        if (follower == null) {
+            follower = new BlockFileFollower(np, new File(BLOCKSPATH + "/blocks"), blockFiles, currentFileCount, 0,
+                    10000);
+        }
+        BlockLocation found = follower.find(hash, 0);
+        if (found != null) {
+            return found;
+        }
+        BlockIndex index = blockIndex(false);
+        BlockLocation location = index != null ? index.get(hash) : null;
+        if (location == null && index != null) {
+            index = blockIndex(true);
+            location = index != null ? index.get(hash) : null;
+        }
+        if (location != null) {
+            return location;
+        }
+        return follower.find(hash, blockWait);
+    }
+
+    //Snapshot of block index, it is taken again if refresh is asked. Index that can't be read isn't used any more,
+    //null is returned then
+    private BlockIndex blockIndex(boolean refresh) {
+        if (!useBlockIndex || (blockIndex != null && !refresh)) {
+            return blockIndex;
+        }
+        closeBlockIndex();
+        try {
+            blockIndex = BlockIndex.open(blockIndexDir, new File(BLOCKSPATH + "/blocks"));
+            metrics.setTipHeight(blockIndex.getBestHeight());
+        } catch (Exception e) {
+            LOGGER.error("Block index is enabled, but it can't be read from " + blockIndexDir
+                    + ". Scanning blk files", e);
+            useBlockIndex = false;
+        }
+        return blockIndex;
+    }
+
+    private void closeBlockIndex() {
+        if (blockIndex != null) {
+            try {
+                blockIndex.close();
+            } catch (IOException e) {
+                LOGGER.warn("Can't delete block index snapshot", e);
+            }
+            blockIndex = null;
+        }
+    }
+
+    //Deleting invalid blocks
+    private void deleteInvalidBlocks(String lastBlockHash) throws Exception {
+        commitBatch(true);
+        int depth = 0;
+        while (!lastBlockHash.equals(best)) {
+            Vertex nextBlock = g.V(vertexId("Block", best)).in("chain").next();
+            final long start = System.nanoTime();
+            deleteBlock(best, height);
+            metrics.time(IngestMetrics.Method.DELETE_BLOCK, start);
+            best = names.of(g, nextBlock);
+            height--;
+            depth++;
+        }
+        if (depth > 0) {
+            metrics.reorg(depth);
+        }
+    }
+
+    //Calculating blocks signs, then calling addBlockToGraph method
+    private void addBlock(DecodedBlock block, int blockCounter) {
+
+        String curBlockHash = block.getHashAsString();
+        Date blockDate = block.getTime();
+        final int blockTransactionCount = block.hasTransactions() ? block.getTransactions().size() : 0;
+        long blockCoinBaseBalance = block.getBlockInflation(blockCounter);
+        long blockBalance = blockCoinBaseBalance;
+        long blockFee = 0;
+
+        final long start = System.nanoTime();
+        addBlockToGraph(block.getPrevBlockHash(), curBlockHash, blockDate,
+                blockCounter, blockTransactionCount, blockBalance, blockCoinBaseBalance, blockFee);
+        metrics.time(IngestMetrics.Method.ADD_BLOCK, start);
+    }
+
+    //Recalculating blocks signs, then updating block in Graph Database
+    private void updateBlock(String blockHash, int blockCounter, long blockBalance, long blockFee) {
+        g.V(vertexId("Block", blockHash))
+                .property("BlockBalance", blockBalance).property("BlockFee", blockFee).iterate();
+    }
+
+    //Output spent by deleted transaction is unspent again: it's put back to UTXO set and its address gets
+    //the spending undone. Output created by the same block is dropped later in this Graph Database transaction,
+    //so its property isn't changed, as in undoBlock
+    private void updateOutput(Vertex output, boolean dropped) throws IOException {
+        String o = names.of(g, output);
+        if (!dropped) {
+            g.V(output).property("OutputIsUsed", false).iterate();
+        }
+
+        final Object addressId = g.V(output).out("locked").id().next();
+        int i = o.indexOf(':');
+        long outputBalance = output.value("OutputBalance");
+        utxoSet.put(Sha256Hash.wrap(o.substring(0, i)).getBytes(), Integer.parseInt(o.substring(i + 1)),
+                (Long) output.id(), outputBalance, (Long) addressId);
+        addressDeltas.removeInput(addressId, outputBalance);
+    }
+
+    //Deleting output from Graph Database, its address gets the payment undone
+    private void deleteOutput(String transactionHash, Vertex output) {
+        String o = names.of(g, output);
+
+        //Provably unspendable output has no address and isn't in UTXO set
+        final Optional<Object> addressId = g.V(output).out("locked").id().tryNext();
+        if (addressId.isPresent()) {
+            long outputBalance = output.value("OutputBalance");
+            boolean inputAddress = g.V(vertexId("Transaction", transactionHash))
+                    .in("input").out("locked").hasId(addressId.get()).hasNext();
+            addressDeltas.removeOutput(addressId.get(), outputBalance, inputAddress);
+            removeUtxo(o);
+        }
+
+        g.V(output).drop().iterate();
+        vertexCache.remove(o);
+    }
+
+    //Deleting Transaction from Graph Database, its input and output addresses are added to touched addresses.
+    //Transactions of the block are given to know spent outputs which are dropped with the block
+    private void deleteTransaction(Vertex transaction, Set<Object> block, Set<Object> touched) throws IOException {
+        String tx = names.of(g, transaction);
+        final List<Vertex> outputs = g.V(vertexId("Transaction", tx)).out("output").toList();
+        final List<Vertex> inputs = g.V(vertexId("Transaction", tx)).in("input").toList();
+
+        Set<Object> inputAddresses = new HashSet<>();
+        Set<Object> outputAddresses = new HashSet<>();
+
+        for (Vertex in : inputs) {
+            String s = names.of(g, in);
+            inputAddresses.add(g.V(vertexId("Output", s)).out("locked").id().next());
+        }
+        for (Vertex out : outputs) {
+            String s = names.of(g, out);
+            g.V(vertexId("Output", s)).out("locked").id().tryNext().ifPresent(outputAddresses::add);
+        }
+
+        for (Vertex o : outputs) {
+            final long start = System.nanoTime();
+            deleteOutput(tx, o);
+            metrics.time(IngestMetrics.Method.DELETE_OUTPUT, start);
+        }
+
+        for (Vertex in : inputs) {
+            final long start = System.nanoTime();
+            updateOutput(in, block.contains(g.V(in).in("output").id().next()));
+            metrics.time(IngestMetrics.Method.UPDATE_OUTPUT, start);
+        }
+
+        g.V(vertexId("Transaction", tx)).drop().iterate();
+        vertexCache.remove(tx);
+
+        touched.addAll(inputAddresses);
+        touched.addAll(outputAddresses);
+
+        long start = System.nanoTime();
+        updateCounterparties(inputAddresses, outputAddresses, -1);
+        metrics.time(IngestMetrics.Method.UPDATE_COUNTERPARTIES, start);
+    }
+
+    //Addresses touched by deleted block: address left without outputs was created by the block and is dropped,
+    //others get last appear date found again. It's the date of the newest transaction paying or spending from
+    //address, so spent outputs of address are read
+    private void updateLastAppearDates(Set<Object> touched) {
+        for (Object id : touched) {
+            final Optional<Vertex> found = g.V(id).tryNext();
+            if (!found.isPresent()) {
+                continue;
+            }
+            final Vertex address = found.get();
+            if (!g.V(id).inE("locked").hasNext()) {
+                vertexCache.remove(address.<String>value("name"));
+                g.V(id).drop().iterate();
+                continue;
+            }
+            Date lastAppearDate = lastLockedDate(id, address.value("AddressFirstAppearDate"));
+            final Optional<Object> spent = g.V(id).in("locked").has("OutputIsUsed", true).out("input")
+                    .values("TransactionDate").order().by(Order.desc).limit(1).tryNext();
+            if (spent.isPresent() && ((Date) spent.get()).after(lastAppearDate)) {
+                lastAppearDate = (Date) spent.get();
+            }
+            addressDeltas.lastAppearDate(id, lastAppearDate);
+        }
+    }
+
+    //Transactions of block ordered so that every transaction comes after transactions of the block spending its
+    //outputs, then outputs spent in the same block are restored before they are deleted. Edges of block vertex
+    //aren't read in order of transactions in the block
+    private List<Vertex> spendersFirst(List<Vertex> transactions, Set<Object> block) {
+        final List<Vertex> ordered = new ArrayList<>(transactions.size());
+        final Set<Object> visited = new HashSet<>();
+        final Deque<Iterator<Vertex>> spenders = new ArrayDeque<>();
+        final Deque<Vertex> path = new ArrayDeque<>();
+        for (Vertex tx : transactions) {
+            if (!visited.add(tx.id())) {
+                continue;
+            }
+            path.push(tx);
+            spenders.push(g.V(tx).out("output").out("input").toList().iterator());
+            while (!path.isEmpty()) {
+                if (spenders.peek().hasNext()) {
+                    final Vertex spender = spenders.peek().next();
+                    if (block.contains(spender.id()) && visited.add(spender.id())) {
+                        path.push(spender);
+                        spenders.push(g.V(spender).out("output").out("input").toList().iterator());
+                    }
+                } else {
+                    spenders.pop();
+                    ordered.add(path.pop());
+                }
+            }
+        }
+        return ordered;
+    }
+
+    //Deleting Block from Graph Database. Whole block is deleted in one transaction.
+    //Its undo journal is applied if there is one, otherwise changes are found by reading Graph Database
+    void deleteBlock(String blockHash, int blockCounter) throws Exception {
+        try {
+            final UndoJournal.Block journal = undoJournal.read(blockCounter, blockHash);
+            LOGGER.info("Deleting block " + blockCounter + (journal != null ? " by undo journal" : ""));
+
+            final String prevBlockHash;
+            if (journal != null) {
+                prevBlockHash = journal.getPrevHash();
+                undoBlock(journal);
+            } else {
+                prevBlockHash = names.of(g, g.V(vertexId("Block", blockHash)).in("chain").next());
+                final List<Vertex> transactions = g.V(vertexId("Block", blockHash)).out("has").toList();
+                final Set<Object> block = new HashSet<>();
+                for (Vertex tx : transactions) {
+                    block.add(tx.id());
+                }
+                final Set<Object> touched = new HashSet<>();
+                for (Vertex tx : spendersFirst(transactions, block)) {
+                    final long start = System.nanoTime();
+                    deleteTransaction(tx, block, touched);
+                    metrics.time(IngestMetrics.Method.DELETE_TRANSACTION, start);
+                }
+                g.V(vertexId("Block", blockHash)).drop().iterate();
+                vertexCache.remove(blockHash);
+                updateLastAppearDates(touched);
+                final long start = System.nanoTime();
+                writeAddresses();
+                metrics.time(IngestMetrics.Method.WRITE_ADDRESSES, start);
+                splitWallets(touched);
+            }
+            writeTip(prevBlockHash, blockCounter - 1);
+
+            final Timer.Context commit = metrics.commit();
+            try {
+                g.tx().commit();
+            } finally {
+                commit.stop();
+            }
+            metrics.setHeight(blockCounter - 1);
+            utxoSet.commit(prevBlockHash, blockCounter - 1);
+            counterparties.commit(prevBlockHash, blockCounter - 1);
+            wallets.commit(prevBlockHash, blockCounter - 1);
+            undoJournal.delete(blockCounter);
+            writeCursor(ResumeCursor.of(null, blockCounter - 1, prevBlockHash));
+            publishSummaries(false);
+            if (summaries != null) {
+                summaries.clear();
+            }
+
+        } catch (Exception e) {
+            LOGGER.error("Failed to delete block " + blockCounter + ". Rolling it back", e);
+
+            g.tx().rollback();
+            vertexCache.clear();
+            addressDeltas.clear();
+            publishSummaries(false);
+            utxoSet.rollback();
+            counterparties.rollback();
+            wallets.rollback();
+            throw e;
+        }
+    }
+
+    //Applying undo journal of block in current transaction: properties of addresses and spent outputs are restored,
+    //vertices created by the block are dropped with their edges at once, UTXO and counterparty sets are reverted.
+    //Outputs created and spent by the block are put back to UTXO set and then removed
+    private void undoBlock(UndoJournal.Block journal) throws IOException {
+        for (Map.Entry<Long, Object[]> address : journal.getAddresses().entrySet()) {
+            GraphTraversal<Vertex, Vertex> restore = g.V(address.getKey());
+            for (int i = 0; i < UndoJournal.ADDRESS_PROPERTIES.length; i++) {
+                restore = restore.property(UndoJournal.ADDRESS_PROPERTIES[i], address.getValue()[i]);
+            }
+            restore.iterate();
+        }
+        //Output created and spent by the block is only dropped: JanusGraph leaves a changed property of vertex
+        //dropped in the same transaction as a vertex without label
+        final Set<Long> created = new HashSet<>(journal.getCreatedIds());
+        for (UndoJournal.Outpoint spent : journal.getSpent()) {
+            if (!created.contains(spent.outputId)) {
+                g.V(spent.outputId).property("OutputIsUsed", false).iterate();
+            }
+        }
+        if (!journal.getCreatedIds().isEmpty()) {
+            g.V(journal.getCreatedIds().toArray()).drop().iterate();
+        }
+        for (String name : journal.getCreatedNames()) {
+            vertexCache.remove(name);
+        }
+
+        for (UndoJournal.Outpoint spent : journal.getSpent()) {
+            utxoSet.put(spent.txHash, spent.index, spent.outputId, spent.value, spent.addressId);
+        }
+        for (UndoJournal.Outpoint unspent : journal.getUnspent()) {
+            utxoSet.remove(unspent.txHash, unspent.index);
+        }
+        wallets.undo(journal.getWallets());
+        //Address counts are restored with other properties, so only counterparty set is changed
+        for (long[][] link : journal.getLinks()) {
+            for (long in : link[0]) {
+                for (long out : link[1]) {
+                    if (in != out) {
+                        link(out, in, CounterpartySet.INPUT, -1);
+                        link(in, out, CounterpartySet.OUTPUT, -1);
+                    }
+                }
+            }
+        }
+    }
+
+    //Calculating transaction signs, then calling addTransactionToGraph method
+    private void addTransaction(String blockHash, int blockHeight, int transactionInputCount, int transactionOutputCount,
+                        DecodedBlock.DecodedTransaction transaction, Date transactionDate) {
+
+        String transactionHash = transaction.getHash();
+        long transactionBalance = transaction.getInputSum();
+        int transactionNewAddressCount = 0;
+        boolean transactionIsCoinBase = transaction.isCoinBase();
+        long transactionFee = transaction.getFee();
+        boolean transactionIsBetweenOneAddress = false;
+
+        final long start = System.nanoTime();
+        addTransactionToGraph(blockHash, blockHeight, transactionHash,
+                transactionInputCount, transactionOutputCount, transactionBalance, transactionDate,
+                transactionNewAddressCount, transactionIsCoinBase, transactionFee, transactionIsBetweenOneAddress);
+        metrics.time(IngestMetrics.Method.ADD_TRANSACTION, start);
+    }
+
+    //Recalculating transaction signs, then updating transaction in Graph Database
+    private void updateTransaction(String transactionHash, int transactionNewAddressCount,
+                                   boolean transactionIsBetweenOneAddress) {
+        g.V(vertexId("Transaction", transactionHash))
+                .property("TransactionNewAddressCount", transactionNewAddressCount)
+                .property("TransactionIsBetweenOneAddress", transactionIsBetweenOneAddress).iterate();
+    }
+
+    //Adding output to changes of address, address is added to Graph Database if it's new. Returns true if
+    //address is new. It must be called under lock of the address
+    private boolean addAddress(String outputHash, String addressAddress, long outputBalance, Date date,
+                               Set<Object> inputAddressIds) throws IOException {
+        final boolean isOldAddress = hasVertex("Address", addressAddress);
+        final Object addressId;
+        if (isOldAddress) {
+            addressId = vertexId("Address", addressAddress);
+        } else {
+            final long start = System.nanoTime();
+            addressId = addAddressToGraph(addressAddress, date);
+            metrics.time(IngestMetrics.Method.ADD_ADDRESS, start);
+        }
+
+        //Addresses of spent outputs are known, so input edges are not read
+        addressDeltas.output(addressId, outputBalance, date, inputAddressIds.contains(addressId));
+
+        addEdge(vertexId("Output", outputHash), "locked", addressId,
+                "LockedDate", date, "LockedBalance", outputBalance);
+        return !isOldAddress;
+    }
+
+    //Adding spent output to changes of address
+    private void updateAddress(Object addressId, long outputBalance, Date date) {
+        addressDeltas.input(addressId, outputBalance, date);
+    }
+
+    //Calling addInputToGraph method and updating connected address, which is added to input addresses.
+    //Spent output is taken from UTXO set, Graph Database is read only if it's not there
+    private void addInput(String transactionHash, Sha256Hash connectedOutputTransactionHash, int connectedOutputHeight,
+                          Date date, Set<Object> inputAddressIds) {
+
+        String outputHash = connectedOutputTransactionHash + ":" + connectedOutputHeight;
+
+        UtxoSet.Entry spent = utxoSet.remove(connectedOutputTransactionHash.getBytes(), connectedOutputHeight);
+        if (spent != null) {
+            if (undo != null) {
+                undo.spent(new UndoJournal.Outpoint(connectedOutputTransactionHash.getBytes(), connectedOutputHeight,
+                        spent.outputId, spent.value, spent.addressId));
+            }
+            long start = System.nanoTime();
+            addInputToGraph(transactionHash, outputHash, spent.outputId, spent.value);
+            metrics.time(IngestMetrics.Method.ADD_INPUT, start);
+            start = System.nanoTime();
+            updateAddress(spent.addressId, spent.value, date);
+            metrics.time(IngestMetrics.Method.UPDATE_ADDRESS, start);
+            inputAddressIds.add(spent.addressId);
+        } else {
+            edgeBuffer.flush(g);
+            final Vertex output = g.V(vertexId("Output", outputHash)).next();
+            long outputBalance = output.value("OutputBalance");
+            Object addressId = g.V(output).out("locked").id().next();
+            if (undo != null) {
+                undo.spent(new UndoJournal.Outpoint(connectedOutputTransactionHash.getBytes(), connectedOutputHeight,
+                        (Long) output.id(), outputBalance, (Long) addressId));
+            }
+
+            long start = System.nanoTime();
+            addInputToGraph(transactionHash, outputHash, output.id(), outputBalance);
+            metrics.time(IngestMetrics.Method.ADD_INPUT, start);
+            start = System.nanoTime();
+            updateAddress(addressId, outputBalance, date);
+            metrics.time(IngestMetrics.Method.UPDATE_ADDRESS, start);
+            inputAddressIds.add(addressId);
+        }
+    }
+
+    //Calling addOutputToGraph method and updating connected address, which is added to output addresses.
+    //Returns true if address is new
+    private boolean addOutput(int blockCounter, Sha256Hash transactionId, String outputHash, int outputHeight,
+                   long outputValue, String address, Date date, Set<Object> inputAddressIds,
+                   Set<Object> outputAddressIds) throws IOException {
+        boolean outputIsUsed = false;
+        String transactionHash = transactionId.toString();
+
+        final long start = System.nanoTime();
+        addOutputToGraph(blockCounter, transactionHash, outputHash, outputHeight, outputValue, outputIsUsed);
+        metrics.time(IngestMetrics.Method.ADD_OUTPUT, start);
+
+        //Address is checked and added under its lock, because other writer threads can add it too
+        final boolean isNewAddress;
+        final ReentrantLock lock = addressLocks.get(address);
+        lock.lock();
+        try {
+            isNewAddress = addAddress(outputHash, address, outputValue, date, inputAddressIds);
+        } finally {
+            lock.unlock();
+        }
+
+        Object addressId = vertexId("Address", address);
+        utxoSet.put(transactionId.getBytes(), outputHeight, (Long) vertexId("Output", outputHash), outputValue, (Long) addressId);
+        if (undo != null) {
+            undo.unspent(transactionId.getBytes(), outputHeight);
+        }
+        outputAddressIds.add(addressId);
+        return isNewAddress;
+    }
+
+    //Removing output with name txHash:index from UTXO set
+    private void removeUtxo(String outputHash) {
+        int i = outputHash.indexOf(':');
+        utxoSet.remove(Sha256Hash.wrap(outputHash.substring(0, i)).getBytes(), Integer.parseInt(outputHash.substring(i + 1)));
+    }
+
+    //Parsing block then adding it in Graph Database. Blocks are committed in batches of batchSize blocks,
+    //if something goes wrong the whole batch is rolled back
+    void parseBlock(DecodedBlock block, int blockCounter, BlockLocation location) throws Exception {
+        pendingBlocks.add(block);
+        pendingBest = block.getHashAsString();
+        pendingHeight = blockCounter;
+        pendingLocation = location;
+        try {
+            writeBlock(block, blockCounter);
+        } catch (Exception e) {
+            recover(e);
+        }
+        commitBatch(false);
+    }
+
+    //Commits pending blocks to Graph Database when batch is full or when force is set.
+    //Undo journals of the blocks are written before
+    void commitBatch(boolean force) throws Exception {
+        if (pendingBlocks.isEmpty() || (!force && pendingBlocks.size() < batchSize)) {
+            return;
+        }
+        while (true) {
+            try {
+                commitPending();
+                return;
+            } catch (Exception e) {
+                recover(e);
+            }
+        }
+    }
+
+    private void commitPending() throws IOException {
+        final Object id;
+        final Timer.Context commit = metrics.commit();
+        try {
+            edgeBuffer.flush(g);
+            id = writeTip(pendingBest, pendingHeight);
+            for (UndoJournal.Block journal : pendingUndo) {
+                undoJournal.write(journal);
+            }
+            commitTx();
+        } finally {
+            commit.stop();
+        }
+        tipId = id;
+        pendingUndo.clear();
+        undoJournal.prune(pendingHeight - pendingBlocks.size() + 1, pendingHeight);
+        best = pendingBest;
+        height = pendingHeight;
+        metrics.setHeight(height);
+        utxoSet.commit(best, height);
+        counterparties.commit(best, height);
+        wallets.commit(best, height);
+        pendingBlocks.clear();
+        retries = 0;
+        writeCursor(ResumeCursor.of(pendingLocation, height, best));
+        publishSummaries(true);
+    }
+
+    //Writing resume cursor after commit. Cursor that can't be written is only logged:
+    //restart finds that it doesn't match the tip and reads blocks from genesis
+    private void writeCursor(ResumeCursor next) {
+        try {
+            next.write(cursorFile);
+            cursor = next;
+        } catch (IOException e) {
+            LOGGER.warn("Can't write resume cursor " + cursorFile, e);
+        }
+    }
+
+    //Rolling back pending blocks after failure. Lock and id conflicts and temporary failures of storage backend
+    //are retried: pending blocks are written again after a pause, which doubles with every retry.
+    //Other failures and the failure of the last retry are thrown
+    private void recover(Exception failure) throws Exception {
+        Exception e = failure;
+        while (true) {
+            rollbackTx();
+            edgeBuffer.clear();
+            vertexCache.clear();
+            addressDeltas.clear();
+            publishSummaries(false);
+            utxoSet.rollback();
+            counterparties.rollback();
+            wallets.rollback();
+            pendingUndo.clear();
+            undo = null;
+            if (retries >= writeRetries || !isRetryable(e)) {
+                LOGGER.error("Failed to add block " + pendingHeight + ". Rolled back "
+                        + pendingBlocks.size() + " uncommitted blocks", e);
+                pendingBlocks.clear();
+                retries = 0;
+                throw e;
+            }
+            final long pause = retryBackoff << retries++;
+            LOGGER.warn("Failed to add block " + pendingHeight + ": " + e + ". Writing " + pendingBlocks.size()
+                    + " uncommitted blocks again in " + pause + " ms");
+            Thread.sleep(pause);
+            try {
+                int blockCounter = pendingHeight - pendingBlocks.size() + 1;
+                for (DecodedBlock block : pendingBlocks) {
+                    writeBlock(block, blockCounter++);
+                }
+                return;
+            } catch (Exception next) {
+                e = next;
+            }
+        }
+    }
+
+    //Failure can go away if the batch is written again: lock held by other JanusGraph instance,
+    //exhausted pool of vertex ids or temporary failure of storage backend
+    private static boolean isRetryable(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TemporaryBackendException || cause instanceof PermanentLockingException
+                    || cause instanceof IDPoolExhaustedException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //Transactions are written by writer threads only in incremental mode, bulk-load mode sets vertex ids and
+    //buffers edges in the main thread
+    private boolean isConcurrent() {
+        return writers != null && !bulkLoad;
+    }
+
+    //Committing Graph Database transaction of the batch
+    private void commitTx() {
+        if (batchTx == null) {
+            g.tx().commit();
+            return;
+        }
+        //Failed commit rolls transaction back
+        try {
+            batchTx.commit();
+        } finally {
+            endBatchTx();
+        }
+    }
+
+    private void rollbackTx() {
+        if (batchTx != null && batchTx.isOpen()) {
+            batchTx.rollback();
+        }
+        endBatchTx();
+        g.tx().rollback();
+    }
+
+    private void endBatchTx() {
+        if (batchTx != null) {
+            batchTx = null;
+            g = tg.getJanusGraph().traversal();
+        }
+    }
+
+    //Adding block, its transactions, outputs and addresses in current Graph Database transaction
+    private void writeBlock(DecodedBlock block, int blockCounter) throws Exception {
+
+        //Get some data from block
+        Date date = block.getTime();
+        long blockBalance = block.getBlockInflation(blockCounter);
+        long blockFee = 0;
+        int outputCount = 0;
+        bulkHeight = blockCounter;
+        bulkSequence = 0;
+        undo = undoJournal.isEnabled() && !bulkLoad
+                ? new UndoJournal.Block(block.getHashAsString(), block.getPrevBlockHash(), blockCounter) : null;
+        final int walletMark = wallets.mark();
+
+        //Writer threads share one Graph Database transaction for the whole batch
+        if (isConcurrent() && batchTx == null) {
+            batchTx = tg.getJanusGraph().newTransaction();
+            g = batchTx.traversal();
+        }
+
+        //Calling method to add block to Graph Database
+        addBlock(block, blockCounter);
+
+        //Check if block has transactions
+        if (block.hasTransactions()) {
+
+            //Get some data from transactions
+            for (DecodedBlock.DecodedTransaction tx : block.getTransactions()) {
+                if (!tx.isCoinBase()) {
+                    blockBalance += tx.getInputSum();
+                    blockFee += tx.getFee();
+                }
+                outputCount += tx.getOutputCount();
+            }
+
+            if (isConcurrent()) {
+                writeTransactions(block, blockCounter, date);
+            } else {
+                for (DecodedBlock.DecodedTransaction tx : block.getTransactions()) {
+                    writeTransaction(block.getHashAsString(), blockCounter, tx, date);
+                }
+            }
+        }
+
+        //Writing changes of addresses made by the block
+        final long start = System.nanoTime();
+        writeAddresses();
+        metrics.time(IngestMetrics.Method.WRITE_ADDRESSES, start);
+
+        //Calling method to update block in Graph Database
+        updateBlock(block.getHashAsString(), blockCounter, blockBalance, blockFee);
+        metrics.block(block.hasTransactions() ? block.getTransactions().size() : 0, outputCount);
+        if (undo != null) {
+            undo.wallets(wallets.changes(walletMark));
+            pendingUndo.add(undo);
+            undo = null;
+        }
+    }
+
+    //Transactions of block are given to writer threads. Transaction spending an output of an earlier transaction
+    //of the block waits until that transaction is written. All transactions are waited for before the block is
+    //finished, so blocks are still written one after another
+    private void writeTransactions(DecodedBlock block, int blockCounter, Date date) throws Exception {
+        final List<DecodedBlock.DecodedTransaction> transactions = block.getTransactions();
+        final Map<Sha256Hash, Future<?>> written = new HashMap<>();
+        final List<Future<TransactionAddresses>> tasks = new ArrayList<>(transactions.size());
+        for (DecodedBlock.DecodedTransaction tx : transactions) {
+            final List<Future<?>> parents = new ArrayList<>();
+            if (!tx.isCoinBase()) {
+                for (int i = 0; i < tx.getInputCount(); i++) {
+                    final Future<?> parent = written.get(tx.getInputHash(i));
+                    if (parent != null) {
+                        parents.add(parent);
+                    }
+                }
+            }
+            //Parents are submitted earlier, so they are taken by writer threads before the task and can't wait for it
+            final Future<TransactionAddresses> task = writers.submit(() -> {
+                for (Future<?> parent : parents) {
+                    parent.get();
+                }
+                return writeTransaction(block.getHashAsString(), blockCounter, tx, date);
+            });
+            written.put(tx.getTxId(), task);
+            tasks.add(task);
+        }
+
+        //Graph Database transaction can be rolled back only when no thread uses it, so all tasks are waited for
+        Exception failure = null;
+        final List<TransactionAddresses> addresses = new ArrayList<>(tasks.size());
+        for (Future<TransactionAddresses> task : tasks) {
+            try {
+                addresses.add(task.get());
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        final long start = System.nanoTime();
+        updateWallets(addresses);
+        metrics.time(IngestMetrics.Method.JOIN_WALLETS, start);
+    }
+
+    //Adding transaction with its inputs and outputs, then linking its addresses as counterparties.
+    //Returns its input and output addresses
+    private TransactionAddresses writeTransaction(String blockHash, int blockCounter,
+                                                  DecodedBlock.DecodedTransaction tx, Date date) throws IOException {
+
+        //Get transaction hash
+        String txHash = tx.getHash();
+
+        //Calling method to add transaction to Graph Database
+        addTransaction(blockHash, blockCounter, tx.getInputCount(), tx.getOutputCount(), tx, date);
+
+        //Addresses of spent and created outputs. They are kept in order of inputs and outputs,
+        //so wallets are changed in the same order on every run
+        Set<Object> inputAddressIds = new LinkedHashSet<>();
+        Set<Object> outputAddressIds = new LinkedHashSet<>();
+
+        //Check if transaction is not coin base
+        if (!tx.isCoinBase()) {
+
+            //Loop over inputs
+            for (int i = 0; i < tx.getInputCount(); i++) {
+
+                //Calling method to add Input to Graph Database
+                addInput(txHash, tx.getInputHash(i), tx.getInputIndex(i), date, inputAddressIds);
+            }
+
+            //Addresses spending outputs in one transaction are taken as one wallet. Writer threads join them later
+            if (!isConcurrent()) {
+                final long start = System.nanoTime();
+                joinWallets(inputAddressIds);
+                metrics.time(IngestMetrics.Method.JOIN_WALLETS, start);
+            }
+        }
+
+        //Counter of new addresses in transaction
+        int transactionNewAddressCount = 0;
+
+        //Loop over outputs
+        for (int id = 0; id < tx.getOutputCount(); id++) {
+
+            //Address of output is already decoded
+            String ad = tx.getOutputAddress(id);
+            String outputHash = txHash + ":" + id;
+
+            //Provably unspendable output has no address and is never put into UTXO set
+            if (ad == null) {
+                final long start = System.nanoTime();
+                addOutputToGraph(blockCounter, txHash, outputHash, id, tx.getOutputValue(id), false);
+                metrics.time(IngestMetrics.Method.ADD_OUTPUT, start);
+                continue;
+            }
+
+            //Calling method to add Output to Graph Database and count new addresses in transaction
+            if (addOutput(blockCounter, tx.getTxId(), outputHash, id, tx.getOutputValue(id), ad, date,
+                    inputAddressIds, outputAddressIds)) {
+                transactionNewAddressCount++;
+            }
+        }
+
+        //Calling method to update transaction in Graph Database, transaction is between one address if
+        //an address of its spent output gets its output too
+        updateTransaction(txHash, transactionNewAddressCount, !Collections.disjoint(inputAddressIds, outputAddressIds));
+
+        //Updating counterparties of addresses of transaction
+        final long start = System.nanoTime();
+        updateCounterparties(inputAddressIds, outputAddressIds, 1);
+        metrics.time(IngestMetrics.Method.UPDATE_COUNTERPARTIES, start);
+        if (undo != null) {
+            undo.linked(inputAddressIds, outputAddressIds);
+        }
+        return new TransactionAddresses(inputAddressIds, outputAddressIds);
+    }
+
+    // Return a list of files in a directory method with blk***.dat format starting from blk(from).dat
+    private List<File> buildList(int from) {
+        List<File> list = new LinkedList<File>();
+        for (int i = from; true; i++) {
+            File file = new File(BLOCKSPATH + "/blocks/" + String.format(Locale.US, "blk%05d.dat", i));
+            if (!file.exists())
+                break;
+            list.add(file);
+        }
+
+        return list;
+    }
+
+    //Main method that initialise Graph and starts parsing
+    public static void main(String[] args) throws Exception {
+
+        String fileNameConfig = "";
+        String fileNameBlockchainData = "";
+        String fileNameBitcoin = "";
+        Map<String, String> options = new HashMap<>();
+
+        if (args != null && args.length > 0 && args.length != 1) {
+            LOGGER.info("Invalid number of arguments = " + args.length +
+                    ". It can be only 1 argument with filepath to blockchain2graph.conf file");
+            System.exit(0);
+        } else {
+            File file;
+            if (args == null || args.length == 0) {
+                String path = System.getProperty("user.dir");
+                file = new File( path + "/blockchain2graph.conf");
+                if (!file.exists()) {
+                    LOGGER.info("There's no config file blockchain2graph.conf in current path");
+                    System.exit(0);
+                }
+            } else {
+                String path = args[0];
+                file = new File(path);
+                if (!file.exists()) {
+                    LOGGER.info("There's no path " + path);
+                    System.exit(0);
+                }
+                file = new File( path + "/blockchain2graph.conf");
+                if (!file.exists()) {
+                    LOGGER.info("There's no config file blockchain2graph.conf in path " + path);
+                    System.exit(0);
+                }
+            }
+            List<String> paths = new ArrayList<String>();
+            FileReader fr = new FileReader(file);
+            BufferedReader reader = new BufferedReader(fr);
+            String line = reader.readLine();
+            while (line != null) {
+                paths.add(line);
+                line = reader.readLine();
+            }
+            if (paths.size() < 3) {
+                LOGGER.info("Invalid format of blockchain2graph.conf file."
+                        + " It must contain 3 lines with with datadir=, configdir= and bitcoindir= on lines with arguments");
+                System.exit(0);
+            } else {
+                for (String path : paths) {
+                    String dataDir = "datadir=";
+                    String configDir = "configdir=";
+                    String bitcoinDir = "bitcoindir=";
+                    if (path.contains(dataDir)) {
+                        fileNameBlockchainData = path.substring(path.indexOf(dataDir) + dataDir.length());
+                    } else if (path.contains(configDir)) {
+                        fileNameConfig = path.substring(path.indexOf(configDir) + configDir.length());
+                    } else if (path.contains(bitcoinDir)) {
+                        fileNameBitcoin = path.substring(path.indexOf(bitcoinDir) + bitcoinDir.length());
+                    } else if (path.contains("=")) {
+                        //Optional arguments like batchsize=
+                        options.put(path.substring(0, path.indexOf("=")).trim(),
+                                path.substring(path.indexOf("=") + 1).trim());
+                    }
+                }
+                if (fileNameBitcoin.equals("")) {
+                    LOGGER.info("There's no bitcoindir= argument in blockchain2graph.conf or null argument");
+                    System.exit(0);
+                } else if (fileNameBlockchainData.equals("")) {
+                    LOGGER.info("There's no datadir= argument in blockchain2graph.conf or null argument");
+                    System.exit(0);
+                } else if (fileNameConfig.equals("")) {
+                    LOGGER.info("There's no configdir= argument in blockchain2graph.conf");
+                    System.exit(0);
+                }
+
+                String p;
+                p = fileNameBitcoin;
+                file = new File(p);
+                if (!file.exists()) {
+                    LOGGER.info("There's no path " + p + " from blockchain2graph.conf bitcoindir= argument");
+                    System.exit(0);
+                }
+                p = fileNameBlockchainData;
+                file = new File(p);
+                if (!file.exists()) {
+                    LOGGER.info("There's no path " + p + " from blockchain2graph.conf datadir= argument");
+                    System.exit(0);
+                }
+                p = fileNameConfig;
+                file = new File(p);
+                if (!file.exists()) {
+                    LOGGER.info("There's no path " + p + " from blockchain2graph.conf configdir= argument");
+                    System.exit(0);
+                }
+
+                file = new File(fileNameBitcoin + "/bitcoind");
+                if (!file.exists()) {
+                    LOGGER.info("There's no bitcoind file in path " + p
+                            + " from blockchain2graph.conf bitcoindir= argument");
+                    System.exit(0);
+                }
+                file = new File(fileNameConfig+ "/blk-cql.properties");
+                if (!file.exists()) {
+                    LOGGER.info("There's no blk-cql.properties file in path " + p
+                            + " from blockchain2graph.conf configdir= argument");
+                    System.exit(0);
+                }
+                file = new File(fileNameBlockchainData+ "/blocks");
+                if (!file.exists()) {
+                    LOGGER.info("There's no blocks directory in path " + p
+                            + " from blockchain2graph.conf datadir= argument");
+                    System.exit(0);
+                }
+            }
+        }
+
+        //Some initial setup
+        NetworkParameters np = new MainNetParams();
+        Context.getOrCreate(MainNetParams.get());
+
+        //Offline export of blk***.dat files into files for bulk loader, Graph Database is not opened
+        if (options.containsKey("export")) {
+            try (GraphExporter exporter = new GraphExporter(np, fileNameBlockchainData, options)) {
+                exporter.export();
+            }
+            System.exit(0);
+        }
+
+        TransactionGraph tg = new TransactionGraph(fileNameConfig+ "/blk-cql.properties");
+        GraphTraversalSource g = tg.openGraph(Boolean.parseBoolean(options.getOrDefault("bulkload", "false")));
+
+        //Initialize transaction graph database schema in the opened graph, indexes missing in
+        //Graph Database created by older version are added. Lookups of block parser use them
+        tg.createSchema();
+
+        //Initialize block parser
+        BlockchainToGraph bp = new BlockchainToGraph(g, np, tg, fileNameBitcoin, fileNameBlockchainData, options);
+
+        //Handle of CTRL+C event to end last block parsing
+        SignalHandler sh = new SignalHandler() {
+            public void handle(Signal signal) {
+                bp.isExit = true;
+            }
+        };
+        Signal.handle(new Signal("INT"), sh);
+
+        //Parse already downloaded blockchain
+        bp.parseBlockChain();
+
+        //Start synchronizing blockchain
+        bp.synchronizeDatabase();
+
+        /*JanusGraph graph = tg.getJanusGraph();
+        graph.io(IoCore.graphml()).writeGraph("output/export.xml");*/
+
+        bp.close();
+        System.exit(0);
+        //tg.dropGraph();
+    }
+}
@@ -0,0 +1,202 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+//Puts blocks stored out of order in blk***.dat files in chain order.
+//Block waits in a map keyed by hash of its previous block until its parent is known, only its location is kept.
+//Stale blocks can give a block several children, so block is emitted only when there are forkDepth blocks
+//on top of it, and the longest known branch wins
+public class ChainBuilder {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChainBuilder.class);
+
+    //Previous block hash of genesis block
+    public static final String GENESIS_PREV_HASH = "0000000000000000000000000000000000000000000000000000000000000000";
+
+    //Block connected to the chain but not emitted yet
+    private static final class Node {
+        final BlockLocation location;
+        final int height;
+        Node parent;
+        final List<Node> children = new ArrayList<>();
+
+        Node(BlockLocation location, Node parent, int height) {
+            this.location = location;
+            this.parent = parent;
+            this.height = height;
+        }
+    }
+
+    private final int forkDepth;
+    //Blocks whose parent is not known yet, keyed by previous block hash
+    private final Map<String, List<BlockLocation>> orphans = new HashMap<>();
+    //Blocks connected to the tip, keyed by hash
+    private final Map<String, Node> connected = new HashMap<>();
+    private List<Node> tipChildren = new ArrayList<>();
+    private Node deepest;
+    private String tipHash;
+    private int tipHeight;
+
+    public ChainBuilder(int forkDepth) {
+        this(forkDepth, GENESIS_PREV_HASH, -1);
+    }
+
+    //Builder continuing the chain on top of given block, blocks not descending from it are left as orphans
+    public ChainBuilder(int forkDepth, String tipHash, int tipHeight) {
+        this.forkDepth = forkDepth;
+        this.tipHash = tipHash;
+        this.tipHeight = tipHeight;
+    }
+
+    //Add next block from files, returns blocks which got their place in the chain in height order
+    public List<BlockLocation> add(BlockLocation location) {
+        List<BlockLocation> emitted = new ArrayList<>();
+        if (connected.containsKey(location.getHash())) {
+            return emitted;
+        }
+        Node parent = connected.get(location.getPrevHash());
+        if (parent != null || location.getPrevHash().equals(tipHash)) {
+            connect(location, parent);
+            emit(emitted, forkDepth);
+        } else {
+            orphans.computeIfAbsent(location.getPrevHash(), k -> new ArrayList<>(1)).add(location);
+        }
+        return emitted;
+    }
+
+    //Emit the rest of the longest branch, it is called when there are no more blocks in files
+    public List<BlockLocation> flush() {
+        List<BlockLocation> emitted = new ArrayList<>();
+        emit(emitted, 0);
+        return emitted;
+    }
+
+    //Put scanned blocks in chain order
+    public Iterator<BlockLocation> order(final Iterator<BlockLocation> scanned) {
+        return new Iterator<BlockLocation>() {
+            private final Deque<BlockLocation> ready = new ArrayDeque<>();
+            private boolean flushed;
+
+            @Override
+            public boolean hasNext() {
+                while (ready.isEmpty() && !flushed) {
+                    if (scanned.hasNext()) {
+                        ready.addAll(add(scanned.next()));
+                    } else {
+                        ready.addAll(flush());
+                        flushed = true;
+                        if (getOrphanCount() > 0) {
+                            LOGGER.info(getOrphanCount() + " blocks are not connected to the chain, they are skipped");
+                        }
+                    }
+                }
+                return !ready.isEmpty();
+            }
+
+            @Override
+            public BlockLocation next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return ready.poll();
+            }
+        };
+    }
+
+    //Number of blocks which never got connected to the chain
+    public int getOrphanCount() {
+        int count = 0;
+        for (List<BlockLocation> list : orphans.values()) {
+            count += list.size();
+        }
+        return count;
+    }
+
+    public int getTipHeight() {
+        return tipHeight;
+    }
+
+    //Connect block and all orphans waiting for it
+    private void connect(BlockLocation location, Node parent) {
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(attach(location, parent));
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            List<BlockLocation> waiting = orphans.remove(node.location.getHash());
+            if (waiting != null) {
+                for (BlockLocation child : waiting) {
+                    if (!connected.containsKey(child.getHash())) {
+                        stack.push(attach(child, node));
+                    }
+                }
+            }
+        }
+    }
+
+    private Node attach(BlockLocation location, Node parent) {
+        Node node = new Node(location, parent, (parent == null ? tipHeight : parent.height) + 1);
+        connected.put(location.getHash(), node);
+        if (parent == null) {
+            tipChildren.add(node);
+        } else {
+            parent.children.add(node);
+        }
+        if (deepest == null || node.height > deepest.height) {
+            deepest = node;
+        }
+        return node;
+    }
+
+    //Emit blocks of the longest branch leaving depth blocks on top of the last emitted one
+    private void emit(List<BlockLocation> emitted, int depth) {
+        if (deepest == null || deepest.height - tipHeight <= depth) {
+            return;
+        }
+        Deque<Node> path = new ArrayDeque<>();
+        for (Node node = deepest; node != null; node = node.parent) {
+            path.push(node);
+        }
+        int count = deepest.height - tipHeight - depth;
+        for (int i = 0; i < count; i++) {
+            Node node = path.pop();
+            for (Node sibling : tipChildren) {
+                if (sibling != node) {
+                    dropStale(sibling);
+                }
+            }
+            connected.remove(node.location.getHash());
+            tipChildren = node.children;
+            for (Node child : tipChildren) {
+                child.parent = null;
+            }
+            tipHash = node.location.getHash();
+            tipHeight = node.height;
+            emitted.add(node.location);
+        }
+        if (deepest.height == tipHeight) {
+            deepest = null;
+        }
+    }
+
+    //Forget stale branch
+    private void dropStale(Node root) {
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            connected.remove(node.location.getHash());
+            for (Node child : node.children) {
+                stack.push(child);
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+//Counterparties of addresses stored off-heap in a memory-mapped file.
+//For address, direction and counterparty address it keeps the number of transactions linking them,
+//so AddressInputAddressCount and AddressOutputAddressCount change only when a count becomes one or zero
+//and are kept without reading transactions of address from Graph Database.
+//It is a mapped hash table, changes since commit are undone on rollback.
+//Its methods are synchronized, so writer threads can share it
+public class CounterpartySet extends MappedHashTable {
+    //Counterparty sent coins to address or received coins from it
+    public static final int INPUT = 1;
+    public static final int OUTPUT = 2;
+
+    private static final long MAGIC = 0x4354525041525431L;
+    private static final int SLOT_SIZE = 32;
+    //Key is address, counterparty and direction
+    private static final int KEY_SIZE = 20;
+
+    //Slot layout
+    private static final int ADDRESS_OFFSET = 0;
+    private static final int COUNTERPARTY_OFFSET = 8;
+    private static final int DIRECTION_OFFSET = 16;
+    private static final int COUNT_OFFSET = 20;
+
+    //Open counterparty file or create it with given initial capacity (number of slots, power of two)
+    public CounterpartySet(File file, long initialCapacity) throws IOException {
+        super(file, initialCapacity, "counterparty set", MAGIC, SLOT_SIZE, KEY_SIZE, true);
+    }
+
+    //Number of transactions linking address with counterparty in given direction
+    public synchronized int get(long addressId, long counterpartyId, int direction) {
+        long slot = find(addressId, counterpartyId, direction);
+        return slot < 0 ? 0 : segment(slot).getInt(position(slot) + COUNT_OFFSET);
+    }
+
+    //Add transaction linking address with counterparty. Returns true if counterparty is new for address
+    public synchronized boolean increment(long addressId, long counterpartyId, int direction) throws IOException {
+        ensureCapacity();
+        long slot = find(addressId, counterpartyId, direction);
+        if (slot >= 0) {
+            ByteBuffer b = segment(slot);
+            int pos = position(slot);
+            changing(slot);
+            b.putInt(pos + COUNT_OFFSET, b.getInt(pos + COUNT_OFFSET) + 1);
+            return false;
+        }
+        ByteBuffer b = segment(~slot);
+        int pos = position(~slot);
+        b.putLong(pos + ADDRESS_OFFSET, addressId);
+        b.putLong(pos + COUNTERPARTY_OFFSET, counterpartyId);
+        b.putInt(pos + DIRECTION_OFFSET, direction);
+        b.putInt(pos + COUNT_OFFSET, 1);
+        added(~slot);
+        return true;
+    }
+
+    //Remove transaction linking address with counterparty. Returns true if they are not linked anymore
+    public synchronized boolean decrement(long addressId, long counterpartyId, int direction) {
+        long slot = find(addressId, counterpartyId, direction);
+        if (slot < 0) {
+            return false;
+        }
+        ByteBuffer b = segment(slot);
+        int pos = position(slot);
+        int count = b.getInt(pos + COUNT_OFFSET);
+        if (count > 1) {
+            changing(slot);
+            b.putInt(pos + COUNT_OFFSET, count - 1);
+            return false;
+        }
+        remove(slot);
+        return true;
+    }
+
+    //Find slot of key. If there's no such key returns ~slot of first empty slot
+    private long find(long addressId, long counterpartyId, int direction) {
+        return find(home(addressId, counterpartyId, direction), (b, pos) ->
+                b.getLong(pos + ADDRESS_OFFSET) == addressId && b.getLong(pos + COUNTERPARTY_OFFSET) == counterpartyId
+                        && b.getInt(pos + DIRECTION_OFFSET) == direction);
+    }
+
+    @Override
+    protected long hash(ByteBuffer b, int pos) {
+        return home(b.getLong(pos + ADDRESS_OFFSET), b.getLong(pos + COUNTERPARTY_OFFSET),
+                b.getInt(pos + DIRECTION_OFFSET));
+    }
+
+    //Count is never zero for stored key, so zero means empty slot
+    @Override
+    protected boolean isEmpty(ByteBuffer b, int pos) {
+        return b.getInt(pos + COUNT_OFFSET) == 0;
+    }
+
+    private static long home(long addressId, long counterpartyId, int direction) {
+        long h = addressId * 0x9e3779b97f4a7c15L;
+        h ^= counterpartyId * 0xc2b2ae3d27d4eb4fL + direction;
+        return h ^ (h >>> 31);
+    }
+}
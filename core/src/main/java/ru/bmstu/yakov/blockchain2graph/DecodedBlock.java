@@ -0,0 +1,180 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.TransactionOutput;
+
+//Immutable block data precomputed by decoder threads: hashes, output addresses and fees.
+//Graph writer works with it instead of bitcoinj Block, so it doesn't spend time on decoding
+public final class DecodedBlock {
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[1 << 20]);
+
+    private final String hash;
+    private final String prevHash;
+    private final Date time;
+    private final int subsidyDecreaseBlockCount;
+    private final List<DecodedTransaction> transactions;
+
+    //Immutable transaction data, inputs and outputs are kept in arrays to keep it compact
+    public static final class DecodedTransaction {
+        private final Sha256Hash txId;
+        private final String hash;
+        private final boolean coinBase;
+        private final long inputSum;
+        private final long fee;
+        private final Sha256Hash[] inputHashes;
+        private final int[] inputIndexes;
+        private final long[] outputValues;
+        private final String[] outputAddresses;
+
+        private DecodedTransaction(Transaction tx, NetworkParameters np) {
+            this.txId = tx.getTxId();
+            this.hash = txId.toString();
+            this.coinBase = tx.isCoinBase();
+            this.inputSum = tx.getInputSum().longValue();
+            Coin txFee = tx.getFee();
+            this.fee = txFee == null ? 0 : txFee.longValue();
+
+            List<TransactionInput> inputs = tx.getInputs();
+            this.inputHashes = new Sha256Hash[inputs.size()];
+            this.inputIndexes = new int[inputs.size()];
+            for (int i = 0; i < inputs.size(); i++) {
+                TransactionOutPoint outPoint = inputs.get(i).getOutpoint();
+                inputHashes[i] = outPoint.getHash();
+                inputIndexes[i] = (int) outPoint.getIndex();
+            }
+
+            List<TransactionOutput> outputs = tx.getOutputs();
+            this.outputValues = new long[outputs.size()];
+            this.outputAddresses = new String[outputs.size()];
+            for (int i = 0; i < outputs.size(); i++) {
+                TransactionOutput to = outputs.get(i);
+                outputValues[i] = to.getValue().longValue();
+                outputAddresses[i] = ScriptClassifier.address(np, to.getScriptBytes());
+            }
+        }
+
+        public Sha256Hash getTxId() {
+            return txId;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public boolean isCoinBase() {
+            return coinBase;
+        }
+
+        public long getInputSum() {
+            return inputSum;
+        }
+
+        public long getFee() {
+            return fee;
+        }
+
+        public int getInputCount() {
+            return inputHashes.length;
+        }
+
+        //Hash of transaction whose output is spent by input i
+        public Sha256Hash getInputHash(int i) {
+            return inputHashes[i];
+        }
+
+        //Index of output spent by input i
+        public int getInputIndex(int i) {
+            return inputIndexes[i];
+        }
+
+        public int getOutputCount() {
+            return outputValues.length;
+        }
+
+        public long getOutputValue(int i) {
+            return outputValues[i];
+        }
+
+        //Address or pseudo-address of output i, null if output is provably unspendable
+        public String getOutputAddress(int i) {
+            return outputAddresses[i];
+        }
+    }
+
+    private DecodedBlock(Block block, NetworkParameters np) {
+        this.hash = block.getHashAsString();
+        this.prevHash = block.getPrevBlockHash().toString();
+        this.time = block.getTime();
+        this.subsidyDecreaseBlockCount = np.getSubsidyDecreaseBlockCount();
+        if (block.hasTransactions()) {
+            List<DecodedTransaction> txs = new ArrayList<>(block.getTransactions().size());
+            for (Transaction tx : block.getTransactions()) {
+                txs.add(new DecodedTransaction(tx, np));
+            }
+            this.transactions = Collections.unmodifiableList(txs);
+        } else {
+            this.transactions = Collections.emptyList();
+        }
+    }
+
+    //Decode bitcoinj block
+    public static DecodedBlock decode(Block block, NetworkParameters np) {
+        return new DecodedBlock(block, np);
+    }
+
+    //Deserialize and decode raw block as it is stored in blk***.dat file
+    public static DecodedBlock decode(byte[] bytes, NetworkParameters np) {
+        return new DecodedBlock(np.getDefaultSerializer().makeBlock(bytes), np);
+    }
+
+    //Deserialize and decode raw block from a slice of mapped blk***.dat file.
+    //bitcoinj parses only arrays, so bytes are copied into a buffer reused by decoder thread:
+    //decoded block keeps nothing of bitcoinj Block
+    public static DecodedBlock decode(ByteBuffer bytes, NetworkParameters np) {
+        int size = bytes.remaining();
+        byte[] buffer = BUFFER.get();
+        if (buffer.length < size) {
+            buffer = new byte[Math.max(size, buffer.length * 2)];
+            BUFFER.set(buffer);
+        }
+        bytes.duplicate().get(buffer, 0, size);
+        return new DecodedBlock(np.getDefaultSerializer().makeBlock(buffer, 0, size), np);
+    }
+
+    public String getHashAsString() {
+        return hash;
+    }
+
+    public String getPrevBlockHash() {
+        return prevHash;
+    }
+
+    public Date getTime() {
+        return time;
+    }
+
+    //Same as Block.getBlockInflation
+    public long getBlockInflation(int height) {
+        return Coin.FIFTY_COINS.shiftRight(height / subsidyDecreaseBlockCount).longValue();
+    }
+
+    public boolean hasTransactions() {
+        return !transactions.isEmpty();
+    }
+
+    public List<DecodedTransaction> getTransactions() {
+        return transactions;
+    }
+}
@@ -0,0 +1,67 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.GraphTraversalSource;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+
+//Edges waiting to be added to Graph Database. In bulk-load mode edges are not read while block is written,
+//so they are added in large groups: all their vertices are loaded by one traversal instead of two per edge
+public class EdgeBuffer {
+    private final int capacity;
+    private final List<Object> outIds = new ArrayList<>();
+    private final List<String> labels = new ArrayList<>();
+    private final List<Object> inIds = new ArrayList<>();
+    private final List<Object[]> properties = new ArrayList<>();
+
+    public EdgeBuffer(int capacity) {
+        this.capacity = capacity;
+    }
+
+    //Add edge with given properties as key and value pairs to buffer, returns true if buffer is full and must be flushed
+    public boolean add(Object outId, String label, Object inId, Object... keyValues) {
+        outIds.add(outId);
+        labels.add(label);
+        inIds.add(inId);
+        properties.add(keyValues);
+        return outIds.size() >= capacity;
+    }
+
+    //Add buffered edges in current Graph Database transaction
+    public void flush(GraphTraversalSource g) {
+        if (outIds.isEmpty()) {
+            return;
+        }
+        Set<Object> ids = new LinkedHashSet<>(outIds);
+        ids.addAll(inIds);
+        Map<Object, Vertex> vertices = new HashMap<>(ids.size() * 2);
+        g.V(ids.toArray()).forEachRemaining(v -> vertices.put(v.id(), v));
+        for (int i = 0; i < outIds.size(); i++) {
+            Vertex out = vertices.get(outIds.get(i));
+            Vertex in = vertices.get(inIds.get(i));
+            if (out == null || in == null) {
+                throw new IllegalStateException("There's no vertex for edge " + labels.get(i) + " from "
+                        + outIds.get(i) + " to " + inIds.get(i));
+            }
+            out.addEdge(labels.get(i), in, properties.get(i));
+        }
+        clear();
+    }
+
+    //Forget buffered edges, it is called when transaction is rolled back
+    public void clear() {
+        outIds.clear();
+        labels.clear();
+        inIds.clear();
+        properties.clear();
+    }
+
+    public int size() {
+        return outIds.size();
+    }
+}
@@ -0,0 +1,511 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPOutputStream;
+
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+//Offline export of blk***.dat files into files for a bulk loader, Graph Database is not opened.
+//It computes the same vertices, edges and properties as block parser writes and streams them into gzipped CSV files,
+//one file per vertex or edge label and partition: vertex goes to partition of its id and edge to partition of its
+//out vertex. Blocks are decoded by all cores, then one thread resolves inputs and addresses with off-heap sets
+//as block parser does, and every partition is compressed and written by a thread of its own.
+//Vertex id is the number which bulk-load mode turns into JanusGraph id: BULK_ID_BASE + (height << BULK_ID_BITS)
+//+ number of vertex in block for blocks, transactions and outputs, and ADDRESS_ID_BASE + number of address
+//for addresses. Output vertices are written when they are spent or, if they are never spent, after all blocks,
+//and addresses are written after all blocks, when their totals are known. Dates are written as milliseconds.
+//Coinbases of blocks 91842 and 91880 repeat hashes of earlier coinbases whose outputs are not spent (BIP30):
+//they replace those outputs, which can't be spent any more and are written as unspent. Names must be unique,
+//so such transaction gets vertex of its own named <hash>-<height> and its outputs are named <hash>-<height>:<index>
+public class GraphExporter implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(GraphExporter.class);
+
+    //Addresses are numbered in order of appearance, their ids are above ids of any block height
+    static final long ADDRESS_ID_BASE = BlockchainToGraph.BULK_ID_BASE + (1L << 51);
+    //Work files of sets, they are deleted after export
+    private static final String[] WORK_FILES = {"utxo.dat", "counterparty.dat", "wallet.dat"};
+    //Partition gets written lines when it has this many characters pending
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    //Header line of every file
+    private static final Map<String, String> HEADERS = new LinkedHashMap<>();
+
+    static {
+        HEADERS.put("vertex-Block", "id,name,BlockDate,BlockHeight,BlockTransactionCount,BlockBalance,"
+                + "BlockCoinBaseBalance,BlockFee");
+        HEADERS.put("vertex-Transaction", "id,name,TransactionInputCount,TransactionOutputCount,TransactionBalance,"
+                + "TransactionDate,TransactionNewAddressCount,TransactionIsCoinBase,TransactionFee,"
+                + "TransactionIsBetweenOneAddress");
+        HEADERS.put("vertex-Output", "id,name,OutputHeight,OutputBalance,OutputIsUsed");
+        HEADERS.put("vertex-Address", "id,name,AddressBalance,AddressFirstAppearDate,AddressLastAppearDate,"
+                + "AddressInputTransactionBalance,AddressOutputTransactionBalance,AddressTransactionCount,"
+                + "AddressInputTransactionCount,AddressOutputTransactionCount,AddressInputAddressCount,"
+                + "AddressOutputAddressCount,AddressBetweenAddressTransactionCount,AddressWalletID");
+        HEADERS.put("vertex-Meta", "id,Meta,TipHash,TipHeight");
+        HEADERS.put("edge-chain", "out,in");
+        HEADERS.put("edge-has", "out,in");
+        HEADERS.put("edge-output", "out,in,OutputIndex");
+        HEADERS.put("edge-input", "out,in,InputBalance");
+        HEADERS.put("edge-locked", "out,in,LockedDate,LockedBalance");
+    }
+
+    private final NetworkParameters np;
+    private final String blocksPath;
+    private final File dir;
+    private final int decoderThreads;
+    private final int decoderQueueSize;
+    private final int forkDepth;
+    private final boolean useBlockIndex;
+    private final File blockIndexDir;
+    private final BlockFileMap blockFiles;
+    //Work files: outputs not spent yet keyed by outpoint, addresses, counterparties and wallets keyed by address id
+    private final UtxoSet utxoSet;
+    private final AddressTable addresses;
+    private final CounterpartySet counterparties;
+    private final WalletSet wallets;
+    private final Partition[] partitions;
+
+    private int height;
+    private int sequence;
+    private String best;
+    private long bestId;
+    //Names of transactions repeating hash of earlier transaction with unspent outputs, keyed by hash
+    private final Map<String, String> duplicateNames = new HashMap<>();
+
+    //Writer of one partition: it takes lines of several files at once and appends them to gzipped files
+    private static final class Partition implements Runnable {
+        private static final Map<String, StringBuilder> END = Collections.emptyMap();
+
+        private final File dir;
+        private final int number;
+        private final BlockingQueue<Map<String, StringBuilder>> queue = new ArrayBlockingQueue<>(16);
+        private final Map<String, Writer> files = new HashMap<>();
+        private final Thread thread;
+        private Map<String, StringBuilder> pending = new HashMap<>();
+        private int pendingSize;
+        private volatile Exception failure;
+
+        Partition(File dir, int number) {
+            this.dir = dir;
+            this.number = number;
+            this.thread = new Thread(this, "export-writer-" + number);
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        //Line for file of given kind, lines are given to writer thread in chunks
+        void line(String kind, StringBuilder line) throws IOException {
+            pending.computeIfAbsent(kind, k -> new StringBuilder()).append(line).append('\n');
+            pendingSize += line.length() + 1;
+            if (pendingSize >= CHUNK_SIZE) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            if (failure != null) {
+                throw new IOException("Failed to write partition " + number, failure);
+            }
+            if (!pending.isEmpty()) {
+                put(pending);
+                pending = new HashMap<>();
+                pendingSize = 0;
+            }
+        }
+
+        private void put(Map<String, StringBuilder> chunk) throws IOException {
+            try {
+                queue.put(chunk);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing partition " + number);
+            }
+        }
+
+        //Writing the rest of lines, then closing files
+        void finish() throws IOException {
+            flush();
+            put(END);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing partition " + number);
+            }
+            if (failure != null) {
+                throw new IOException("Failed to write partition " + number, failure);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                try {
+                    for (Map<String, StringBuilder> chunk = queue.take(); chunk != END; chunk = queue.take()) {
+                        for (Map.Entry<String, StringBuilder> lines : chunk.entrySet()) {
+                            file(lines.getKey()).append(lines.getValue());
+                        }
+                    }
+                } finally {
+                    for (Writer file : files.values()) {
+                        file.close();
+                    }
+                }
+            } catch (Exception e) {
+                failure = e;
+                //Main thread mustn't wait for free space in queue of failed writer
+                queue.clear();
+                while (true) {
+                    try {
+                        if (queue.take() == END) {
+                            return;
+                        }
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        private Writer file(String kind) throws IOException {
+            Writer file = files.get(kind);
+            if (file == null) {
+                file = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(
+                        new File(dir, String.format(Locale.US, "%s-%05d.csv.gz", kind, number))), 1 << 16),
+                        StandardCharsets.UTF_8), 1 << 16);
+                file.append(HEADERS.get(kind)).append('\n');
+                files.put(kind, file);
+            }
+            return file;
+        }
+    }
+
+    public GraphExporter(NetworkParameters np, String blocksPath, Map<String, String> options) throws IOException {
+        this.np = np;
+        this.blocksPath = blocksPath;
+        this.dir = new File(options.get("export"));
+        Files.createDirectories(dir.toPath());
+        final int cores = Runtime.getRuntime().availableProcessors();
+        this.decoderThreads = Integer.parseInt(options.getOrDefault("decoderthreads",
+                String.valueOf(Math.max(1, cores - 1))));
+        this.decoderQueueSize = Integer.parseInt(options.getOrDefault("decoderqueue", "256"));
+        this.forkDepth = Integer.parseInt(options.getOrDefault("forkdepth", "100"));
+        this.useBlockIndex = Boolean.parseBoolean(options.getOrDefault("blockindex", "true"));
+        this.blockIndexDir = new File(options.getOrDefault("blockindexdir", blocksPath + "/blocks/index"));
+        this.blockFiles = new BlockFileMap(8);
+        if (VertexNames.BINARY.equals(options.get("hashencoding"))) {
+            LOGGER.warn("Export writes names in hex encoding, hashencoding=binary is ignored");
+        }
+
+        //Work files start empty
+        for (String name : WORK_FILES) {
+            Files.deleteIfExists(new File(dir, name).toPath());
+        }
+        this.utxoSet = new UtxoSet(new File(dir, "utxo.dat"),
+                Long.parseLong(options.getOrDefault("utxocapacity", "1048576")));
+        this.counterparties = new CounterpartySet(new File(dir, "counterparty.dat"),
+                Long.parseLong(options.getOrDefault("counterpartycapacity", "1048576")));
+        this.wallets = new WalletSet(new File(dir, "wallet.dat"),
+                Long.parseLong(options.getOrDefault("walletcapacity", "1048576")));
+        this.addresses = new AddressTable(dir, Long.parseLong(options.getOrDefault("addresscapacity", "1048576")));
+
+        this.partitions = new Partition[Integer.parseInt(options.getOrDefault("exportpartitions",
+                String.valueOf(cores)))];
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = new Partition(dir, i);
+        }
+        this.height = -1;
+        this.best = ChainBuilder.GENESIS_PREV_HASH;
+    }
+
+    //Exporting all blocks of the chain, then outputs never spent, addresses and the tip
+    public void export() throws Exception {
+        LOGGER.info("Exporting blocks into " + dir + " with " + partitions.length + " partitions");
+        final long start = System.currentTimeMillis();
+        try (BlockPipeline loader = new BlockPipeline(np, blockLocations(), blockFiles, decoderThreads,
+                decoderQueueSize)) {
+            for (DecodedBlock block : loader) {
+                if (!block.getPrevBlockHash().equals(best)) {
+                    throw new IllegalStateException("Invalid chain at block " + block.getHashAsString());
+                }
+                exportBlock(block, height + 1);
+                if (height % 10000 == 0) {
+                    LOGGER.info("Exported block " + height + ", " + addresses.size() + " addresses");
+                }
+            }
+        }
+
+        LOGGER.info("Blocks are exported. Writing " + utxoSet.size() + " unspent outputs and "
+                + addresses.size() + " addresses");
+        utxoSet.forEach((txHash, index, entry) -> output(entry.outputId,
+                outputName(Sha256Hash.wrap(txHash).toString(), index), index, entry.value, false));
+        addresses.forEach((number, name, totals) -> {
+            final long id = ADDRESS_ID_BASE + number;
+            vertex("vertex-Address", id, line(id).append(',').append(name)
+                    .append(',').append(totals.balance)
+                    .append(',').append(totals.firstAppearDate)
+                    .append(',').append(totals.lastAppearDate)
+                    .append(',').append(totals.inputTransactionBalance)
+                    .append(',').append(totals.outputTransactionBalance)
+                    .append(',').append(totals.transactionCount)
+                    .append(',').append(totals.inputTransactionCount)
+                    .append(',').append(totals.outputTransactionCount)
+                    .append(',').append(totals.inputAddressCount)
+                    .append(',').append(totals.outputAddressCount)
+                    .append(',').append(totals.betweenAddressTransactionCount)
+                    .append(',').append(wallets.walletId(id)));
+        });
+        if (height >= 0) {
+            final long id = BlockchainToGraph.BULK_ID_BASE - 1;
+            vertex("vertex-Meta", id, line(id).append(',').append("tip").append(',').append(best)
+                    .append(',').append(height));
+        }
+        for (Partition partition : partitions) {
+            partition.finish();
+        }
+        LOGGER.info("Export of " + (height + 1) + " blocks is finished in "
+                + (System.currentTimeMillis() - start) / 1000 + " s");
+    }
+
+    //Same as block parser writes: block with its sums, then transactions in block order
+    private void exportBlock(DecodedBlock block, int blockHeight) throws IOException {
+        final long date = block.getTime().getTime();
+        final String hash = block.getHashAsString();
+        long blockBalance = block.getBlockInflation(blockHeight);
+        long blockFee = 0;
+        if (block.hasTransactions()) {
+            for (DecodedBlock.DecodedTransaction tx : block.getTransactions()) {
+                if (!tx.isCoinBase()) {
+                    blockBalance += tx.getInputSum();
+                    blockFee += tx.getFee();
+                }
+            }
+        }
+        height = blockHeight;
+        sequence = 0;
+
+        final long blockId = nextId();
+        vertex("vertex-Block", blockId, line(blockId).append(',').append(hash)
+                .append(',').append(date)
+                .append(',').append(blockHeight)
+                .append(',').append(block.hasTransactions() ? block.getTransactions().size() : 0)
+                .append(',').append(blockBalance)
+                .append(',').append(block.getBlockInflation(blockHeight))
+                .append(',').append(blockFee));
+        if (blockHeight != 0) {
+            edge("edge-chain", bestId, blockId, null);
+        }
+        if (block.hasTransactions()) {
+            for (DecodedBlock.DecodedTransaction tx : block.getTransactions()) {
+                exportTransaction(blockId, tx, date);
+            }
+        }
+        best = hash;
+        bestId = blockId;
+
+        //Sets are only appended to, so their undo logs are dropped
+        utxoSet.commit(hash, blockHeight);
+        counterparties.commit(hash, blockHeight);
+        wallets.commit(hash, blockHeight);
+    }
+
+    //Same as block parser writes: inputs, joined wallets of input addresses, outputs and counterparties
+    private void exportTransaction(long blockId, DecodedBlock.DecodedTransaction tx, long date)
+            throws IOException {
+        final String txHash = tx.getHash();
+        final long txId = nextId();
+        edge("edge-has", blockId, txId, null);
+
+        //Coinbase repeating hash of earlier coinbase replaces its unspent outputs, they are written now
+        String txName = txHash;
+        if (tx.isCoinBase()) {
+            for (int i = 0; i < tx.getOutputCount(); i++) {
+                final UtxoSet.Entry shadowed = utxoSet.remove(tx.getTxId().getBytes(), i);
+                if (shadowed != null) {
+                    output(shadowed.outputId, outputName(txHash, i), i, shadowed.value, false);
+                    txName = txHash + "-" + height;
+                }
+            }
+            if (!txName.equals(txHash)) {
+                LOGGER.warn("Transaction " + txHash + " of block " + height + " repeats hash of transaction "
+                        + "with unspent outputs. It is named " + txName);
+                duplicateNames.put(txHash, txName);
+            }
+        }
+
+        //Address numbers of spent and created outputs, input addresses are kept in order of inputs
+        final Set<Long> inputAddresses = new LinkedHashSet<>();
+        final Set<Long> outputAddresses = new HashSet<>();
+        if (!tx.isCoinBase()) {
+            for (int i = 0; i < tx.getInputCount(); i++) {
+                final UtxoSet.Entry spent = utxoSet.remove(tx.getInputHash(i).getBytes(), tx.getInputIndex(i));
+                if (spent == null) {
+                    throw new IllegalStateException("Output " + tx.getInputHash(i) + ":" + tx.getInputIndex(i)
+                            + " spent by " + txHash + " is not found");
+                }
+                output(spent.outputId, outputName(tx.getInputHash(i).toString(), tx.getInputIndex(i)),
+                        tx.getInputIndex(i), spent.value, true);
+                edge("edge-input", spent.outputId, txId, String.valueOf(spent.value));
+                addresses.input(spent.addressId, spent.value, date);
+                inputAddresses.add(spent.addressId);
+            }
+            Long first = null;
+            for (Long number : inputAddresses) {
+                if (first == null) {
+                    first = number;
+                } else {
+                    wallets.union(ADDRESS_ID_BASE + first, ADDRESS_ID_BASE + number, (id, walletId) -> { });
+                }
+            }
+        }
+
+        int newAddressCount = 0;
+        for (int i = 0; i < tx.getOutputCount(); i++) {
+            final long outputId = nextId();
+            final long value = tx.getOutputValue(i);
+            edge("edge-output", txId, outputId, String.valueOf(i));
+
+            //Provably unspendable output is never spent
+            final String address = tx.getOutputAddress(i);
+            if (address == null) {
+                output(outputId, txName + ":" + i, i, value, false);
+                continue;
+            }
+            long number = addresses.number(address);
+            if (number < 0) {
+                number = addresses.add(address, date);
+                wallets.add(ADDRESS_ID_BASE + number);
+                newAddressCount++;
+            }
+            addresses.output(number, value, date, inputAddresses.contains(number));
+            edge("edge-locked", outputId, ADDRESS_ID_BASE + number, date + "," + value);
+            utxoSet.put(tx.getTxId().getBytes(), i, outputId, value, number);
+            outputAddresses.add(number);
+        }
+
+        vertex("vertex-Transaction", txId, line(txId).append(',').append(txName)
+                .append(',').append(tx.getInputCount())
+                .append(',').append(tx.getOutputCount())
+                .append(',').append(tx.getInputSum())
+                .append(',').append(date)
+                .append(',').append(newAddressCount)
+                .append(',').append(tx.isCoinBase())
+                .append(',').append(tx.getFee())
+                .append(',').append(!Collections.disjoint(inputAddresses, outputAddresses)));
+
+        //Output address got coins from input address and input address sent coins to output address
+        for (Long in : inputAddresses) {
+            for (Long out : outputAddresses) {
+                if (in.equals(out)) {
+                    continue;
+                }
+                if (counterparties.increment(out, in, CounterpartySet.INPUT)) {
+                    addresses.counterparties(out, 1, 0);
+                }
+                if (counterparties.increment(in, out, CounterpartySet.OUTPUT)) {
+                    addresses.counterparties(in, 0, 1);
+                }
+            }
+        }
+    }
+
+    //Name of output of transaction with given hash: output of repeating transaction has the name of the transaction
+    private String outputName(String txHash, int index) {
+        return duplicateNames.getOrDefault(txHash, txHash) + ":" + index;
+    }
+
+    private void output(long id, String name, int index, long value, boolean used)
+            throws IOException {
+        vertex("vertex-Output", id, line(id).append(',').append(name).append(',').append(index)
+                .append(',').append(value).append(',').append(used));
+    }
+
+    private void vertex(String kind, long id, StringBuilder line) throws IOException {
+        partition(id).line(kind, line);
+    }
+
+    private void edge(String kind, long outId, long inId, String properties) throws IOException {
+        final StringBuilder line = line(outId).append(',').append(inId);
+        if (properties != null) {
+            line.append(',').append(properties);
+        }
+        partition(outId).line(kind, line);
+    }
+
+    private static StringBuilder line(long id) {
+        return new StringBuilder(128).append(id);
+    }
+
+    private Partition partition(long id) {
+        long h = id * 0x9e3779b97f4a7c15L;
+        h ^= (h >>> 31);
+        return partitions[(int) Long.remainderUnsigned(h, partitions.length)];
+    }
+
+    private long nextId() {
+        if (sequence >= 1 << BlockchainToGraph.BULK_ID_BITS) {
+            throw new IllegalStateException("Too many vertices in block " + height);
+        }
+        return BlockchainToGraph.BULK_ID_BASE + ((long) height << BlockchainToGraph.BULK_ID_BITS) + sequence++;
+    }
+
+    //Blocks in chain order as block parser reads them: from Bitcoin Core block index if it can be read,
+    //otherwise all blk***.dat files are scanned and blocks are ordered by their previous hash
+    private Iterator<BlockLocation> blockLocations() {
+        if (useBlockIndex) {
+            try (BlockIndex index = BlockIndex.open(blockIndexDir, new File(blocksPath + "/blocks"))) {
+                return index.iterator(0);
+            } catch (Exception e) {
+                LOGGER.error("Block index is enabled, but it can't be read from " + blockIndexDir
+                        + ". Scanning blk files", e);
+            }
+        }
+        final List<File> files = new LinkedList<>();
+        for (int i = 0; true; i++) {
+            final File file = new File(blocksPath + "/blocks/" + String.format(Locale.US, "blk%05d.dat", i));
+            if (!file.exists()) {
+                break;
+            }
+            files.add(file);
+        }
+        return new ChainBuilder(forkDepth).order(new RawBlockReader(np, files, blockFiles));
+    }
+
+    //Closing and deleting work files
+    @Override
+    public void close() throws IOException {
+        blockFiles.close();
+        addresses.close();
+        utxoSet.close();
+        counterparties.close();
+        wallets.close();
+        for (String name : WORK_FILES) {
+            Files.deleteIfExists(new File(dir, name).toPath());
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+//Metrics of adding blocks to Graph Database: rates of blocks, transactions and outputs, time of commits and of
+//methods adding and deleting vertices, reorgs and lag behind the tip of Bitcoin node.
+//They are published over JMX and over HTTP in Prometheus text format. Progress is logged not more often than
+//once in progress interval instead of a line for every vertex
+public class IngestMetrics implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(IngestMetrics.class);
+    public static final String DOMAIN = "blockchain2graph";
+
+    //Methods adding and deleting vertices whose calls are timed. They are called for every output and input,
+    //so their timers are taken from registry once and names aren't built on every call
+    public enum Method {
+        ADD_BLOCK("addBlockToGraph"),
+        ADD_TRANSACTION("addTransactionToGraph"),
+        ADD_INPUT("addInputToGraph"),
+        ADD_OUTPUT("addOutputToGraph"),
+        ADD_ADDRESS("addAddressToGraph"),
+        UPDATE_ADDRESS("updateAddress"),
+        UPDATE_COUNTERPARTIES("updateCounterparties"),
+        WRITE_ADDRESSES("writeAddresses"),
+        JOIN_WALLETS("joinWallets"),
+        DELETE_BLOCK("deleteBlock"),
+        DELETE_TRANSACTION("deleteTransaction"),
+        DELETE_OUTPUT("deleteOutput"),
+        UPDATE_OUTPUT("updateOutput");
+
+        private final String methodName;
+
+        Method(String methodName) {
+            this.methodName = methodName;
+        }
+    }
+
+    private final MetricRegistry registry;
+    //Timers of methods by ordinal of method
+    private final Timer[] methods;
+    private final Meter blocks;
+    private final Meter transactions;
+    private final Meter outputs;
+    private final Timer commits;
+    private final Counter reorgs;
+    private final Histogram reorgDepth;
+    //Height of last committed block and of the best block known by Bitcoin node, -1 if not known
+    private volatile int height;
+    private volatile int tipHeight;
+    private final long progressInterval;
+    private long lastProgress;
+    private long lastBlocks;
+    private long lastTransactions;
+    private long lastOutputs;
+    private JmxReporter jmxReporter;
+    private MetricsEndpoint endpoint;
+
+    //JMX is used if jmx is set, HTTP endpoint is started on localhost if port is not 0
+    public IngestMetrics(boolean jmx, int port, long progressIntervalSeconds) throws IOException {
+        this.registry = new MetricRegistry();
+        this.blocks = registry.meter("blocks");
+        this.transactions = registry.meter("transactions");
+        this.outputs = registry.meter("outputs");
+        this.commits = registry.timer("commit");
+        final Method[] timed = Method.values();
+        this.methods = new Timer[timed.length];
+        for (Method method : timed) {
+            methods[method.ordinal()] = registry.timer(MetricRegistry.name("method", method.methodName));
+        }
+        this.reorgs = registry.counter("reorgs");
+        this.reorgDepth = registry.histogram("reorg.depth");
+        this.height = -1;
+        this.tipHeight = -1;
+        registry.register("height", (Gauge<Integer>) () -> height);
+        registry.register("tip.height", (Gauge<Integer>) () -> tipHeight);
+        registry.register("tip.lag", (Gauge<Integer>) () -> tipHeight < 0 ? -1 : Math.max(0, tipHeight - height));
+        this.progressInterval = TimeUnit.SECONDS.toNanos(progressIntervalSeconds);
+        this.lastProgress = System.nanoTime();
+        if (jmx) {
+            jmxReporter = JmxReporter.forRegistry(registry).inDomain(DOMAIN).build();
+            jmxReporter.start();
+        }
+        if (port != 0) {
+            endpoint = new MetricsEndpoint(registry, DOMAIN, port);
+            LOGGER.info("Metrics are published on http://localhost:" + port + MetricsEndpoint.PATH);
+        }
+    }
+
+    public MetricRegistry getRegistry() {
+        return registry;
+    }
+
+    //Add time of call of method started at given System.nanoTime(). Calls failed with exception are not timed
+    public void time(Method method, long start) {
+        methods[method.ordinal()].update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    //Start timing of Graph Database commit
+    public Timer.Context commit() {
+        return commits.time();
+    }
+
+    //Block with given number of transactions and outputs is written
+    public void block(int transactionCount, int outputCount) {
+        blocks.mark();
+        transactions.mark(transactionCount);
+        outputs.mark(outputCount);
+    }
+
+    //Blocks of invalid chain of given depth are deleted
+    public void reorg(int depth) {
+        reorgs.inc();
+        reorgDepth.update(depth);
+    }
+
+    public void setHeight(int height) {
+        this.height = height;
+    }
+
+    public void setTipHeight(int tipHeight) {
+        this.tipHeight = tipHeight;
+    }
+
+    //Log progress if progress interval has passed since last message
+    public void progress(int blockHeight) {
+        long now = System.nanoTime();
+        if (now - lastProgress < progressInterval) {
+            return;
+        }
+        double seconds = (now - lastProgress) / 1e9;
+        long blockCount = blocks.getCount();
+        long transactionCount = transactions.getCount();
+        long outputCount = outputs.getCount();
+        LOGGER.info(String.format(Locale.US,
+                "Block %d: %.1f blocks/s, %.1f txs/s, %.1f outputs/s, commit p99 %.1f ms%s",
+                blockHeight, (blockCount - lastBlocks) / seconds, (transactionCount - lastTransactions) / seconds,
+                (outputCount - lastOutputs) / seconds, commits.getSnapshot().get99thPercentile() / 1e6,
+                tipHeight < 0 ? "" : ", " + Math.max(0, tipHeight - blockHeight) + " blocks behind the tip"));
+        lastProgress = now;
+        lastBlocks = blockCount;
+        lastTransactions = transactionCount;
+        lastOutputs = outputCount;
+    }
+
+    @Override
+    public void close() {
+        if (jmxReporter != null) {
+            jmxReporter.close();
+        }
+        if (endpoint != null) {
+            endpoint.close();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.function.IntConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+//Tip source reading log of bitcoind started by the program. New blocks are found by "UpdateTip" messages and
+//blk***.dat file written by node by messages about pre-allocating and leaving block files.
+//It depends on log format of Bitcoin Core, so it is kept as fallback for nodes without ZMQ and JSON-RPC
+public class LogTipSource implements TipSource {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LogTipSource.class);
+
+    //Patterns to find in messages
+    private static final String PATTERN_FILE = "Pre-allocating up to position";
+    private static final String PATTERN_BLK = "blk";
+    private static final String PATTERN_DAT = ".dat";
+    private static final String PATTERN_CHANGE_FILE = "Leaving block file";
+    private static final String PATTERN_UPDATE_BLOCKCHAIN = "UpdateTip: new best=";
+    private static final String PATTERN_BLOCK_FILE_INFO = "CBlockFileInfo";
+    private static final String PATTERN_HEIGHT = "height=";
+    private static final String PATTERN_VERSION = "version=";
+
+    private final Process process;
+    private final BufferedReader reader;
+    private final IntConsumer fileListener;
+    private boolean closed;
+
+    public LogTipSource(String bitcoindPath, String dataDir, IntConsumer fileListener) throws IOException {
+        LOGGER.info("Starting full Bitcoin node");
+        this.process = Runtime.getRuntime().exec(bitcoindPath + "/bitcoind -datadir=" + dataDir);
+        this.reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        this.fileListener = fileListener;
+    }
+
+    //Reading messages of node until it finds new block or stops
+    @Override
+    public Tip poll() throws IOException {
+        String s;
+        while ((s = reader.readLine()) != null) {
+            if (s.contains(PATTERN_FILE) && s.contains(PATTERN_BLK)) {
+                //if node choose blk***.dat file to write
+                fileListener.accept(Integer.parseInt(s.substring(s.indexOf(PATTERN_BLK) + PATTERN_BLK.length(),
+                        s.indexOf(PATTERN_DAT))));
+            } else if (s.contains(PATTERN_CHANGE_FILE)) {
+                //if node changes blk***.dat file to write
+                fileListener.accept(Integer.parseInt(s.substring(s.indexOf(PATTERN_CHANGE_FILE)
+                        + PATTERN_CHANGE_FILE.length(), s.indexOf(PATTERN_BLOCK_FILE_INFO) - 2)) + 1);
+            } else if (s.contains(PATTERN_UPDATE_BLOCKCHAIN)) {
+                //if node finds new block
+                String hash = s.substring(s.indexOf(PATTERN_UPDATE_BLOCKCHAIN) + PATTERN_UPDATE_BLOCKCHAIN.length(),
+                        s.indexOf(PATTERN_HEIGHT) - 1);
+                int height = Integer.parseInt(s.substring(s.indexOf(PATTERN_HEIGHT) + PATTERN_HEIGHT.length(),
+                        s.indexOf(PATTERN_VERSION) - 1));
+                return new Tip(hash, height, null);
+            }
+        }
+        closed = true;
+        return null;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() {
+        process.destroy();
+    }
+}
@@ -0,0 +1,444 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bitcoinj.core.Sha256Hash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+//Open addressing hash table with linear probing stored off-heap in a memory-mapped file, base of UTXO, counterparty
+//and wallet sets and of address index of export. It grows twice when it is 3/4 full and deletes slots by backward
+//shift, so no tombstones are needed. Slot starts with its key, subclass gives hash of the key and tells empty slot.
+//Header keeps number of slots and keys, best block the table matches and a flag of correct close. Slots changed
+//since last commit are logged if table is undoable, so they are put back on rollback.
+//Subclass methods changing slots must be synchronized, so writer threads can share the table
+public abstract class MappedHashTable implements Closeable {
+    private static final int HEADER_SIZE = 128;
+    //1 GB per mapping, MappedByteBuffer can't be larger than 2 GB
+    private static final long SEGMENT_BYTES = 1L << 30;
+
+    //Header layout, header from EXTRA_OFFSET to its end is left to subclass
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int SIZE_OFFSET = 16;
+    private static final int CLEAN_OFFSET = 24;
+    private static final int HEIGHT_OFFSET = 28;
+    private static final int TIP_OFFSET = 32;
+    protected static final int EXTRA_OFFSET = 64;
+
+    //Key of a lookup compared with key of slot at given position
+    protected interface Matcher {
+        boolean matches(ByteBuffer b, int pos);
+    }
+
+    //Slot with given number at given position, it's visited in slot order
+    protected interface SlotVisitor {
+        void visit(long slot, ByteBuffer b, int pos) throws IOException;
+    }
+
+    //Slot before a change since last commit. Slot which was empty keeps only its key
+    protected static final class Change {
+        final long[] slot;
+        final boolean added;
+
+        Change(long[] slot, boolean added) {
+            this.slot = slot;
+            this.added = added;
+        }
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final File file;
+    private final String name;
+    private final long magic;
+    private final int slotSize;
+    private final int keySize;
+    private final long segmentSlots;
+    private final boolean undoable;
+    private RandomAccessFile raf;
+    private MappedByteBuffer header;
+    private MappedByteBuffer[] segments;
+    private long capacity;
+    private long mask;
+    private long size;
+    private boolean wasClean;
+
+    //Changes since last commit to undo them on rollback
+    private final List<Change> undoLog = new ArrayList<>();
+
+    //Open table file or create it with given initial capacity (number of slots, power of two). Slot size is
+    //a multiple of 8, its first keySize bytes are the key
+    protected MappedHashTable(File file, long initialCapacity, String name, long magic, int slotSize, int keySize,
+                              boolean undoable) throws IOException {
+        this.file = file;
+        this.name = name;
+        this.magic = magic;
+        this.slotSize = slotSize;
+        this.keySize = keySize;
+        this.segmentSlots = Long.highestOneBit(SEGMENT_BYTES / slotSize);
+        this.undoable = undoable;
+        boolean exists = file.exists() && file.length() >= HEADER_SIZE;
+        open(exists ? -1 : Long.highestOneBit(Math.max(initialCapacity, 1024)));
+    }
+
+    //Hash of key of slot at given position, the same key must have the same hash however it's found
+    protected abstract long hash(ByteBuffer b, int pos);
+
+    protected abstract boolean isEmpty(ByteBuffer b, int pos);
+
+    private void open(long newCapacity) throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        FileChannel channel = raf.getChannel();
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+
+        if (newCapacity > 0 || header.getLong(0) != magic) {
+            if (newCapacity <= 0) {
+                logger.info("File " + file + " of " + name + " is corrupted. Creating new one");
+                newCapacity = 1 << 20;
+            }
+            for (int i = 0; i < HEADER_SIZE; i += 8) {
+                header.putLong(i, 0);
+            }
+            capacity = newCapacity;
+            size = 0;
+            header.putLong(0, magic);
+            header.putLong(CAPACITY_OFFSET, capacity);
+            header.putInt(HEIGHT_OFFSET, -1);
+            wasClean = false;
+        } else {
+            capacity = header.getLong(CAPACITY_OFFSET);
+            size = header.getLong(SIZE_OFFSET);
+            wasClean = header.getInt(CLEAN_OFFSET) == 1;
+        }
+        mask = capacity - 1;
+        segments = map(channel, capacity);
+
+        //File is dirty while it is opened
+        header.putInt(CLEAN_OFFSET, 0);
+    }
+
+    private MappedByteBuffer[] map(FileChannel channel, long slots) throws IOException {
+        int segmentCount = (int) Math.max(1, slots / segmentSlots);
+        long mappedSlots = Math.min(slots, segmentSlots);
+        MappedByteBuffer[] mapped = new MappedByteBuffer[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            mapped[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                    HEADER_SIZE + i * mappedSlots * slotSize, mappedSlots * slotSize);
+        }
+        return mapped;
+    }
+
+    //Check that table was closed correctly and matches given best block of Graph Database
+    public synchronized boolean isConsistent(String best, int height) {
+        if (!wasClean) {
+            return false;
+        }
+        if (best == null) {
+            return size == 0 && header.getInt(HEIGHT_OFFSET) == -1;
+        }
+        return header.getInt(HEIGHT_OFFSET) == height && Arrays.equals(tipBytes(best), storedTip());
+    }
+
+    //Remember best block of committed Graph Database transaction, changes can't be undone after that
+    public synchronized void commit(String best, int height) {
+        undoLog.clear();
+        header.putLong(SIZE_OFFSET, size);
+        header.putInt(HEIGHT_OFFSET, height);
+        putTip(tipBytes(best));
+    }
+
+    //Undo all changes since last commit
+    public synchronized void rollback() {
+        for (int i = undoLog.size() - 1; i >= 0; i--) {
+            try {
+                restore(undoLog.get(i), false);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to roll back " + name, e);
+            }
+        }
+        undoLog.clear();
+        header.putLong(SIZE_OFFSET, size);
+    }
+
+    //Remove all keys
+    public synchronized void clear() {
+        for (MappedByteBuffer segment : segments) {
+            for (int i = 0; i < segment.capacity(); i += 8) {
+                segment.putLong(i, 0);
+            }
+        }
+        size = 0;
+        undoLog.clear();
+        header.putLong(SIZE_OFFSET, 0);
+        header.putInt(HEIGHT_OFFSET, -1);
+        putTip(new byte[32]);
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    //Flush table on disk and mark it as correctly closed
+    @Override
+    public synchronized void close() throws IOException {
+        header.putLong(SIZE_OFFSET, size);
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+        header.putInt(CLEAN_OFFSET, 1);
+        header.force();
+        raf.close();
+    }
+
+    //Table must have a free slot before a key is added, slots found before can move
+    protected final void ensureCapacity() throws IOException {
+        if (size + 1 > capacity - (capacity >> 2)) {
+            grow();
+        }
+    }
+
+    //Find slot of key with given hash. If there's no such key returns ~slot of first empty slot
+    protected final long find(long hash, Matcher matcher) {
+        long slot = hash & mask;
+        while (true) {
+            ByteBuffer b = segment(slot);
+            int pos = position(slot);
+            if (isEmpty(b, pos)) {
+                return ~slot;
+            }
+            if (matcher.matches(b, pos)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    //Key was written to empty slot
+    protected final void added(long slot) {
+        if (undoable) {
+            undoLog.add(new Change(readSlot(slot), true));
+        }
+        size++;
+    }
+
+    //Slot is going to be changed
+    protected final void changing(long slot) {
+        if (undoable) {
+            undoLog.add(new Change(readSlot(slot), false));
+        }
+    }
+
+    //Key of slot is removed
+    protected final void remove(long slot) {
+        changing(slot);
+        deleteSlot(slot);
+        size--;
+    }
+
+    //Number of changes logged since last commit, changes logged after it are taken by changesSince
+    protected final int logSize() {
+        return undoLog.size();
+    }
+
+    //Changes logged after given mark, oldest first
+    protected final List<Change> changesSince(int mark) {
+        return new ArrayList<>(undoLog.subList(mark, undoLog.size()));
+    }
+
+    //Undoing given changes, newest first. It is logged as any other change, so it's rolled back too
+    protected final void undoChanges(List<Change> changes) throws IOException {
+        for (int i = changes.size() - 1; i >= 0; i--) {
+            restore(changes.get(i), true);
+        }
+    }
+
+    //Visiting all stored keys in slot order
+    protected final void forEachSlot(SlotVisitor visitor) throws IOException {
+        for (long slot = 0; slot < capacity; slot++) {
+            ByteBuffer b = segment(slot);
+            int pos = position(slot);
+            if (!isEmpty(b, pos)) {
+                visitor.visit(slot, b, pos);
+            }
+        }
+    }
+
+    protected final int headerInt(int offset) {
+        return header.getInt(offset);
+    }
+
+    protected final void putHeaderInt(int offset, int value) {
+        header.putInt(offset, value);
+    }
+
+    protected final ByteBuffer segment(long slot) {
+        return segments[(int) (slot / segmentSlots)];
+    }
+
+    protected final int position(long slot) {
+        return (int) (slot % segmentSlots) * slotSize;
+    }
+
+    //Putting slot back as it was before change
+    private void restore(Change change, boolean logged) throws IOException {
+        final ByteBuffer before = ByteBuffer.allocate(slotSize);
+        before.asLongBuffer().put(change.slot);
+        long slot = find(hash(before, 0), (b, pos) -> keyEquals(b, pos, before));
+        if (!change.added && slot < 0 && size + 1 > capacity - (capacity >> 2)) {
+            grow();
+            slot = find(hash(before, 0), (b, pos) -> keyEquals(b, pos, before));
+        }
+        if (change.added) {
+            if (slot >= 0) {
+                if (logged) {
+                    remove(slot);
+                } else {
+                    deleteSlot(slot);
+                    size--;
+                }
+            }
+        } else {
+            if (logged && slot >= 0) {
+                changing(slot);
+            }
+            final long target = slot < 0 ? ~slot : slot;
+            writeSlot(target, change.slot);
+            if (slot < 0) {
+                if (logged) {
+                    added(target);
+                } else {
+                    size++;
+                }
+            }
+        }
+    }
+
+    private boolean keyEquals(ByteBuffer b, int pos, ByteBuffer key) {
+        for (int i = 0; i < keySize; i++) {
+            if (b.get(pos + i) != key.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //Backward shift deletion, slots after deleted one which are out of their home are shifted back
+    private void deleteSlot(long slot) {
+        long i = slot;
+        long j = slot;
+        while (true) {
+            j = (j + 1) & mask;
+            ByteBuffer b = segment(j);
+            int pos = position(j);
+            if (isEmpty(b, pos)) {
+                break;
+            }
+            long k = hash(b, pos) & mask;
+            boolean movable = (j > i) ? (k <= i || k > j) : (k <= i && k > j);
+            if (movable) {
+                copySlot(b, pos, segment(i), position(i));
+                i = j;
+            }
+        }
+        ByteBuffer b = segment(i);
+        int pos = position(i);
+        for (int offset = 0; offset < slotSize; offset += 8) {
+            b.putLong(pos + offset, 0);
+        }
+    }
+
+    //Rehash all keys into twice larger file
+    private void grow() throws IOException {
+        final long newCapacity = capacity << 1;
+        final long newMask = newCapacity - 1;
+        logger.info("Growing " + name + " to " + newCapacity + " slots");
+        final File tmp = new File(file.getPath() + ".tmp");
+        Files.deleteIfExists(tmp.toPath());
+
+        try (RandomAccessFile grown = new RandomAccessFile(tmp, "rw")) {
+            final FileChannel channel = grown.getChannel();
+            final MappedByteBuffer grownHeader = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            for (int i = 0; i < HEADER_SIZE; i += 8) {
+                grownHeader.putLong(i, header.getLong(i));
+            }
+            grownHeader.putLong(CAPACITY_OFFSET, newCapacity);
+            grownHeader.putLong(SIZE_OFFSET, size);
+            final MappedByteBuffer[] grownSegments = map(channel, newCapacity);
+            for (long slot = 0; slot < capacity; slot++) {
+                ByteBuffer b = segment(slot);
+                int pos = position(slot);
+                if (isEmpty(b, pos)) {
+                    continue;
+                }
+                long newSlot = hash(b, pos) & newMask;
+                while (!isEmpty(grownSegments[(int) (newSlot / segmentSlots)], position(newSlot))) {
+                    newSlot = (newSlot + 1) & newMask;
+                }
+                copySlot(b, pos, grownSegments[(int) (newSlot / segmentSlots)], position(newSlot));
+            }
+            for (MappedByteBuffer segment : grownSegments) {
+                segment.force();
+            }
+            grownHeader.force();
+        }
+
+        //Table opened dirty stays dirty
+        final boolean clean = wasClean;
+        raf.close();
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        open(-1);
+        wasClean = clean;
+    }
+
+    private long[] readSlot(long slot) {
+        ByteBuffer b = segment(slot);
+        int pos = position(slot);
+        long[] longs = new long[slotSize / 8];
+        for (int i = 0; i < longs.length; i++) {
+            longs[i] = b.getLong(pos + i * 8);
+        }
+        return longs;
+    }
+
+    private void writeSlot(long slot, long[] longs) {
+        ByteBuffer b = segment(slot);
+        int pos = position(slot);
+        for (int i = 0; i < longs.length; i++) {
+            b.putLong(pos + i * 8, longs[i]);
+        }
+    }
+
+    private void copySlot(ByteBuffer src, int fromPos, ByteBuffer dst, int toPos) {
+        for (int i = 0; i < slotSize; i += 8) {
+            dst.putLong(toPos + i, src.getLong(fromPos + i));
+        }
+    }
+
+    private byte[] storedTip() {
+        byte[] tip = new byte[32];
+        for (int i = 0; i < 32; i++) {
+            tip[i] = header.get(TIP_OFFSET + i);
+        }
+        return tip;
+    }
+
+    private void putTip(byte[] tip) {
+        for (int i = 0; i < 32; i++) {
+            header.put(TIP_OFFSET + i, tip[i]);
+        }
+    }
+
+    private static byte[] tipBytes(String best) {
+        return Sha256Hash.wrap(best).getBytes();
+    }
+}
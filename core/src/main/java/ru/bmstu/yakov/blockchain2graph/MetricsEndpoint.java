@@ -0,0 +1,116 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Sampling;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+//HTTP endpoint on localhost giving metrics in Prometheus text format. Meters and counters are counters,
+//timers and histograms are summaries (timers in seconds), numeric gauges are gauges
+public class MetricsEndpoint implements Closeable {
+    public static final String PATH = "/metrics";
+    private static final double[] QUANTILES = {0.5, 0.75, 0.95, 0.99, 0.999};
+
+    private final MetricRegistry registry;
+    private final String prefix;
+    private final HttpServer server;
+
+    public MetricsEndpoint(MetricRegistry registry, String prefix, int port) throws IOException {
+        this.registry = registry;
+        this.prefix = prefix;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext(PATH, this::handle);
+        server.start();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    //All metrics of registry in Prometheus text format
+    public String scrape() {
+        StringBuilder sb = new StringBuilder();
+        //Gauges of registry are a map of raw type, they are taken from all metrics sorted by name
+        for (Map.Entry<String, Metric> metric : new TreeMap<>(registry.getMetrics()).entrySet()) {
+            if (!(metric.getValue() instanceof Gauge)) {
+                continue;
+            }
+            Object value = ((Gauge<?>) metric.getValue()).getValue();
+            if (value instanceof Number) {
+                String name = name(metric.getKey());
+                sb.append("# TYPE ").append(name).append(" gauge\n");
+                if (value instanceof Integer || value instanceof Long) {
+                    sample(sb, name, "", ((Number) value).longValue());
+                } else {
+                    sample(sb, name, "", ((Number) value).doubleValue());
+                }
+            }
+        }
+        for (Map.Entry<String, Counter> counter : registry.getCounters().entrySet()) {
+            counter(sb, name(counter.getKey()), counter.getValue().getCount());
+        }
+        for (Map.Entry<String, Meter> meter : registry.getMeters().entrySet()) {
+            counter(sb, name(meter.getKey()), meter.getValue().getCount());
+        }
+        for (Map.Entry<String, Histogram> histogram : registry.getHistograms().entrySet()) {
+            summary(sb, name(histogram.getKey()), histogram.getValue(), histogram.getValue().getCount(), 1);
+        }
+        for (Map.Entry<String, Timer> timer : registry.getTimers().entrySet()) {
+            summary(sb, name(timer.getKey()) + "_seconds", timer.getValue(), timer.getValue().getCount(), 1e-9);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private String name(String key) {
+        return (prefix + "_" + key).replaceAll("[^a-zA-Z0-9_]", "_");
+    }
+
+    private static void counter(StringBuilder sb, String name, long count) {
+        sb.append("# TYPE ").append(name).append("_total counter\n");
+        sample(sb, name + "_total", "", count);
+    }
+
+    private static void summary(StringBuilder sb, String name, Sampling sampling, long count, double scale) {
+        Snapshot snapshot = sampling.getSnapshot();
+        sb.append("# TYPE ").append(name).append(" summary\n");
+        for (double quantile : QUANTILES) {
+            sample(sb, name, "{quantile=\"" + quantile + "\"}", snapshot.getValue(quantile) * scale);
+        }
+        sample(sb, name + "_count", "", count);
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, double value) {
+        sb.append(name).append(labels).append(' ').append(String.format(Locale.US, "%s", value)).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, long value) {
+        sb.append(name).append(labels).append(' ').append(value).append('\n');
+    }
+}
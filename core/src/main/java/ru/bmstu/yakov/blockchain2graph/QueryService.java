@@ -0,0 +1,144 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.janusgraph.core.JanusGraphTransaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+//HTTP endpoint on localhost giving summaries of addresses, transactions and blocks as JSON:
+///address/<address>, /transaction/<hash> and /block/<hash>. Summary is taken from summary cache, Graph Database
+//is read in a read-only transaction of its own only if summary isn't cached, so hot lookups don't reach
+//storage backend. Graph Database is taken from transaction graph on every lookup, as it is reopened after bulk load.
+//Dates are given as milliseconds
+public class QueryService implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryService.class);
+
+    private final TransactionGraph tg;
+    private final VertexNames names;
+    private final SummaryCache cache;
+    private final HttpServer server;
+    private final ExecutorService threads;
+
+    public QueryService(TransactionGraph tg, VertexNames names, SummaryCache cache, int port, int threadCount)
+            throws IOException {
+        this.tg = tg;
+        this.names = names;
+        this.cache = cache;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        final AtomicInteger threadCounter = new AtomicInteger();
+        this.threads = Executors.newFixedThreadPool(threadCount, r -> {
+            Thread t = new Thread(r, "query-" + threadCounter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(threads);
+        server.createContext("/address/", exchange -> handle(exchange, "Address", "/address/"));
+        server.createContext("/transaction/", exchange -> handle(exchange, "Transaction", "/transaction/"));
+        server.createContext("/block/", exchange -> handle(exchange, "Block", "/block/"));
+        server.start();
+        LOGGER.info("Query service is listening on " + server.getAddress());
+    }
+
+    private void handle(HttpExchange exchange, String label, String path) throws IOException {
+        int status = 200;
+        String body;
+        try {
+            final String name = URLDecoder.decode(exchange.getRequestURI().getRawPath().substring(path.length()),
+                    StandardCharsets.UTF_8.name());
+            final Map<String, Object> summary = summary(label, name);
+            if (summary != null) {
+                body = json(summary);
+            } else {
+                status = 404;
+                body = "{\"error\":\"" + label + " " + escape(name) + " is not found\"}";
+            }
+        } catch (RuntimeException e) {
+            LOGGER.warn("Failed to read " + exchange.getRequestURI(), e);
+            status = 500;
+            body = "{\"error\":\"" + escape(String.valueOf(e.getMessage())) + "\"}";
+        }
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    //Summary of vertex with given label and name from cache or Graph Database, null if there's no such vertex
+    public Map<String, Object> summary(String label, String name) {
+        final Map<String, Object> cached = cache.get(label, name);
+        if (cached != null) {
+            return cached;
+        }
+        final long version = cache.version();
+        final JanusGraphTransaction tx = tg.getJanusGraph().buildTransaction().readOnly().start();
+        try {
+            final Optional<Vertex> vertex = names.find(tx.traversal(), label, name).tryNext();
+            if (!vertex.isPresent()) {
+                return null;
+            }
+            final Map<String, Object> summary = SummaryCache.summary(vertex.get(), name);
+            cache.fill(label, name, summary, version);
+            return summary;
+        } finally {
+            tx.rollback();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        threads.shutdownNow();
+    }
+
+    private static String json(Map<String, Object> summary) {
+        final StringBuilder sb = new StringBuilder("{");
+        for (Map.Entry<String, Object> property : summary.entrySet()) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            sb.append('"').append(escape(property.getKey())).append("\":");
+            final Object value = property.getValue();
+            if (value instanceof Number || value instanceof Boolean) {
+                sb.append(value);
+            } else if (value instanceof Date) {
+                sb.append(((Date) value).getTime());
+            } else {
+                sb.append('"').append(escape(String.valueOf(value))).append('"');
+            }
+        }
+        return sb.append('}').toString();
+    }
+
+    private static String escape(String s) {
+        final StringBuilder sb = new StringBuilder(s.length());
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,144 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+
+//Scans blk***.dat files as Bitcoin Core writes them: magic bytes, block length, block.
+//Files are mapped into memory and framing is walked in place, only 80 bytes of block header are hashed
+//and only location of block is returned, so blocks can be deserialized later by other threads
+public class RawBlockReader implements Iterator<BlockLocation> {
+    private static final int HEADER_SIZE = 80;
+
+    private final List<File> files;
+    private final BlockFileMap blockFiles;
+    private final long packetMagic;
+    private final long startOffset;
+    private final boolean appendOnly;
+    private final MessageDigest digest = Sha256Hash.newDigest();
+    private final byte[] prevHash = new byte[32];
+    private int fileIndex;
+    private ByteBuffer buffer;
+    private int position;
+    private BlockLocation next;
+
+    public RawBlockReader(NetworkParameters np, List<File> files, BlockFileMap blockFiles) {
+        this(np, files, blockFiles, 0);
+    }
+
+    //Reader starting at given offset of the first file, it is the end of a block read before
+    public RawBlockReader(NetworkParameters np, List<File> files, BlockFileMap blockFiles, long startOffset) {
+        this(np, files, blockFiles, startOffset, false);
+    }
+
+    //Reader of records appended to file from given offset. File is read until the first place with no magic,
+    //so zero-filled preallocated tail of file that is being written isn't scanned
+    public RawBlockReader(NetworkParameters np, List<File> files, BlockFileMap blockFiles, long startOffset,
+                          boolean appendOnly) {
+        this.files = files;
+        this.blockFiles = blockFiles;
+        this.packetMagic = np.getPacketMagic();
+        this.startOffset = startOffset;
+        this.appendOnly = appendOnly;
+        this.fileIndex = 0;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = readNext();
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to read blk file " + files.get(fileIndex), e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public BlockLocation next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        BlockLocation location = next;
+        next = null;
+        return location;
+    }
+
+    private BlockLocation readNext() throws IOException {
+        while (fileIndex < files.size()) {
+            File file = files.get(fileIndex);
+            if (buffer == null) {
+                buffer = blockFiles.map(file);
+                position = fileIndex == 0 ? (int) startOffset : 0;
+            }
+            if (seekPastMagic() && buffer.capacity() - position >= 4) {
+                int size = buffer.getInt(position);
+                int offset = position + 4;
+                //Last block of file may be not written completely yet
+                if (size >= HEADER_SIZE && size <= buffer.capacity() - offset) {
+                    BlockLocation location = new BlockLocation(file, offset, size, headerHash(offset), prevHash(offset));
+                    position = offset + size;
+                    return location;
+                }
+            }
+            buffer = null;
+            fileIndex++;
+        }
+        return null;
+    }
+
+    //Hash of block header, hashed in place
+    private String headerHash(int offset) {
+        for (int i = 0; i < HEADER_SIZE; i++) {
+            digest.update(buffer.get(offset + i));
+        }
+        return Sha256Hash.wrapReversed(Sha256Hash.hash(digest.digest())).toString();
+    }
+
+    //Header: version (4 bytes), previous block hash (32 bytes), ...
+    private String prevHash(int offset) {
+        for (int i = 0; i < prevHash.length; i++) {
+            prevHash[i] = buffer.get(offset + 4 + i);
+        }
+        return Sha256Hash.wrapReversed(prevHash).toString();
+    }
+
+    //Skip bytes until magic is found, files have zero padding after last block. Returns false at end of file.
+    //Records are appended one after another, so in append-only mode magic must be right at the position
+    private boolean seekPastMagic() {
+        if (appendOnly) {
+            if (buffer.capacity() - position < 4) {
+                return false;
+            }
+            for (int i = 0; i < 4; i++) {
+                if ((buffer.get(position + i) & 0xff) != (int) ((packetMagic >>> (24 - 8 * i)) & 0xff)) {
+                    return false;
+                }
+            }
+            position += 4;
+            return true;
+        }
+        int matched = 0;
+        while (matched < 4) {
+            if (position >= buffer.capacity()) {
+                return false;
+            }
+            int b = buffer.get(position++) & 0xff;
+            int expected = (int) ((packetMagic >>> (24 - 8 * matched)) & 0xff);
+            if (b == expected) {
+                matched++;
+            } else {
+                matched = b == (int) ((packetMagic >>> 24) & 0xff) ? 1 : 0;
+            }
+        }
+        return true;
+    }
+}
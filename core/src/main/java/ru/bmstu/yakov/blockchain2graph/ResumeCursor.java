@@ -0,0 +1,138 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+
+import org.bitcoinj.core.Sha256Hash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+//Where parsing of blk***.dat files goes on after restart: height and hash of the last committed block together
+//with number of its blk***.dat file and its offset there. It is written into a file after every commit,
+//so restart starts right after the last committed block instead of reading the chain from genesis.
+//Position is unknown (file number is -1) if the block wasn't read from blk***.dat files or the tip was rolled back
+public final class ResumeCursor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResumeCursor.class);
+
+    private static final int MAGIC = 0x43555253;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 80;
+
+    private final int fileNumber;
+    private final long offset;
+    private final int height;
+    private final String hash;
+
+    public ResumeCursor(int fileNumber, long offset, int height, String hash) {
+        this.fileNumber = fileNumber;
+        this.offset = offset;
+        this.height = height;
+        this.hash = hash;
+    }
+
+    //Cursor of block at given location, location can be null if it's unknown
+    public static ResumeCursor of(BlockLocation location, int height, String hash) {
+        if (location == null || !location.getHash().equals(hash)) {
+            return new ResumeCursor(-1, -1, height, hash);
+        }
+        return new ResumeCursor(fileNumber(location.getFile()), location.getOffset(), height, hash);
+    }
+
+    public int getFileNumber() {
+        return fileNumber;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public boolean hasPosition() {
+        return fileNumber >= 0;
+    }
+
+    //Cursor is taken only if it points to the stored tip
+    public boolean isAt(String tipHash, int tipHeight) {
+        return height == tipHeight && hash.equals(tipHash);
+    }
+
+    //Checking that blk***.dat file still has the block at the position: only its 80 bytes of header are hashed
+    public boolean isStored(File blocksDir, BlockFileMap blockFiles) {
+        if (!hasPosition()) {
+            return false;
+        }
+        final File file = new File(blocksDir, String.format(Locale.US, "blk%05d.dat", fileNumber));
+        if (!file.exists()) {
+            return false;
+        }
+        try {
+            final ByteBuffer bytes = blockFiles.slice(new BlockLocation(file, offset, HEADER_SIZE, hash, hash));
+            final byte[] header = new byte[HEADER_SIZE];
+            bytes.get(header);
+            return Sha256Hash.wrapReversed(Sha256Hash.hashTwice(header)).toString().equals(hash);
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    //Cursor written before, null if there's no file or it can't be read
+    public static ResumeCursor read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            return new ResumeCursor(in.readInt(), in.readLong(), in.readInt(), in.readUTF());
+        } catch (IOException e) {
+            LOGGER.warn("Can't read resume cursor " + file, e);
+            return null;
+        }
+    }
+
+    //Writing cursor into temporary file which replaces the cursor, so a crash leaves the old or the new one
+    public void write(File file) throws IOException {
+        final File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(fos)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(fileNumber);
+            out.writeLong(offset);
+            out.writeInt(height);
+            out.writeUTF(hash);
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    //Number of blk***.dat file from its name
+    private static int fileNumber(File file) {
+        final String name = file.getName();
+        return Integer.parseInt(name.substring(3, name.indexOf('.')));
+    }
+
+    @Override
+    public String toString() {
+        return hash + " at height " + height + (hasPosition()
+                ? " (" + String.format(Locale.US, "blk%05d.dat", fileNumber) + ":" + offset + ")" : "");
+    }
+}
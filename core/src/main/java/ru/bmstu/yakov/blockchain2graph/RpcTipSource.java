@@ -0,0 +1,146 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Base64;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+//Tip source asking JSON-RPC interface of Bitcoin Core for its best block.
+//"waitfornewblock" is long polling: node answers as soon as new block is connected or when poll time is out.
+//If node doesn't have it, "getbestblockhash" is polled instead. User and password are taken from options
+//or from cookie file of node
+public class RpcTipSource implements TipSource {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RpcTipSource.class);
+    private static final int METHOD_NOT_FOUND = -32601;
+
+    private final URL url;
+    private final String user;
+    private final String password;
+    private final File cookie;
+    private final long pollMillis;
+    private final Process node;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private boolean longPolling = true;
+    private String best;
+
+    public RpcTipSource(String url, String user, String password, File cookie, long pollMillis, Process node)
+            throws IOException {
+        this.url = new URL(url);
+        this.user = user;
+        this.password = password;
+        this.cookie = cookie;
+        this.pollMillis = pollMillis;
+        this.node = node;
+        LOGGER.info("Polling best block of " + url);
+    }
+
+    @Override
+    public Tip poll() throws InterruptedException {
+        try {
+            final String hash;
+            int height = -1;
+            if (longPolling) {
+                final JsonNode result = call("waitfornewblock", pollMillis);
+                if (result == null) {
+                    LOGGER.info("Node doesn't support waitfornewblock. Polling getbestblockhash");
+                    longPolling = false;
+                    return null;
+                }
+                hash = result.get("hash").asText();
+                height = result.get("height").asInt();
+            } else {
+                hash = call("getbestblockhash").asText();
+            }
+            if (hash.equals(best)) {
+                if (!longPolling) {
+                    Thread.sleep(pollMillis);
+                }
+                return null;
+            }
+            if (height < 0) {
+                height = call("getblockheader", hash).get("height").asInt();
+            }
+            best = hash;
+            return new Tip(hash, height, null);
+        } catch (IOException e) {
+            //Node can be starting or restarting
+            LOGGER.warn("JSON-RPC call to " + url + " failed: " + e.getMessage());
+            Thread.sleep(pollMillis);
+            return null;
+        }
+    }
+
+    //Calling method with given parameters, null is returned if node doesn't have such method
+    private JsonNode call(String method, Object... params) throws IOException {
+        final ObjectNode request = mapper.createObjectNode();
+        request.put("jsonrpc", "1.0");
+        request.put("id", "blockchain2graph");
+        request.put("method", method);
+        request.set("params", mapper.valueToTree(params));
+
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setConnectTimeout(10000);
+            connection.setReadTimeout((int) (pollMillis + 30000));
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setRequestProperty("Authorization", "Basic " + Base64.getEncoder()
+                    .encodeToString(credentials().getBytes(StandardCharsets.UTF_8)));
+            try (OutputStream out = connection.getOutputStream()) {
+                mapper.writeValue(out, request);
+            }
+            //Node answers errors with status 404 or 500 and JSON body
+            final int status = connection.getResponseCode();
+            final InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            if (body == null) {
+                throw new IOException("HTTP status " + status);
+            }
+            final JsonNode response;
+            try (InputStream in = body) {
+                response = mapper.readTree(in);
+            }
+            final JsonNode error = response.get("error");
+            if (error != null && !error.isNull()) {
+                if (error.path("code").asInt() == METHOD_NOT_FOUND) {
+                    return null;
+                }
+                throw new IOException(method + ": " + error.path("message").asText());
+            }
+            return response.get("result");
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    //User and password from options, otherwise from cookie file which node rewrites on every start
+    private String credentials() throws IOException {
+        if (!user.isEmpty()) {
+            return user + ":" + password;
+        }
+        return new String(Files.readAllBytes(cookie.toPath()), StandardCharsets.UTF_8).trim();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return node != null && !node.isAlive();
+    }
+
+    @Override
+    public void close() {
+        if (node != null) {
+            node.destroy();
+        }
+    }
+}
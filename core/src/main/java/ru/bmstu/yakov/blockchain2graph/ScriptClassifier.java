@@ -0,0 +1,177 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.nio.charset.StandardCharsets;
+
+import org.bitcoinj.core.LegacyAddress;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.SegwitAddress;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Utils;
+
+//Address of output found by its script. Script bytes are matched against standard templates, so nothing is parsed
+//and no exception is thrown for scripts bitcoinj can't decode. P2PKH, P2SH, P2WPKH and P2WSH scripts are paid to
+//their addresses, P2PK script to address of its key and witness script of later versions to its bech32m address.
+//Bare multisig and other scripts have no address, each of them gets pseudo-address made of its type and
+//SHA-256 hash of script, so outputs with the same script share it. Provably unspendable script has no address
+public final class ScriptClassifier {
+    public static final String MULTISIG = "multisig-";
+    public static final String NONSTANDARD = "nonstandard-";
+
+    private static final int OP_0 = 0x00;
+    private static final int OP_1 = 0x51;
+    private static final int OP_16 = 0x60;
+    private static final int OP_RETURN = 0x6a;
+    private static final int OP_DUP = 0x76;
+    private static final int OP_EQUAL = 0x87;
+    private static final int OP_EQUALVERIFY = 0x88;
+    private static final int OP_HASH160 = 0xa9;
+    private static final int OP_CHECKSIG = 0xac;
+    private static final int OP_CHECKMULTISIG = 0xae;
+    private static final int MAX_SCRIPT_SIZE = 10000;
+
+    private static final String CHARSET = "qpzry9x8gf2tvdw0s3jn54khce6mua7l";
+    private static final int BECH32M_CONST = 0x2bc830a3;
+
+    private ScriptClassifier() {
+    }
+
+    //Address of script, null if script is provably unspendable
+    public static String address(NetworkParameters np, byte[] s) {
+        final int n = s.length;
+
+        //Script starting with OP_RETURN or longer than scripts can be fails whenever it's run
+        if (n > MAX_SCRIPT_SIZE || (n > 0 && op(s, 0) == OP_RETURN)) {
+            return null;
+        }
+        if (n == 25 && op(s, 0) == OP_DUP && op(s, 1) == OP_HASH160 && op(s, 2) == 20
+                && op(s, 23) == OP_EQUALVERIFY && op(s, 24) == OP_CHECKSIG) {
+            return LegacyAddress.fromPubKeyHash(np, copy(s, 3, 20)).toString();
+        }
+        if (n == 23 && op(s, 0) == OP_HASH160 && op(s, 1) == 20 && op(s, 22) == OP_EQUAL) {
+            return LegacyAddress.fromScriptHash(np, copy(s, 2, 20)).toString();
+        }
+        if (isWitnessProgram(s)) {
+            final byte[] program = copy(s, 2, n - 2);
+            if (op(s, 0) != OP_0) {
+                return bech32m(np.getSegwitAddressHrp(), op(s, 0) - OP_1 + 1, program);
+            }
+            if (program.length == 20 || program.length == 32) {
+                return SegwitAddress.fromHash(np, program).toString();
+            }
+        }
+        if (isKey(s, 0, n - 1) && op(s, n - 1) == OP_CHECKSIG) {
+            return LegacyAddress.fromPubKeyHash(np, Utils.sha256hash160(copy(s, 1, n - 2))).toString();
+        }
+        if (isMultisig(s)) {
+            return MULTISIG + Sha256Hash.of(s);
+        }
+        return NONSTANDARD + Sha256Hash.of(s);
+    }
+
+    //Version opcode and one push of 2 to 40 bytes
+    private static boolean isWitnessProgram(byte[] s) {
+        final int n = s.length;
+        if (n < 4 || n > 42 || op(s, 1) != n - 2) {
+            return false;
+        }
+        return op(s, 0) == OP_0 || (op(s, 0) >= OP_1 && op(s, 0) <= OP_16);
+    }
+
+    //OP_m, keys, OP_n and OP_CHECKMULTISIG where m isn't greater than number of keys n
+    private static boolean isMultisig(byte[] s) {
+        final int n = s.length;
+        if (n < 3 || op(s, n - 1) != OP_CHECKMULTISIG || !isSmallInt(op(s, 0)) || !isSmallInt(op(s, n - 2))) {
+            return false;
+        }
+        int keys = 0;
+        int i = 1;
+        while (i < n - 2) {
+            final int length = op(s, i) + 1;
+            if (!isKey(s, i, Math.min(length, n - 2 - i))) {
+                return false;
+            }
+            i += length;
+            keys++;
+        }
+        return i == n - 2 && keys == op(s, n - 2) - OP_1 + 1 && op(s, 0) <= op(s, n - 2);
+    }
+
+    //Push of compressed, uncompressed or hybrid public key taking length bytes from offset
+    private static boolean isKey(byte[] s, int offset, int length) {
+        if (length == 34 && op(s, offset) == 33) {
+            return op(s, offset + 1) == 0x02 || op(s, offset + 1) == 0x03;
+        }
+        if (length == 66 && op(s, offset) == 65) {
+            return op(s, offset + 1) == 0x04 || op(s, offset + 1) == 0x06 || op(s, offset + 1) == 0x07;
+        }
+        return false;
+    }
+
+    private static boolean isSmallInt(int op) {
+        return op >= OP_1 && op <= OP_16;
+    }
+
+    private static int op(byte[] s, int i) {
+        return s[i] & 0xff;
+    }
+
+    private static byte[] copy(byte[] s, int offset, int length) {
+        final byte[] copy = new byte[length];
+        System.arraycopy(s, offset, copy, 0, length);
+        return copy;
+    }
+
+    //Witness address of version 1 and later is encoded with bech32m (BIP 350), bitcoinj knows only bech32
+    private static String bech32m(String hrp, int version, byte[] program) {
+        final byte[] hrpBytes = hrp.getBytes(StandardCharsets.US_ASCII);
+        final int dataLength = 1 + (program.length * 8 + 4) / 5;
+        final byte[] values = new byte[hrpBytes.length * 2 + 1 + dataLength + 6];
+        int k = 0;
+        for (byte c : hrpBytes) {
+            values[k++] = (byte) ((c & 0xff) >> 5);
+        }
+        values[k++] = 0;
+        for (byte c : hrpBytes) {
+            values[k++] = (byte) (c & 31);
+        }
+        final int dataStart = k;
+        values[k++] = (byte) version;
+        int acc = 0;
+        int bits = 0;
+        for (byte b : program) {
+            acc = (acc << 8) | (b & 0xff);
+            bits += 8;
+            while (bits >= 5) {
+                bits -= 5;
+                values[k++] = (byte) ((acc >> bits) & 31);
+            }
+        }
+        if (bits > 0) {
+            values[k++] = (byte) ((acc << (5 - bits)) & 31);
+        }
+        final int checksum = polymod(values) ^ BECH32M_CONST;
+        for (int i = 0; i < 6; i++) {
+            values[k + i] = (byte) ((checksum >>> (5 * (5 - i))) & 31);
+        }
+
+        final StringBuilder address = new StringBuilder(hrp.length() + 1 + dataLength + 6).append(hrp).append('1');
+        for (int i = dataStart; i < values.length; i++) {
+            address.append(CHARSET.charAt(values[i]));
+        }
+        return address.toString();
+    }
+
+    private static int polymod(byte[] values) {
+        int c = 1;
+        for (byte v : values) {
+            final int c0 = c >>> 25;
+            c = ((c & 0x1ffffff) << 5) ^ v;
+            if ((c0 & 1) != 0) c ^= 0x3b6a57b2;
+            if ((c0 & 2) != 0) c ^= 0x26508e6d;
+            if ((c0 & 4) != 0) c ^= 0x1ea119fa;
+            if ((c0 & 8) != 0) c ^= 0x3d4233dd;
+            if ((c0 & 16) != 0) c ^= 0x2a1462b3;
+        }
+        return c;
+    }
+}
@@ -0,0 +1,26 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+//Fixed number of locks chosen by hash of a key. Writer threads take the lock of an address before looking up
+//and adding its vertex, so two transactions of a block don't add the same address twice.
+//Different keys can share a lock, it only makes them wait for each other
+public class StripedLocks {
+    private final ReentrantLock[] locks;
+
+    //Number of locks is rounded up to a power of two
+    public StripedLocks(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.locks = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    //Lock for given key. Hash is spread, because hashes of strings differ mostly in low bits
+    public ReentrantLock get(Object key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return locks[h & (locks.length - 1)];
+    }
+}
@@ -0,0 +1,92 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.apache.tinkerpop.gremlin.structure.VertexProperty;
+
+//Bounded LRU cache of summaries of addresses, transactions and blocks given by query service: properties of vertex
+//keyed by its label and name. Ingest writes summaries of addresses changed by a batch through it when the batch
+//is committed and clears it when blocks are deleted. Summary read from Graph Database is put only if nothing was
+//written or cleared since the read started, so it can't replace a newer one. Query threads share it with ingest
+public class SummaryCache {
+    private final Map<String, Map<String, Object>> summaries;
+    private long version;
+    private long hits;
+    private long misses;
+
+    //Construct a cache holding at most maxSize summaries
+    public SummaryCache(final int maxSize) {
+        this.summaries = new LinkedHashMap<String, Map<String, Object>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Map<String, Object>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    //Return cached summary or null if there's no such vertex in cache
+    public synchronized Map<String, Object> get(String label, String name) {
+        Map<String, Object> summary = summaries.get(key(label, name));
+        if (summary == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return summary;
+    }
+
+    //Version to be given back with summary read from Graph Database
+    public synchronized long version() {
+        return version;
+    }
+
+    //Summary written by ingest, it replaces cached one
+    public synchronized void put(String label, String name, Map<String, Object> summary) {
+        version++;
+        summaries.put(key(label, name), summary);
+    }
+
+    //Summary read from Graph Database, it's dropped if cache changed since given version
+    public synchronized void fill(String label, String name, Map<String, Object> summary, long readVersion) {
+        if (readVersion == version) {
+            summaries.put(key(label, name), summary);
+        }
+    }
+
+    //Forget all summaries, it must be called when blocks are deleted
+    public synchronized void clear() {
+        version++;
+        summaries.clear();
+    }
+
+    public synchronized int size() {
+        return summaries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SummaryCache: size = " + summaries.size() + "; hits = " + hits + "; misses = " + misses;
+    }
+
+    //Properties of vertex with its name. Binary hash and its key are not part of summary
+    public static Map<String, Object> summary(Vertex vertex, String name) {
+        final Map<String, Object> summary = new TreeMap<>();
+        summary.put("name", name);
+        for (Iterator<VertexProperty<Object>> properties = vertex.properties(); properties.hasNext(); ) {
+            final VertexProperty<Object> property = properties.next();
+            if (!property.key().equals("name") && !property.key().equals("Hash") && !property.key().equals("HashKey")) {
+                summary.put(property.key(), property.value());
+            }
+        }
+        return Collections.unmodifiableMap(summary);
+    }
+
+    private static String key(String label, String name) {
+        return label + ":" + name;
+    }
+}
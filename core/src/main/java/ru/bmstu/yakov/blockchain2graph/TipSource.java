@@ -0,0 +1,92 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+//Source of notifications about new best block of Bitcoin node.
+//It can be log of bitcoind started by the program, ZMQ publisher of the node or its JSON-RPC interface.
+//ZMQ and JSON-RPC sources can attach to a node which is already running
+public interface TipSource extends Closeable {
+    Logger LOGGER = LoggerFactory.getLogger(TipSource.class);
+
+    //New best block of Bitcoin node. Height is -1 if source doesn't know it, raw block is null if source gives
+    //only its hash
+    final class Tip {
+        private final String hash;
+        private final int height;
+        private final byte[] raw;
+
+        public Tip(String hash, int height, byte[] raw) {
+            this.hash = hash;
+            this.height = height;
+            this.raw = raw;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public byte[] getRaw() {
+            return raw;
+        }
+    }
+
+    //Wait for next best block, null is returned if there was no new block for a while
+    Tip poll() throws Exception;
+
+    //Source can't give more blocks, for example bitcoind has stopped
+    boolean isClosed();
+
+    //Open tip source given by options: "tipsource=" is log, zmq or rpc. Bitcoin node is started by the program
+    //for log source and for others if "startnode=true". Number of blk***.dat file written by node is given to
+    //fileListener when source knows it
+    static TipSource open(Map<String, String> options, String bitcoindPath, String dataDir,
+                          IntConsumer fileListener) throws IOException {
+        final String source = options.getOrDefault("tipsource", "log");
+        final boolean startNode = Boolean.parseBoolean(options.getOrDefault("startnode",
+                String.valueOf(source.equals("log"))));
+        switch (source) {
+            case "log":
+                return new LogTipSource(bitcoindPath, dataDir, fileListener);
+            case "zmq": {
+                final String address = options.getOrDefault("zmqaddress", "tcp://127.0.0.1:28332");
+                final String topic = options.getOrDefault("zmqtopic", "rawblock");
+                final Process node = startNode
+                        ? startNode(bitcoindPath, dataDir, "-zmqpub" + topic + "=" + address) : null;
+                return new ZmqTipSource(address, topic, node);
+            }
+            case "rpc": {
+                final Process node = startNode ? startNode(bitcoindPath, dataDir, "-server") : null;
+                return new RpcTipSource(options.getOrDefault("rpcurl", "http://127.0.0.1:8332/"),
+                        options.getOrDefault("rpcuser", ""), options.getOrDefault("rpcpassword", ""),
+                        new File(dataDir, ".cookie"), Long.parseLong(options.getOrDefault("rpcpoll", "1000")), node);
+            }
+            default:
+                throw new IllegalArgumentException("Unknown tip source " + source + ". It can be log, zmq or rpc");
+        }
+    }
+
+    //Start bitcoind with given data directory and arguments, its output goes to bitcoind.out in data directory
+    static Process startNode(String bitcoindPath, String dataDir, String... args) throws IOException {
+        LOGGER.info("Starting full Bitcoin node");
+        final List<String> command = new ArrayList<>();
+        command.add(bitcoindPath + "/bitcoind");
+        command.add("-datadir=" + dataDir);
+        command.addAll(Arrays.asList(args));
+        return new ProcessBuilder(command).redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(new File(dataDir, "bitcoind.out"))).start();
+    }
+}
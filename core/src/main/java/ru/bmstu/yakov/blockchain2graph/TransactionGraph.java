@@ -0,0 +1,484 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.apache.tinkerpop.gremlin.process.traversal.Order;
+import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.GraphTraversal;
+import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.GraphTraversalSource;
+import org.apache.tinkerpop.gremlin.structure.Direction;
+import org.apache.tinkerpop.gremlin.structure.Graph;
+import org.apache.tinkerpop.gremlin.structure.T;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.apache.tinkerpop.gremlin.structure.VertexProperty;
+import org.apache.tinkerpop.gremlin.structure.util.GraphFactory;
+import org.janusgraph.core.JanusGraph;
+import org.janusgraph.core.EdgeLabel;
+import org.janusgraph.core.JanusGraphFactory;
+import org.janusgraph.core.JanusGraphTransaction;
+import org.janusgraph.core.Multiplicity;
+import org.janusgraph.core.PropertyKey;
+import org.janusgraph.core.RelationType;
+import org.janusgraph.core.schema.ConsistencyModifier;
+import org.janusgraph.core.schema.JanusGraphIndex;
+import org.janusgraph.core.schema.JanusGraphManagement;
+import org.janusgraph.core.schema.RelationTypeIndex;
+import org.janusgraph.core.schema.SchemaAction;
+import org.janusgraph.core.schema.SchemaStatus;
+import org.janusgraph.graphdb.database.StandardJanusGraph;
+import org.janusgraph.graphdb.database.management.ManagementSystem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+public class TransactionGraph {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TransactionGraph.class);
+
+    protected String propFileName;
+    protected Configuration conf;
+    protected Graph graph;
+    protected GraphTraversalSource g;
+
+    //Unique name index of every vertex label
+    private static final Map<String, String> NAME_INDEXES = new LinkedHashMap<>();
+    static {
+        NAME_INDEXES.put("Block", "blockNameIndex");
+        NAME_INDEXES.put("Transaction", "transactionNameIndex");
+        NAME_INDEXES.put("Output", "outputNameIndex");
+        NAME_INDEXES.put("Address", "addressNameIndex");
+    }
+
+    //Key of metadata vertex marking Graph Database with binary hash encoding
+    private static final String BINARY_HASHES = "binaryhashes";
+
+    //Vertex-centric indexes of edge labels
+    private static final Map<String, String[]> EDGE_INDEXES = new LinkedHashMap<>();
+    static {
+        EDGE_INDEXES.put("locked", new String[] {"lockedByDate", "lockedByBalance"});
+        EDGE_INDEXES.put("output", new String[] {"outputByIndex"});
+        EDGE_INDEXES.put("input", new String[] {"inputByBalance"});
+    }
+
+
+    //Construct a graph app using the given properties from fileName.
+    public TransactionGraph(final String fileName) {
+        this.propFileName = fileName;
+    }
+
+    //Opens the graph instance
+    public GraphTraversalSource openGraph() throws ConfigurationException {
+        return openGraph(false);
+    }
+
+    //Opens the graph instance. In bulk-load mode consistency checks and locking are off
+    //and ids of new vertices must be given by the caller
+    public GraphTraversalSource openGraph(boolean bulkLoad) throws ConfigurationException {
+        LOGGER.info(bulkLoad ? "Opening graph in bulk-load mode" : "Opening graph");
+        conf = new PropertiesConfiguration(propFileName);
+        if (bulkLoad) {
+            conf.setProperty("storage.batch-loading", true);
+            conf.setProperty("graph.set-vertex-id", true);
+        }
+        graph = GraphFactory.open(conf);
+        g = graph.traversal();
+        return g;
+    }
+
+    //Vertex id for given number, it is used to set ids in bulk-load mode
+    public long toVertexId(long count) {
+        return ((StandardJanusGraph) graph).getIDManager().toVertexId(count);
+    }
+
+    //Close the graph
+    public void closeGraph() throws Exception {
+        LOGGER.info("Closing graph");
+
+        try {
+            if (g != null) {
+                g.close();
+            }
+            if (graph != null) {
+                graph.close();
+            }
+        } finally {
+            g = null;
+            graph = null;
+        }
+    }
+
+    //Return the JanusGraph instance.
+    protected JanusGraph getJanusGraph() {
+        return (JanusGraph) graph;
+    }
+
+    //Drop the graph
+    public void dropGraph() throws Exception {
+        if (graph != null) {
+            JanusGraphFactory.drop(getJanusGraph());
+        }
+    }
+
+    //Creates the graph schema.
+    public void createSchema() throws Exception {
+        final JanusGraphManagement management = getJanusGraph().openManagement();
+        // naive check if the schema was previously created
+        if (management.getRelationTypes(RelationType.class).iterator().hasNext()) {
+            management.rollback();
+            updateSchema();
+            return;
+        }
+        try {
+            LOGGER.info("Creating schema");
+
+            createProperties(management);
+            createVertexLabels(management);
+            createEdgeLabels(management);
+            createCompositeIndexes(management);
+            createEdgeIndexes(management);
+
+            management.commit();
+
+        } catch (Exception e) {
+            management.rollback();
+        }
+    }
+
+    //Creates the vertex labels.
+    protected void createVertexLabels(final JanusGraphManagement management) {
+        management.makeVertexLabel("Block").make();
+        management.makeVertexLabel("Transaction").make();
+        management.makeVertexLabel("Output").make();
+        management.makeVertexLabel("Address").make();
+        management.makeVertexLabel("Meta").make();
+    }
+
+
+    //Create the edge labels.
+    protected void createEdgeLabels(final JanusGraphManagement management) {
+        management.makeEdgeLabel("chain").multiplicity(Multiplicity.ONE2ONE).make();
+        management.makeEdgeLabel("has").multiplicity(Multiplicity.ONE2MANY).make();
+        management.makeEdgeLabel("input").multiplicity(Multiplicity.MANY2ONE).make();
+        management.makeEdgeLabel("output").multiplicity(Multiplicity.MULTI).make();
+        management.makeEdgeLabel("locked").multiplicity(Multiplicity.MULTI).make();
+    }
+
+
+    //Create the properties for vertices
+    protected void createProperties(final JanusGraphManagement management) {
+        management.makePropertyKey("name").dataType(String.class).make();
+        management.makePropertyKey("BlockDate").dataType(Date.class).make();
+        management.makePropertyKey("BlockHeight").dataType(Integer.class).make();
+        management.makePropertyKey("BlockTransactionCount").dataType(Integer.class).make();
+        management.makePropertyKey("BlockBalance").dataType(Long.class).make();
+        management.makePropertyKey("BlockCoinBaseBalance").dataType(Long.class).make();
+        management.makePropertyKey("BlockFee").dataType(Integer.class).make();
+
+
+        management.makePropertyKey("AddressBalance").dataType(Long.class).make();
+        management.makePropertyKey("AddressFirstAppearDate").dataType(Date.class).make();
+        management.makePropertyKey("AddressLastAppearDate").dataType(Date.class).make();
+        management.makePropertyKey("AddressInputTransactionBalance").dataType(Long.class).make();
+        management.makePropertyKey("AddressOutputTransactionBalance").dataType(Long.class).make();
+        management.makePropertyKey("AddressTransactionCount").dataType(Integer.class).make();
+        management.makePropertyKey("AddressInputTransactionCount").dataType(Integer.class).make();
+        management.makePropertyKey("AddressOutputTransactionCount").dataType(Integer.class).make();
+        management.makePropertyKey("AddressInputAddressCount").dataType(Integer.class).make();
+        management.makePropertyKey("AddressOutputAddressCount").dataType(Integer.class).make();
+        management.makePropertyKey("AddressBetweenAddressTransactionCount").dataType(Integer.class).make();
+        management.makePropertyKey("AddressWalletID").dataType(Integer.class).make();
+
+
+        management.makePropertyKey("TransactionInputCount").dataType(Integer.class).make();
+        management.makePropertyKey("TransactionOutputCount").dataType(Integer.class).make();
+        management.makePropertyKey("TransactionBalance").dataType(Long.class).make();
+        management.makePropertyKey("TransactionDate").dataType(Date.class).make();
+        management.makePropertyKey("TransactionNewAddressCount").dataType(Integer.class).make();
+        management.makePropertyKey("TransactionIsCoinBase").dataType(Boolean.class).make();
+        management.makePropertyKey("TransactionFee").dataType(Long.class).make();
+        management.makePropertyKey("TransactionIsBetweenOneAddress").dataType(Boolean.class).make();
+
+
+        management.makePropertyKey("OutputHeight").dataType(Integer.class).make();
+        management.makePropertyKey("OutputBalance").dataType(Long.class).make();
+        management.makePropertyKey("OutputIsUsed").dataType(Boolean.class).make();
+
+        createEdgeProperties(management);
+        createMetaProperties(management);
+        createHashProperties(management);
+    }
+
+    //Create the properties for edges, they are sort keys of edge indexes
+    protected void createEdgeProperties(final JanusGraphManagement management) {
+        management.makePropertyKey("LockedDate").dataType(Date.class).make();
+        management.makePropertyKey("LockedBalance").dataType(Long.class).make();
+        management.makePropertyKey("OutputIndex").dataType(Integer.class).make();
+        management.makePropertyKey("InputBalance").dataType(Long.class).make();
+    }
+
+    //Create the properties of binary hash encoding: hash of block or transaction and its last 8 bytes
+    protected void createHashProperties(final JanusGraphManagement management) {
+        management.makePropertyKey("HashKey").dataType(Long.class).make();
+        management.makePropertyKey("Hash").dataType(byte[].class).make();
+    }
+
+    //Create the properties of metadata vertex: its key and hash and height of the last committed block
+    protected void createMetaProperties(final JanusGraphManagement management) {
+        management.makePropertyKey("Meta").dataType(String.class).make();
+        management.makePropertyKey("TipHash").dataType(String.class).make();
+        management.makePropertyKey("TipHeight").dataType(Integer.class).make();
+    }
+
+     //Creates the composite indexes
+    protected void createCompositeIndexes(final JanusGraphManagement management) {
+        createNameIndexes(management);
+        createMetaIndex(management);
+        createHashIndex(management);
+        management.buildIndex("blockIndex", Vertex.class).addKey(management.getPropertyKey("BlockHeight")).buildCompositeIndex();
+    }
+
+    //Creates unique name index for every vertex label, so lookups by name search only vertices of one label.
+    //Names of blocks, transactions and outputs come from hashes and are written by one writer, so uniqueness
+    //is checked without locks. Address can be met by several transactions at once, so its index is locked
+    protected void createNameIndexes(final JanusGraphManagement management) {
+        final PropertyKey name = management.getPropertyKey("name");
+        for (String label : NAME_INDEXES.keySet()) {
+            final JanusGraphIndex index = management.buildIndex(NAME_INDEXES.get(label), Vertex.class).addKey(name)
+                    .indexOnly(management.getVertexLabel(label)).unique().buildCompositeIndex();
+            management.setConsistency(index, label.equals("Address") ? ConsistencyModifier.LOCK
+                    : ConsistencyModifier.DEFAULT);
+        }
+    }
+
+    //Creates unique index of metadata vertices by their key
+    protected void createMetaIndex(final JanusGraphManagement management) {
+        management.buildIndex("metaIndex", Vertex.class).addKey(management.getPropertyKey("Meta"))
+                .indexOnly(management.getVertexLabel("Meta")).unique().buildCompositeIndex();
+    }
+
+    //Creates index of blocks and transactions by HashKey. Different hashes can have the same key,
+    //so the index is not unique
+    protected void createHashIndex(final JanusGraphManagement management) {
+        management.buildIndex("hashIndex", Vertex.class).addKey(management.getPropertyKey("HashKey"))
+                .buildCompositeIndex();
+    }
+
+    //Creates vertex-centric indexes, so edges of an address with millions of outputs or of a transaction
+    //with thousands of inputs and outputs are read in order of sort key and only as many as needed:
+    //outputs of address by date and by value, outputs of transaction by index, inputs of transaction by value
+    protected void createEdgeIndexes(final JanusGraphManagement management) {
+        final EdgeLabel locked = management.getEdgeLabel("locked");
+        management.buildEdgeIndex(locked, "lockedByDate", Direction.IN, Order.desc,
+                management.getPropertyKey("LockedDate"));
+        management.buildEdgeIndex(locked, "lockedByBalance", Direction.IN, Order.desc,
+                management.getPropertyKey("LockedBalance"));
+        management.buildEdgeIndex(management.getEdgeLabel("output"), "outputByIndex", Direction.OUT, Order.asc,
+                management.getPropertyKey("OutputIndex"));
+        management.buildEdgeIndex(management.getEdgeLabel("input"), "inputByBalance", Direction.IN, Order.desc,
+                management.getPropertyKey("InputBalance"));
+    }
+
+    //Graph Database created before edge indexes: sort keys are set on existing edges, then the indexes are filled.
+    //Properties of edges are written in another transaction committed in parts
+    protected void updateEdgeIndexes() throws Exception {
+        JanusGraphManagement management = getJanusGraph().openManagement();
+        if (management.containsRelationType("LockedDate")) {
+            management.rollback();
+            return;
+        }
+        LOGGER.info("Adding edge indexes. Sort keys are set on all edges. It can take a lot of time");
+        createEdgeProperties(management);
+        createEdgeIndexes(management);
+        management.commit();
+        //Indexes are enabled at once when their sort keys are new, otherwise they are registered before filling
+        final List<String[]> installed = new ArrayList<>();
+        management = getJanusGraph().openManagement();
+        for (String label : EDGE_INDEXES.keySet()) {
+            for (String index : EDGE_INDEXES.get(label)) {
+                final RelationTypeIndex relationIndex =
+                        management.getRelationIndex(management.getEdgeLabel(label), index);
+                if (relationIndex.getIndexStatus() == SchemaStatus.INSTALLED) {
+                    management.updateIndex(relationIndex, SchemaAction.REGISTER_INDEX);
+                    installed.add(new String[]{label, index});
+                }
+            }
+        }
+        management.commit();
+        for (String[] index : installed) {
+            ManagementSystem.awaitRelationIndexStatus(getJanusGraph(), index[1], index[0])
+                    .status(SchemaStatus.REGISTERED).call();
+        }
+
+        long count = 0;
+        final GraphTraversalSource reader = getJanusGraph().traversal();
+        JanusGraphTransaction writer = getJanusGraph().newTransaction();
+        try {
+            final Iterator<Vertex> outputs = reader.V().hasLabel("Output");
+            while (outputs.hasNext()) {
+                final Vertex output = outputs.next();
+                final long outputBalance = output.value("OutputBalance");
+                final Date date = (Date) reader.V(output).in("output").values("TransactionDate").next();
+                final GraphTraversalSource w = writer.traversal();
+                w.V(output.id()).inE("output").property("OutputIndex", output.value("OutputHeight")).iterate();
+                w.V(output.id()).outE("locked").property("LockedDate", date)
+                        .property("LockedBalance", outputBalance).iterate();
+                w.V(output.id()).outE("input").property("InputBalance", outputBalance).iterate();
+                if (++count % 10000 == 0) {
+                    writer.commit();
+                    writer = getJanusGraph().newTransaction();
+                    LOGGER.info("Set sort keys on edges of " + count + " outputs");
+                }
+            }
+            writer.commit();
+        } catch (RuntimeException e) {
+            writer.rollback();
+            throw e;
+        } finally {
+            reader.tx().rollback();
+        }
+
+        for (String label : EDGE_INDEXES.keySet()) {
+            for (String index : EDGE_INDEXES.get(label)) {
+                management = getJanusGraph().openManagement();
+                management.updateIndex(management.getRelationIndex(management.getEdgeLabel(label), index),
+                        SchemaAction.REINDEX).get();
+                management.commit();
+                LOGGER.info("Index " + index + " is filled");
+            }
+        }
+    }
+
+    //Graph Database created by older version: missing indexes are added
+    protected void updateSchema() throws Exception {
+        updateNameIndexes();
+        updateEdgeIndexes();
+        updateMetaIndex();
+        updateHashIndex();
+    }
+
+    //Graph Database created before binary hash encoding: its properties and index are added.
+    //Index key is new, so the index is enabled at once
+    protected void updateHashIndex() {
+        final JanusGraphManagement management = getJanusGraph().openManagement();
+        if (management.containsGraphIndex("hashIndex")) {
+            management.rollback();
+            return;
+        }
+        LOGGER.info("Adding properties and index of binary hashes");
+        createHashProperties(management);
+        createHashIndex(management);
+        management.commit();
+    }
+
+    //Checking that Graph Database stores names in given encoding. Graph Database with hex names is migrated to
+    //binary encoding: hashes of blocks and transactions are set and names of blocks, transactions and outputs
+    //are removed. Vertices are changed in another transaction committed in parts, so interrupted migration goes on
+    //from where it stopped. Metadata vertex marks Graph Database with binary encoding when migration is finished
+    public void checkHashEncoding(VertexNames names) {
+        final GraphTraversalSource reader = getJanusGraph().traversal();
+        final boolean binary;
+        try {
+            binary = reader.V().has("Meta", "Meta", BINARY_HASHES).hasNext();
+        } finally {
+            reader.tx().rollback();
+        }
+        if (binary == names.isBinary()) {
+            return;
+        }
+        if (binary) {
+            throw new IllegalStateException("Graph Database stores binary hashes. Set hashencoding=binary");
+        }
+        LOGGER.info("Migrating Graph Database to binary hashes. It can take a lot of time");
+        long count = 0;
+        JanusGraphTransaction writer = getJanusGraph().newTransaction();
+        try {
+            final Iterator<Vertex> vertices = reader.V().hasLabel("Block", "Transaction", "Output");
+            while (vertices.hasNext()) {
+                final Vertex vertex = vertices.next();
+                final VertexProperty<String> name = vertex.property("name");
+                if (!name.isPresent()) {
+                    continue;
+                }
+                final Vertex changed = writer.traversal().V(vertex.id()).next();
+                changed.property("name").remove();
+                names.set(changed, name.value());
+                if (++count % 10000 == 0) {
+                    writer.commit();
+                    writer = getJanusGraph().newTransaction();
+                    LOGGER.info("Migrated " + count + " vertices");
+                }
+            }
+            GraphTraversal<Vertex, Vertex> marker = writer.traversal().addV("Meta");
+            if (conf.getBoolean("graph.set-vertex-id", false)) {
+                //Ids of new vertices are given in bulk-load mode, marker gets the one before metadata vertex of tip
+                marker = marker.property(T.id, toVertexId(BlockchainToGraph.BULK_ID_BASE - 2));
+            }
+            marker.property("Meta", BINARY_HASHES).iterate();
+            writer.commit();
+        } catch (RuntimeException e) {
+            writer.rollback();
+            throw e;
+        } finally {
+            reader.tx().rollback();
+        }
+        LOGGER.info("Migrated " + count + " vertices to binary hashes");
+    }
+
+    //Graph Database created before metadata vertex: its label, properties and index are added.
+    //Index key is new, so the index is enabled at once. Tip is written when the chain is loaded first time
+    protected void updateMetaIndex() {
+        final JanusGraphManagement management = getJanusGraph().openManagement();
+        if (management.containsGraphIndex("metaIndex")) {
+            management.rollback();
+            return;
+        }
+        LOGGER.info("Adding metadata vertex label and index");
+        management.makeVertexLabel("Meta").make();
+        createMetaProperties(management);
+        createMetaIndex(management);
+        management.commit();
+    }
+
+    //Graph Database created before unique name indexes: the indexes are added and filled with existing vertices.
+    //Old nameIndex is left as it is
+    protected void updateNameIndexes() throws Exception {
+        JanusGraphManagement management = getJanusGraph().openManagement();
+        if (management.containsGraphIndex(NAME_INDEXES.get("Address"))) {
+            management.rollback();
+            return;
+        }
+        LOGGER.info("Adding unique name indexes of vertex labels. It can take a lot of time");
+        createNameIndexes(management);
+        management.commit();
+        management = getJanusGraph().openManagement();
+        for (String index : NAME_INDEXES.values()) {
+            management.updateIndex(management.getGraphIndex(index), SchemaAction.REGISTER_INDEX);
+        }
+        management.commit();
+        for (String index : NAME_INDEXES.values()) {
+            ManagementSystem.awaitGraphIndexStatus(getJanusGraph(), index).status(SchemaStatus.REGISTERED).call();
+            management = getJanusGraph().openManagement();
+            management.updateIndex(management.getGraphIndex(index), SchemaAction.REINDEX).get();
+            management.commit();
+            LOGGER.info("Index " + index + " is filled");
+        }
+    }
+
+    public GraphTraversalSource initializeTransactionGraph() throws Exception {
+
+        //Open the graph
+        GraphTraversalSource g = openGraph();
+
+        //Define the schema
+        createSchema();
+
+        return g;
+    }
+}
+
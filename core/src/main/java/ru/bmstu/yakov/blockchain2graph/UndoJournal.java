@@ -0,0 +1,365 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+//Undo journal of blocks near the tip, like rev*.dat files of Bitcoin Core.
+//For every added block it keeps vertices created by the block, values of address properties before the block,
+//outputs spent by the block, outputs it added to UTXO set, addresses linked as counterparties and
+//slots of wallet set before the block.
+//Every edge added by a block has a vertex created by the block at one of its ends, so edges go away with vertices.
+//Journal of block is a file named by block height in journal directory, it's written before the block is committed
+//and journals older than undo depth are deleted
+public class UndoJournal {
+    private static final Logger LOGGER = LoggerFactory.getLogger(UndoJournal.class);
+
+    private static final int MAGIC = 0x554e444f;
+    private static final int VERSION = 2;
+
+    //Address properties changed by blocks, they are restored from their values before the block
+    public static final String[] ADDRESS_PROPERTIES = {"AddressBalance", "AddressFirstAppearDate",
+            "AddressLastAppearDate", "AddressInputTransactionBalance", "AddressOutputTransactionBalance",
+            "AddressTransactionCount", "AddressInputTransactionCount", "AddressOutputTransactionCount",
+            "AddressInputAddressCount", "AddressOutputAddressCount", "AddressBetweenAddressTransactionCount",
+            "AddressWalletID"};
+
+    private final File dir;
+    private final int depth;
+
+    //Output of transaction with its UTXO set data
+    public static final class Outpoint {
+        public final byte[] txHash;
+        public final int index;
+        public final long outputId;
+        public final long value;
+        public final long addressId;
+
+        public Outpoint(byte[] txHash, int index, long outputId, long value, long addressId) {
+            this.txHash = txHash;
+            this.index = index;
+            this.outputId = outputId;
+            this.value = value;
+            this.addressId = addressId;
+        }
+    }
+
+    //Changes made by one block
+    public static final class Block {
+        private final String hash;
+        private final String prevHash;
+        private final int height;
+        //Created vertices with their names in order of creation
+        private final List<Long> createdIds = new ArrayList<>();
+        private final List<String> createdNames = new ArrayList<>();
+        //Address properties before the block, only the first change of address in block is kept
+        private final Map<Long, Object[]> addresses = new LinkedHashMap<>();
+        private final Set<Long> touched = new HashSet<>();
+        private final List<Outpoint> spent = new ArrayList<>();
+        private final List<Outpoint> unspent = new ArrayList<>();
+        //Input and output addresses of every transaction
+        private final List<long[][]> links = new ArrayList<>();
+        //Slots of wallet set before they were changed by the block, oldest first
+        private final List<long[]> wallets = new ArrayList<>();
+
+        public Block(String hash, String prevHash, int height) {
+            this.hash = hash;
+            this.prevHash = prevHash;
+            this.height = height;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public String getPrevHash() {
+            return prevHash;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public List<Long> getCreatedIds() {
+            return createdIds;
+        }
+
+        public List<String> getCreatedNames() {
+            return createdNames;
+        }
+
+        public Map<Long, Object[]> getAddresses() {
+            return addresses;
+        }
+
+        public List<Outpoint> getSpent() {
+            return spent;
+        }
+
+        public List<Outpoint> getUnspent() {
+            return unspent;
+        }
+
+        public List<long[][]> getLinks() {
+            return links;
+        }
+
+        public List<long[]> getWallets() {
+            return wallets;
+        }
+
+        //Vertex with given id and name is created by the block
+        public synchronized void created(Object id, String name) {
+            createdIds.add((Long) id);
+            createdNames.add(name);
+            touched.add((Long) id);
+        }
+
+        //Address is going to be changed, its properties are kept if it's the first change in block
+        public synchronized void address(Vertex address) {
+            final Long id = (Long) address.id();
+            if (touched.add(id)) {
+                final Object[] values = new Object[ADDRESS_PROPERTIES.length];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = address.value(ADDRESS_PROPERTIES[i]);
+                }
+                addresses.put(id, values);
+            }
+        }
+
+        //Output created before the block is spent by it
+        public synchronized void spent(Outpoint outpoint) {
+            spent.add(outpoint);
+        }
+
+        //Output is added to UTXO set
+        public synchronized void unspent(byte[] txHash, int index) {
+            unspent.add(new Outpoint(txHash, index, 0, 0, 0));
+        }
+
+        //Input and output addresses of transaction are linked as counterparties
+        public synchronized void linked(Set<Object> inputs, Set<Object> outputs) {
+            links.add(new long[][]{toArray(inputs), toArray(outputs)});
+        }
+
+        //Wallet set is changed by the block
+        public synchronized void wallets(List<long[]> changes) {
+            wallets.addAll(changes);
+        }
+
+        private static long[] toArray(Set<Object> ids) {
+            final long[] array = new long[ids.size()];
+            int i = 0;
+            for (Object id : ids) {
+                array[i++] = (Long) id;
+            }
+            return array;
+        }
+    }
+
+    //Journals are kept in given directory for depth blocks below the tip
+    public UndoJournal(File dir, int depth) throws IOException {
+        this.dir = dir;
+        this.depth = depth;
+        if (depth > 0) {
+            Files.createDirectories(dir.toPath());
+        }
+    }
+
+    public boolean isEnabled() {
+        return depth > 0;
+    }
+
+    //Writing journal of block into temporary file which replaces journal of the same height
+    public void write(Block block) throws IOException {
+        final File file = file(block.height);
+        final File tmp = new File(dir, file.getName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(block.height);
+            out.writeUTF(block.hash);
+            out.writeUTF(block.prevHash);
+
+            out.writeInt(block.createdIds.size());
+            for (int i = 0; i < block.createdIds.size(); i++) {
+                out.writeLong(block.createdIds.get(i));
+                out.writeUTF(block.createdNames.get(i));
+            }
+
+            out.writeInt(block.addresses.size());
+            for (Map.Entry<Long, Object[]> address : block.addresses.entrySet()) {
+                out.writeLong(address.getKey());
+                for (Object value : address.getValue()) {
+                    writeValue(out, value);
+                }
+            }
+
+            writeOutpoints(out, block.spent, true);
+            writeOutpoints(out, block.unspent, false);
+
+            out.writeInt(block.links.size());
+            for (long[][] link : block.links) {
+                for (long[] ids : link) {
+                    out.writeInt(ids.length);
+                    for (long id : ids) {
+                        out.writeLong(id);
+                    }
+                }
+            }
+
+            out.writeInt(block.wallets.size());
+            for (long[] slot : block.wallets) {
+                for (long value : slot) {
+                    out.writeLong(value);
+                }
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    //Journal of block with given height and hash, null if there's no such journal or it can't be read
+    public Block read(int height, String hash) {
+        final File file = file(height);
+        if (!isEnabled() || !file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != height
+                    || !in.readUTF().equals(hash)) {
+                return null;
+            }
+            final Block block = new Block(hash, in.readUTF(), height);
+
+            for (int i = in.readInt(); i > 0; i--) {
+                block.created(in.readLong(), in.readUTF());
+            }
+
+            for (int i = in.readInt(); i > 0; i--) {
+                final long id = in.readLong();
+                final Object[] values = new Object[ADDRESS_PROPERTIES.length];
+                for (int j = 0; j < values.length; j++) {
+                    values[j] = readValue(in);
+                }
+                block.addresses.put(id, values);
+            }
+
+            readOutpoints(in, block.spent, true);
+            readOutpoints(in, block.unspent, false);
+
+            for (int i = in.readInt(); i > 0; i--) {
+                final long[][] link = new long[2][];
+                for (int j = 0; j < 2; j++) {
+                    link[j] = new long[in.readInt()];
+                    for (int k = 0; k < link[j].length; k++) {
+                        link[j][k] = in.readLong();
+                    }
+                }
+                block.links.add(link);
+            }
+
+            for (int i = in.readInt(); i > 0; i--) {
+                block.wallets.add(new long[]{in.readLong(), in.readLong(), in.readLong(), in.readLong()});
+            }
+            return block;
+        } catch (IOException e) {
+            LOGGER.warn("Can't read undo journal " + file, e);
+            return null;
+        }
+    }
+
+    //Deleting journal of block with given height
+    public void delete(int height) {
+        final File file = file(height);
+        if (file.exists() && !file.delete()) {
+            LOGGER.warn("Can't delete undo journal " + file);
+        }
+    }
+
+    //Deleting journals which are deeper than undo depth below the tip, committed blocks are from..to heights
+    public void prune(int from, int to) {
+        for (int height = Math.max(0, from - depth); height <= to - depth; height++) {
+            delete(height);
+        }
+    }
+
+    private File file(int height) {
+        return new File(dir, String.format(Locale.US, "%010d.undo", height));
+    }
+
+    private static void writeOutpoints(DataOutputStream out, List<Outpoint> outpoints, boolean withData)
+            throws IOException {
+        out.writeInt(outpoints.size());
+        for (Outpoint outpoint : outpoints) {
+            out.write(outpoint.txHash);
+            out.writeInt(outpoint.index);
+            if (withData) {
+                out.writeLong(outpoint.outputId);
+                out.writeLong(outpoint.value);
+                out.writeLong(outpoint.addressId);
+            }
+        }
+    }
+
+    private static void readOutpoints(DataInputStream in, List<Outpoint> outpoints, boolean withData)
+            throws IOException {
+        for (int i = in.readInt(); i > 0; i--) {
+            final byte[] txHash = new byte[32];
+            in.readFully(txHash);
+            final int index = in.readInt();
+            outpoints.add(withData ? new Outpoint(txHash, index, in.readLong(), in.readLong(), in.readLong())
+                    : new Outpoint(txHash, index, 0, 0, 0));
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value instanceof Long) {
+            out.writeByte('L');
+            out.writeLong((Long) value);
+        } else if (value instanceof Integer) {
+            out.writeByte('I');
+            out.writeInt((Integer) value);
+        } else if (value instanceof Date) {
+            out.writeByte('D');
+            out.writeLong(((Date) value).getTime());
+        } else {
+            throw new IOException("Unsupported property value " + value);
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        final int type = in.readByte();
+        switch (type) {
+            case 'L':
+                return in.readLong();
+            case 'I':
+                return in.readInt();
+            case 'D':
+                return new Date(in.readLong());
+            default:
+                throw new IOException("Unknown property type " + type);
+        }
+    }
+}
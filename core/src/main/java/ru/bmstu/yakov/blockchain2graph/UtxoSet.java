@@ -0,0 +1,136 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+//Set of unspent outputs stored off-heap in a memory-mapped file.
+//It maps outpoint (transaction hash and output index) to output vertex id, output value and address vertex id,
+//so spending an output doesn't need any read from Graph Database.
+//It is a mapped hash table, changes since commit are undone on rollback.
+//Its methods are synchronized, so writer threads can share it
+public class UtxoSet extends MappedHashTable {
+    private static final long MAGIC = 0x5554584f53455431L;
+    private static final int SLOT_SIZE = 64;
+    //Key is transaction hash and output index
+    private static final int KEY_SIZE = 36;
+
+    //Slot layout
+    private static final int HASH_OFFSET = 0;
+    private static final int INDEX_OFFSET = 32;
+    private static final int OUTPUT_OFFSET = 40;
+    private static final int VALUE_OFFSET = 48;
+    private static final int ADDRESS_OFFSET = 56;
+
+    //Unspent output data
+    public static final class Entry {
+        public final long outputId;
+        public final long value;
+        public final long addressId;
+
+        public Entry(long outputId, long value, long addressId) {
+            this.outputId = outputId;
+            this.value = value;
+            this.addressId = addressId;
+        }
+    }
+
+    public interface Visitor {
+        void visit(byte[] txHash, int index, Entry entry) throws IOException;
+    }
+
+    //Open UTXO set file or create it with given initial capacity (number of slots, power of two)
+    public UtxoSet(File file, long initialCapacity) throws IOException {
+        super(file, initialCapacity, "UTXO set", MAGIC, SLOT_SIZE, KEY_SIZE, true);
+    }
+
+    public synchronized Entry get(byte[] txHash, int index) {
+        long slot = find(txHash, index);
+        if (slot < 0) {
+            return null;
+        }
+        return readEntry(segment(slot), position(slot));
+    }
+
+    public synchronized void put(byte[] txHash, int index, long outputId, long value, long addressId) throws IOException {
+        ensureCapacity();
+        long slot = find(txHash, index);
+        if (slot >= 0) {
+            changing(slot);
+            writeSlot(slot, txHash, index, outputId, value, addressId);
+        } else {
+            writeSlot(~slot, txHash, index, outputId, value, addressId);
+            added(~slot);
+        }
+    }
+
+    //Remove spent output, returns its data or null if there was no such output
+    public synchronized Entry remove(byte[] txHash, int index) {
+        long slot = find(txHash, index);
+        if (slot < 0) {
+            return null;
+        }
+        Entry entry = readEntry(segment(slot), position(slot));
+        remove(slot);
+        return entry;
+    }
+
+    //Visiting all unspent outputs in slot order
+    public synchronized void forEach(Visitor visitor) throws IOException {
+        forEachSlot((slot, b, pos) -> {
+            byte[] txHash = new byte[32];
+            for (int i = 0; i < 32; i++) {
+                txHash[i] = b.get(pos + HASH_OFFSET + i);
+            }
+            visitor.visit(txHash, b.getInt(pos + INDEX_OFFSET) - 1, readEntry(b, pos));
+        });
+    }
+
+    //Find slot of outpoint. If there's no such outpoint returns ~slot of first empty slot
+    private long find(byte[] txHash, int index) {
+        return find(home(ByteBuffer.wrap(txHash).getLong(0), index), (b, pos) -> {
+            if (b.getInt(pos + INDEX_OFFSET) != index + 1) {
+                return false;
+            }
+            for (int i = 0; i < 32; i++) {
+                if (b.get(pos + HASH_OFFSET + i) != txHash[i]) {
+                    return false;
+                }
+            }
+            return true;
+        });
+    }
+
+    @Override
+    protected long hash(ByteBuffer b, int pos) {
+        return home(b.getLong(pos + HASH_OFFSET), b.getInt(pos + INDEX_OFFSET) - 1);
+    }
+
+    //Output index is stored plus one, so zero means empty slot
+    @Override
+    protected boolean isEmpty(ByteBuffer b, int pos) {
+        return b.getInt(pos + INDEX_OFFSET) == 0;
+    }
+
+    //First 8 bytes of transaction hash mixed with output index
+    private static long home(long hashPrefix, int index) {
+        long h = hashPrefix ^ index * 0x9e3779b97f4a7c15L;
+        return h ^ (h >>> 31);
+    }
+
+    private static Entry readEntry(ByteBuffer b, int pos) {
+        return new Entry(b.getLong(pos + OUTPUT_OFFSET), b.getLong(pos + VALUE_OFFSET), b.getLong(pos + ADDRESS_OFFSET));
+    }
+
+    private void writeSlot(long slot, byte[] txHash, int index, long outputId, long value, long addressId) {
+        ByteBuffer b = segment(slot);
+        int pos = position(slot);
+        for (int i = 0; i < 32; i++) {
+            b.put(pos + HASH_OFFSET + i, txHash[i]);
+        }
+        b.putInt(pos + INDEX_OFFSET, index + 1);
+        b.putLong(pos + OUTPUT_OFFSET, outputId);
+        b.putLong(pos + VALUE_OFFSET, value);
+        b.putLong(pos + ADDRESS_OFFSET, addressId);
+    }
+}
@@ -0,0 +1,64 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//Bounded LRU cache from vertex name (hash of block, transaction, output or address) to vertex id.
+//Lets writers go to g.V(id) instead of querying nameIndex again and again. Writer threads share it
+public class VertexCache {
+    private final Map<String, Object> ids;
+    private long hits;
+    private long misses;
+
+    //Construct a cache holding at most maxSize vertex ids
+    public VertexCache(final int maxSize) {
+        this.ids = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    //Return cached vertex id or null if there's no such name in cache
+    public synchronized Object get(String name) {
+        Object id = ids.get(name);
+        if (id == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return id;
+    }
+
+    public synchronized void put(String name, Object id) {
+        ids.put(name, id);
+    }
+
+    //Forget vertex, it must be called when vertex is dropped
+    public synchronized void remove(String name) {
+        ids.remove(name);
+    }
+
+    //Forget all vertices, it must be called when Graph Database transaction is rolled back
+    public synchronized void clear() {
+        ids.clear();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return ids.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "VertexCache: size = " + ids.size() + "; hits = " + hits + "; misses = " + misses;
+    }
+}
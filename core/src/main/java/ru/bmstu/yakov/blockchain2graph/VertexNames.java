@@ -0,0 +1,77 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.GraphTraversal;
+import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.GraphTraversalSource;
+import org.apache.tinkerpop.gremlin.structure.Edge;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.bitcoinj.core.Utils;
+
+//How names of vertices are stored in Graph Database. Program works with names as strings: hex hash of block or
+//transaction, "txHash:index" of output and address itself. With hex encoding they are stored in "name" property.
+//With binary encoding hash of block or transaction is stored as 32 bytes in "Hash" property and is found by its
+//last 8 bytes packed into long "HashKey", output has no name and is found by index on "output" edge of its
+//transaction. Addresses keep their names in both encodings
+public class VertexNames {
+    public static final String HEX = "hex";
+    public static final String BINARY = "binary";
+
+    private final boolean binary;
+
+    public VertexNames(String encoding) {
+        if (!encoding.equals(HEX) && !encoding.equals(BINARY)) {
+            throw new IllegalArgumentException("Unknown hash encoding " + encoding + ". It can be hex or binary");
+        }
+        this.binary = encoding.equals(BINARY);
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    //Vertices with given label and name. With binary encoding vertices found by HashKey are checked by whole hash
+    public GraphTraversal<Vertex, Vertex> find(GraphTraversalSource g, String label, String name) {
+        if (!binary || label.equals("Address")) {
+            return g.V().has(label, "name", name);
+        }
+        if (label.equals("Output")) {
+            final int i = name.indexOf(':');
+            return find(g, "Transaction", name.substring(0, i))
+                    .outE("output").has("OutputIndex", Integer.parseInt(name.substring(i + 1))).inV();
+        }
+        final byte[] hash = Utils.HEX.decode(name);
+        return g.V().has(label, "HashKey", hashKey(hash))
+                .filter(v -> Arrays.equals(v.get().<byte[]>value("Hash"), hash));
+    }
+
+    //Setting name of new vertex. With binary encoding output gets its name with "output" edge of its transaction
+    public void set(Vertex vertex, String name) {
+        if (!binary || vertex.label().equals("Address")) {
+            vertex.property("name", name);
+        } else if (!vertex.label().equals("Output")) {
+            final byte[] hash = Utils.HEX.decode(name);
+            vertex.property("HashKey", hashKey(hash));
+            vertex.property("Hash", hash);
+        }
+    }
+
+    //Name of vertex
+    public String of(GraphTraversalSource g, Vertex vertex) {
+        if (!binary || vertex.label().equals("Address")) {
+            return vertex.value("name");
+        }
+        if (vertex.label().equals("Output")) {
+            final Edge output = g.V(vertex).inE("output").next();
+            return of(g, output.outVertex()) + ":" + output.value("OutputIndex");
+        }
+        return Utils.HEX.encode(vertex.value("Hash"));
+    }
+
+    //Key of hash in index. Hashes are written in reverse byte order, so leading zeros of block hashes
+    //are in the first bytes and the last ones are random
+    public static long hashKey(byte[] hash) {
+        return ByteBuffer.wrap(hash, hash.length - 8, 8).getLong();
+    }
+}
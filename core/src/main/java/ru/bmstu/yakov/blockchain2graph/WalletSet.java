@@ -0,0 +1,326 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+//Wallets of addresses stored off-heap in a memory-mapped file. Addresses spending outputs in one transaction
+//are taken as one wallet (common-input-ownership heuristic). It is a union-find over address ids with
+//union by size and path halving, kept in a mapped hash table. Every address gets a number when it's added,
+//wallet id is the number of the root of its wallet. Members of a wallet are linked in a circular list, so when
+//two wallets are joined members of the smaller one, whose wallet id changes, are found without reading
+//Graph Database. Every change of a slot is logged with its previous value, so changes since commit are rolled
+//back and changes of a block are kept in its undo journal. Its methods are synchronized, so writer threads
+//can share it
+public class WalletSet extends MappedHashTable {
+    private static final long MAGIC = 0x57414c4c45545331L;
+    private static final int SLOT_SIZE = 32;
+    //Key is address id
+    private static final int KEY_SIZE = 8;
+
+    //Slot layout. Parent and next member are address ids, number is never zero for stored address
+    private static final int ADDRESS_OFFSET = 0;
+    private static final int PARENT_OFFSET = 8;
+    private static final int NEXT_OFFSET = 16;
+    private static final int NUMBER_OFFSET = 24;
+    private static final int SIZE_OFFSET = 28;
+
+    //Header layout
+    private static final int NUMBER_COUNTER_OFFSET = EXTRA_OFFSET;
+
+    //Address whose wallet id is changed by joining wallets
+    public interface Listener {
+        void moved(long addressId, int walletId);
+    }
+
+    private int numberCounter;
+    private int committedNumberCounter;
+
+    //Open wallet file or create it with given initial capacity (number of slots, power of two)
+    public WalletSet(File file, long initialCapacity) throws IOException {
+        super(file, initialCapacity, "wallet set", MAGIC, SLOT_SIZE, KEY_SIZE, true);
+        numberCounter = headerInt(NUMBER_COUNTER_OFFSET);
+        committedNumberCounter = numberCounter;
+    }
+
+    //Adding address as a wallet of its own. Returns its wallet id
+    public synchronized int add(long addressId) throws IOException {
+        ensureCapacity();
+        long slot = find(addressId);
+        if (slot >= 0) {
+            return number(root(addressId));
+        }
+        if (numberCounter == Integer.MAX_VALUE) {
+            throw new IllegalStateException("Wallet ids are exhausted");
+        }
+        writeSlot(~slot, addressId, addressId, addressId, ++numberCounter, 1);
+        added(~slot);
+        return numberCounter;
+    }
+
+    //Adding address with wallet id it has in Graph Database, when set is rebuilt. Joined wallets keep id
+    //of their root, ids given after that are larger than all given ones
+    public synchronized void add(long addressId, int walletId) throws IOException {
+        if (walletId <= 0) {
+            throw new IllegalArgumentException("Wallet id of address " + addressId + " is " + walletId);
+        }
+        ensureCapacity();
+        long slot = find(addressId);
+        if (slot >= 0) {
+            return;
+        }
+        writeSlot(~slot, addressId, addressId, addressId, walletId, 1);
+        added(~slot);
+        numberCounter = Math.max(numberCounter, walletId);
+    }
+
+    //Giving new ids to wallets sharing id with another wallet after the set is rebuilt with stored wallet ids.
+    //The wallet met first in slot order keeps the id
+    public synchronized void separate() throws IOException {
+        final BitSet given = new BitSet();
+        forEachSlot((slot, b, pos) -> {
+            if (b.getLong(pos + PARENT_OFFSET) != b.getLong(pos + ADDRESS_OFFSET)) {
+                return;
+            }
+            final int number = b.getInt(pos + NUMBER_OFFSET);
+            if (!given.get(number)) {
+                given.set(number);
+                return;
+            }
+            if (numberCounter == Integer.MAX_VALUE) {
+                throw new IllegalStateException("Wallet ids are exhausted");
+            }
+            changing(slot);
+            b.putInt(pos + NUMBER_OFFSET, ++numberCounter);
+        });
+    }
+
+    //Wallet id of address, 0 if address isn't in the set. Path isn't halved, because changes made outside
+    //of a block wouldn't get into its undo journal
+    public synchronized int walletId(long addressId) {
+        long slot = find(addressId);
+        if (slot < 0) {
+            return 0;
+        }
+        long x = addressId;
+        long parent = readLong(slot, PARENT_OFFSET);
+        while (parent != x) {
+            x = parent;
+            slot = find(x);
+            parent = readLong(slot, PARENT_OFFSET);
+        }
+        return readInt(slot, NUMBER_OFFSET);
+    }
+
+    //Joining wallets of two addresses. Root of the larger wallet becomes root of both, so members of the smaller
+    //one get its wallet id and are given to listener. Returns wallet id of joined wallet
+    public synchronized int union(long a, long b, Listener listener) {
+        long rootA = root(a);
+        long rootB = root(b);
+        if (rootA == rootB) {
+            return number(rootA);
+        }
+        long slotA = find(rootA);
+        long slotB = find(rootB);
+        int sizeA = readInt(slotA, SIZE_OFFSET);
+        int sizeB = readInt(slotB, SIZE_OFFSET);
+        //Ties are broken by number, so the older wallet keeps its id
+        if (sizeA < sizeB || (sizeA == sizeB && readInt(slotA, NUMBER_OFFSET) > readInt(slotB, NUMBER_OFFSET))) {
+            long t = rootA;
+            rootA = rootB;
+            rootB = t;
+            t = slotA;
+            slotA = slotB;
+            slotB = t;
+        }
+        final int walletId = readInt(slotA, NUMBER_OFFSET);
+
+        long member = rootB;
+        do {
+            listener.moved(member, walletId);
+            member = readLong(find(member), NEXT_OFFSET);
+        } while (member != rootB);
+
+        //Circular lists of members are joined by swapping next members of roots
+        final long nextA = readLong(slotA, NEXT_OFFSET);
+        final long nextB = readLong(slotB, NEXT_OFFSET);
+        changing(slotA);
+        changing(slotB);
+        writeLong(slotA, NEXT_OFFSET, nextB);
+        writeLong(slotB, NEXT_OFFSET, nextA);
+        writeLong(slotB, PARENT_OFFSET, rootA);
+        writeInt(slotA, SIZE_OFFSET, sizeA + sizeB);
+        return walletId;
+    }
+
+    //Members of wallet of stored address, empty if address isn't in the set
+    public synchronized List<Long> members(long addressId) {
+        final List<Long> members = new ArrayList<>();
+        if (find(addressId) < 0) {
+            return members;
+        }
+        long member = addressId;
+        do {
+            members.add(member);
+            member = readLong(find(member), NEXT_OFFSET);
+        } while (member != addressId);
+        return members;
+    }
+
+    //Splitting off a part of wallet when blocks joining it are deleted without journal. Part is a wallet as it was
+    //before the blocks, and its root then is its member of the largest size: sizes of other members were taken
+    //when they were roots of smaller wallets. So the part gets its wallet id back. Every part of the wallet must be
+    //split off, and addresses added by the blocks must be removed
+    public synchronized void split(List<Long> part) {
+        long root = part.get(0);
+        for (long member : part) {
+            if (readInt(find(member), SIZE_OFFSET) > readInt(find(root), SIZE_OFFSET)) {
+                root = member;
+            }
+        }
+        for (int i = 0; i < part.size(); i++) {
+            final long slot = find(part.get(i));
+            changing(slot);
+            writeLong(slot, PARENT_OFFSET, root);
+            writeLong(slot, NEXT_OFFSET, part.get((i + 1) % part.size()));
+        }
+        writeInt(find(root), SIZE_OFFSET, part.size());
+    }
+
+    //Removing address added by deleted block. Its wallet must be split before, so no member links to it
+    public synchronized void delete(long addressId) {
+        final long slot = find(addressId);
+        if (slot >= 0) {
+            remove(slot);
+        }
+    }
+
+    //Number of changes logged since last commit, changes logged after it are taken by changes
+    public synchronized int mark() {
+        return logSize();
+    }
+
+    //Changes logged after given mark, oldest first: address, parent, next, number and size packed into one long.
+    //Parent is zero if address was added
+    public synchronized List<long[]> changes(int mark) {
+        final List<long[]> changes = new ArrayList<>();
+        for (Change change : changesSince(mark)) {
+            changes.add(change.added ? new long[]{change.slot[0], 0, 0, 0} : change.slot);
+        }
+        return changes;
+    }
+
+    //Undoing changes of a block taken from its undo journal. It is logged as any other change,
+    //so it's rolled back if the block isn't deleted
+    public synchronized void undo(List<long[]> changes) throws IOException {
+        final List<Change> undone = new ArrayList<>(changes.size());
+        for (long[] change : changes) {
+            undone.add(new Change(change, change[1] == 0));
+        }
+        undoChanges(undone);
+    }
+
+    //Remember best block of committed Graph Database transaction, changes can't be undone after that
+    @Override
+    public synchronized void commit(String best, int height) {
+        super.commit(best, height);
+        committedNumberCounter = numberCounter;
+        putHeaderInt(NUMBER_COUNTER_OFFSET, numberCounter);
+    }
+
+    //Undo all changes since last commit
+    @Override
+    public synchronized void rollback() {
+        super.rollback();
+        numberCounter = committedNumberCounter;
+    }
+
+    //Remove all addresses
+    @Override
+    public synchronized void clear() {
+        super.clear();
+        numberCounter = 0;
+        committedNumberCounter = 0;
+        putHeaderInt(NUMBER_COUNTER_OFFSET, 0);
+    }
+
+    //Flush set on disk and mark it as correctly closed
+    @Override
+    public synchronized void close() throws IOException {
+        putHeaderInt(NUMBER_COUNTER_OFFSET, numberCounter);
+        super.close();
+    }
+
+    //Root of wallet of stored address. Path is halved on the way: every other address gets its grandparent
+    //as parent
+    private long root(long addressId) {
+        long x = addressId;
+        long slot = find(x);
+        long parent = readLong(slot, PARENT_OFFSET);
+        while (parent != x) {
+            final long parentSlot = find(parent);
+            final long grandparent = readLong(parentSlot, PARENT_OFFSET);
+            if (grandparent != parent) {
+                changing(slot);
+                writeLong(slot, PARENT_OFFSET, grandparent);
+            }
+            x = grandparent;
+            slot = grandparent == parent ? parentSlot : find(grandparent);
+            parent = readLong(slot, PARENT_OFFSET);
+        }
+        return x;
+    }
+
+    private int number(long rootId) {
+        return readInt(find(rootId), NUMBER_OFFSET);
+    }
+
+    //Find slot of address. If there's no such address returns ~slot of first empty slot
+    private long find(long addressId) {
+        return find(home(addressId), (b, pos) -> b.getLong(pos + ADDRESS_OFFSET) == addressId);
+    }
+
+    @Override
+    protected long hash(ByteBuffer b, int pos) {
+        return home(b.getLong(pos + ADDRESS_OFFSET));
+    }
+
+    @Override
+    protected boolean isEmpty(ByteBuffer b, int pos) {
+        return b.getInt(pos + NUMBER_OFFSET) == 0;
+    }
+
+    private static long home(long addressId) {
+        long h = addressId * 0x9e3779b97f4a7c15L;
+        return h ^ (h >>> 31);
+    }
+
+    private void writeSlot(long slot, long addressId, long parent, long next, int number, int size) {
+        ByteBuffer b = segment(slot);
+        int pos = position(slot);
+        b.putLong(pos + ADDRESS_OFFSET, addressId);
+        b.putLong(pos + PARENT_OFFSET, parent);
+        b.putLong(pos + NEXT_OFFSET, next);
+        b.putInt(pos + NUMBER_OFFSET, number);
+        b.putInt(pos + SIZE_OFFSET, size);
+    }
+
+    private long readLong(long slot, int offset) {
+        return segment(slot).getLong(position(slot) + offset);
+    }
+
+    private int readInt(long slot, int offset) {
+        return segment(slot).getInt(position(slot) + offset);
+    }
+
+    private void writeLong(long slot, int offset, long value) {
+        segment(slot).putLong(position(slot) + offset, value);
+    }
+
+    private void writeInt(long slot, int offset, int value) {
+        segment(slot).putInt(position(slot) + offset, value);
+    }
+}
@@ -0,0 +1,95 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zeromq.SocketType;
+import org.zeromq.ZContext;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMsg;
+
+//Tip source subscribed to ZMQ publisher of Bitcoin Core ("-zmqpubhashblock" or "-zmqpubrawblock").
+//Message has topic, body and sequence number. Body of hashblock is block hash in usual byte order,
+//body of rawblock is serialized block, which is parsed without reading blk***.dat files.
+//Node doesn't publish every block of a reorg and of initial download, missed blocks are found by the caller
+public class ZmqTipSource implements TipSource {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ZmqTipSource.class);
+    public static final String HASHBLOCK = "hashblock";
+    public static final String RAWBLOCK = "rawblock";
+    private static final int POLL_TIMEOUT_MS = 1000;
+
+    private final ZContext context;
+    private final ZMQ.Socket socket;
+    private final String topic;
+    private final Process node;
+    private long sequence = -1;
+
+    //Subscribe to topic of publisher with given address, node is stopped on close if it's given
+    public ZmqTipSource(String address, String topic, Process node) {
+        if (!topic.equals(HASHBLOCK) && !topic.equals(RAWBLOCK)) {
+            throw new IllegalArgumentException("Unknown ZMQ topic " + topic + ". It can be hashblock or rawblock");
+        }
+        this.topic = topic;
+        this.node = node;
+        this.context = new ZContext();
+        this.socket = context.createSocket(SocketType.SUB);
+        socket.setReceiveTimeOut(POLL_TIMEOUT_MS);
+        socket.connect(address);
+        socket.subscribe(topic.getBytes(StandardCharsets.US_ASCII));
+        LOGGER.info("Subscribed to " + topic + " of " + address);
+    }
+
+    @Override
+    public Tip poll() {
+        final ZMsg message = ZMsg.recvMsg(socket);
+        if (message == null) {
+            return null;
+        }
+        try {
+            if (message.size() < 2 || !topic.equals(message.popString())) {
+                return null;
+            }
+            final byte[] body = message.pop().getData();
+            if (message.size() > 0) {
+                checkSequence(message.pop().getData());
+            }
+            if (topic.equals(RAWBLOCK)) {
+                //Hash of block is double SHA-256 of its 80 bytes header
+                return new Tip(Sha256Hash.wrapReversed(Sha256Hash.hashTwice(body, 0, 80)).toString(), -1, body);
+            }
+            return new Tip(Utils.HEX.encode(body), -1, null);
+        } finally {
+            message.destroy();
+        }
+    }
+
+    //Sequence number is 4 bytes little-endian, a gap means that messages were dropped
+    private void checkSequence(byte[] bytes) {
+        if (bytes.length != 4) {
+            return;
+        }
+        final long next = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getInt() & 0xffffffffL;
+        if (sequence >= 0 && next != sequence + 1) {
+            LOGGER.warn("Missed " + (next - sequence - 1) + " ZMQ messages, missing blocks are read from blk files");
+        }
+        sequence = next;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return node != null && !node.isAlive();
+    }
+
+    @Override
+    public void close() {
+        context.close();
+        if (node != null) {
+            node.destroy();
+        }
+    }
+}
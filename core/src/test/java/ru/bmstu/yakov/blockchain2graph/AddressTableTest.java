@@ -0,0 +1,69 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+//Address table of export: numbers, totals, growing of name index and visiting in number order
+public class AddressTableTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void addressesAreVisitedInNumberOrderAfterGrowing() throws IOException {
+        final File dir = folder.newFolder();
+        try (AddressTable table = new AddressTable(dir, 1024)) {
+            for (int i = 0; i < 5000; i++) {
+                assertEquals(i, table.add("address" + i, 1000 + i));
+            }
+            assertEquals(17, table.add("address17", 5000));
+            assertEquals(5000, table.size());
+            assertEquals(4999, table.number("address4999"));
+            assertEquals(-1, table.number("address5000"));
+
+            final int[] next = {0};
+            table.forEach((number, name, totals) -> {
+                assertEquals(next[0], number);
+                assertEquals("address" + number, name);
+                assertEquals(1000 + number, totals.firstAppearDate);
+                next[0]++;
+            });
+            assertEquals(5000, next[0]);
+        }
+        assertEquals(0, dir.list().length);
+    }
+
+    @Test
+    public void totalsAreKept() throws IOException {
+        try (AddressTable table = new AddressTable(folder.newFolder(), 1024)) {
+            final long a = table.add("a", 10);
+            final long b = table.add("b", 10);
+            table.output(a, 50, 10, false);
+            table.output(b, 30, 11, true);
+            table.input(a, 50, 12);
+            table.counterparties(a, 1, 2);
+            table.forEach((number, name, totals) -> {
+                if (number == a) {
+                    assertEquals(0, totals.balance);
+                    assertEquals(50, totals.inputTransactionBalance);
+                    assertEquals(50, totals.outputTransactionBalance);
+                    assertEquals(12, totals.lastAppearDate);
+                    assertEquals(2, totals.transactionCount);
+                    assertEquals(1, totals.inputAddressCount);
+                    assertEquals(2, totals.outputAddressCount);
+                    assertEquals(0, totals.betweenAddressTransactionCount);
+                } else {
+                    assertEquals(30, totals.balance);
+                    assertEquals(1, totals.betweenAddressTransactionCount);
+                    assertFalse(totals.firstAppearDate != 10);
+                }
+            });
+        }
+    }
+}
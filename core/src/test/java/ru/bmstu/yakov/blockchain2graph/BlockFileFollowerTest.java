@@ -0,0 +1,106 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.LegacyAddress;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+//Blocks appended to preallocated blk files and to the next file are found while node writes them
+public class BlockFileFollowerTest {
+    private static final NetworkParameters NP = UnitTestParams.get();
+    private static final int PREALLOCATED = 1 << 20;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<Block> blocks = new ArrayList<>();
+    private File blocksDir;
+    private long end;
+
+    @Before
+    public void createBlocks() throws IOException {
+        blocks.add(NP.getGenesisBlock());
+        final LegacyAddress address = LegacyAddress.fromKey(NP, new ECKey());
+        for (int i = 1; i < 4; i++) {
+            blocks.add(blocks.get(i - 1).createNextBlock(address));
+        }
+        blocksDir = folder.newFolder("blocks");
+        try (RandomAccessFile file = new RandomAccessFile(blockFile(0), "rw")) {
+            file.setLength(PREALLOCATED);
+        }
+        append(0, blocks.get(0));
+    }
+
+    @Test
+    public void appendedBlocksAreFound() throws Exception {
+        try (BlockFileFollower follower = new BlockFileFollower(NP, blocksDir, new BlockFileMap(2), 0, 0, 10)) {
+            assertNotNull(follower.find(blocks.get(0).getHashAsString(), 0));
+            assertNull(follower.find(blocks.get(1).getHashAsString(), 0));
+
+            append(0, blocks.get(1));
+            final BlockLocation location = follower.find(blocks.get(1).getHashAsString(), 0);
+            assertEquals(blockFile(0), location.getFile());
+            assertEquals(record(blocks.get(0)).length + 8L, location.getOffset());
+
+            //Node appends the last block to the current file and starts the next one
+            append(0, blocks.get(2));
+            end = 0;
+            append(1, blocks.get(3));
+            assertEquals(blockFile(1), follower.find(blocks.get(3).getHashAsString(), 0).getFile());
+            assertEquals(blockFile(0), follower.find(blocks.get(2).getHashAsString(), 0).getFile());
+        }
+    }
+
+    @Test
+    public void blockWrittenLaterIsWaitedFor() throws Exception {
+        try (BlockFileFollower follower = new BlockFileFollower(NP, blocksDir, new BlockFileMap(2), 0, 0, 10)) {
+            final Thread node = new Thread(() -> {
+                try {
+                    Thread.sleep(200);
+                    //Changes of other files don't make follower read blk files
+                    Files.write(new File(blocksDir, "rev00000.dat").toPath(), new byte[16]);
+                    Thread.sleep(200);
+                    append(0, blocks.get(1));
+                } catch (InterruptedException | IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            node.start();
+            assertNotNull(follower.find(blocks.get(1).getHashAsString(), 30000));
+            node.join();
+        }
+    }
+
+    private void append(int number, Block block) throws IOException {
+        final byte[] record = record(block);
+        try (RandomAccessFile file = new RandomAccessFile(blockFile(number), "rw")) {
+            file.seek(end);
+            file.write(record);
+        }
+        end += record.length;
+    }
+
+    private static byte[] record(Block block) {
+        return RawBlockReaderTest.record(block);
+    }
+
+    private File blockFile(int number) {
+        return new File(blocksDir, String.format("blk%05d.dat", number));
+    }
+}
@@ -0,0 +1,411 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.GraphTraversalSource;
+import org.apache.tinkerpop.gremlin.structure.Edge;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.apache.tinkerpop.gremlin.structure.VertexProperty;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.LegacyAddress;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.script.ScriptBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+//Blocks written into in-memory JanusGraph by one and several writer threads: properties of their addresses
+//and blocks deleted with and without undo journal
+public class BlockchainToGraphTest {
+    private static final long GENESIS_TIME = 1231006505;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private NetworkParameters np;
+    private List<DecodedBlock> chain;
+    private GraphTraversalSource g;
+    private BlockchainToGraph bp;
+
+    @Before
+    public void setUp() {
+        np = UnitTestParams.get();
+        Context.propagate(new Context(np));
+        chain = chain();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (bp != null) {
+            bp.close();
+        }
+    }
+
+    @Test
+    public void deletedBlocksAreUndoneByJournal() throws Exception {
+        deletedBlocksAreUndone("undodepth=100");
+    }
+
+    @Test
+    public void deletedBlocksAreUndoneWithoutJournal() throws Exception {
+        deletedBlocksAreUndone("undodepth=0");
+    }
+
+    //Every block on top of block 3 is deleted, graph and sets must be as they were before the block was added
+    private void deletedBlocksAreUndone(String... options) throws Exception {
+        bp = open(options);
+        final List<Map<String, Object>> snapshots = new ArrayList<>();
+        for (int height = 0; height < chain.size(); height++) {
+            bp.parseBlock(chain.get(height), height, null);
+            bp.commitBatch(true);
+            snapshots.add(snapshot());
+        }
+        for (int height = chain.size() - 1; height > 3; height--) {
+            assertNotEquals(snapshots.get(height - 1), snapshots.get(height));
+            bp.deleteBlock(chain.get(height).getHashAsString(), height);
+            final Map<String, Object> deleted = snapshot();
+            for (String key : snapshots.get(height - 1).keySet()) {
+                assertEquals("Block " + height + ": " + key, snapshots.get(height - 1).get(key), deleted.get(key));
+            }
+        }
+    }
+
+    //Address H is paid several times in block 5 and spends in it, its changes are added up and written once.
+    //Every address must get the same properties as if each output and input changed it one by one
+    @Test
+    public void addressesMatchPerOutputUpdates() throws Exception {
+        bp = open();
+        for (int height = 0; height < chain.size(); height++) {
+            bp.parseBlock(chain.get(height), height, null);
+            bp.commitBatch(true);
+        }
+        final Map<String, Map<String, Object>> expected = perOutputUpdates();
+        final Map<String, Map<String, Object>> actual = new TreeMap<>();
+        final Map<Integer, Set<String>> wallets = new HashMap<>();
+        for (Vertex address : g.V().hasLabel("Address").toList()) {
+            final Map<String, Object> properties = new TreeMap<>();
+            for (VertexProperty<Object> property : (Iterable<VertexProperty<Object>>) address::properties) {
+                properties.put(property.key(), property.value());
+            }
+            final String name = (String) properties.remove("name");
+            final int walletId = (Integer) properties.remove("AddressWalletID");
+            assertEquals(name, bp.getWallets().walletId((Long) address.id()), walletId);
+            wallets.computeIfAbsent(walletId, k -> new TreeSet<>()).add(name);
+            actual.put(name, properties);
+        }
+        g.tx().rollback();
+        assertEquals(expected, actual);
+        //H is paid twice in block 4 and five times in block 5
+        assertEquals(7, (int) actual.get(address(8).toString()).get("AddressInputTransactionCount"));
+        assertEquals(commonInputWallets(), new HashSet<>(wallets.values()));
+    }
+
+    //Writer threads must write the same graph, address properties and wallet ids as one thread. Blocks 4 and 5
+    //have transactions spending outputs created earlier in the same block, they wait for the transactions they spend
+    @Test
+    public void writerThreadsWriteSameGraph() throws Exception {
+        final Map<String, Object> single = parseChain("writerthreads=1");
+        final Map<String, Object> concurrent = parseChain("writerthreads=4");
+        for (String key : single.keySet()) {
+            assertEquals(key, single.get(key), concurrent.get(key));
+        }
+    }
+
+    //Snapshot of new graph with the whole chain written as one batch
+    private Map<String, Object> parseChain(String... options) throws Exception {
+        bp = open(options);
+        for (int height = 0; height < chain.size(); height++) {
+            bp.parseBlock(chain.get(height), height, null);
+        }
+        bp.commitBatch(true);
+        final Map<String, Object> snapshot = snapshot();
+        bp.close();
+        bp = null;
+        return snapshot;
+    }
+
+    private BlockchainToGraph open(String... options) throws Exception {
+        final File dir = folder.newFolder();
+        final File properties = new File(dir, "inmemory.properties");
+        try (PrintWriter writer = new PrintWriter(properties, "UTF-8")) {
+            writer.println("gremlin.graph=org.janusgraph.core.JanusGraphFactory");
+            writer.println("storage.backend=" + InMemoryStoreWithLocks.class.getName());
+        }
+        final TransactionGraph tg = new TransactionGraph(properties.getPath());
+        g = tg.openGraph();
+        tg.createSchema();
+
+        final Map<String, String> map = new HashMap<>();
+        map.put("utxodir", dir.getPath());
+        map.put("blockindex", "false");
+        map.put("utxocapacity", "1024");
+        map.put("counterpartycapacity", "1024");
+        map.put("walletcapacity", "1024");
+        map.put("metricsjmx", "false");
+        for (String option : options) {
+            map.put(option.substring(0, option.indexOf('=')), option.substring(option.indexOf('=') + 1));
+        }
+        return new BlockchainToGraph(g, np, tg, dir.getPath(), dir.getPath(), map);
+    }
+
+    //Vertices with their properties, edges with their properties and UTXO, counterparty and wallet sets.
+    //Vertices are named by label and name, so graphs written by different runs can be compared
+    private Map<String, Object> snapshot() throws IOException {
+        final Map<Object, String> names = new HashMap<>();
+        final Map<String, Object> vertices = new TreeMap<>();
+        for (Vertex vertex : g.V().toList()) {
+            final String name = vertex.label() + " " + vertex.property("name").orElse("");
+            names.put(vertex.id(), name);
+            final Map<String, Object> properties = new TreeMap<>();
+            for (VertexProperty<Object> property : (Iterable<VertexProperty<Object>>) vertex::properties) {
+                properties.put(property.key(), property.value());
+            }
+            vertices.put(name, properties);
+        }
+        final TreeSet<String> edges = new TreeSet<>();
+        for (Edge edge : g.E().toList()) {
+            final Map<String, Object> properties = new TreeMap<>();
+            edge.properties().forEachRemaining(p -> properties.put(p.key(), p.value()));
+            edges.add(names.get(edge.outVertex().id()) + " -" + edge.label() + "-> " + names.get(edge.inVertex().id())
+                    + " " + properties);
+        }
+        g.tx().rollback();
+
+        final TreeSet<String> utxo = new TreeSet<>();
+        bp.getUtxoSet().forEach((txHash, index, entry) -> utxo.add(Utils.HEX.encode(txHash) + ":" + index + " "
+                + names.get(entry.outputId) + " " + entry.value + " " + names.get(entry.addressId)));
+        final TreeSet<String> counterparties = new TreeSet<>();
+        bp.getCounterparties().forEachSlot((slot, b, pos) -> counterparties.add(names.get(b.getLong(pos)) + " "
+                + names.get(b.getLong(pos + 8)) + " " + b.getInt(pos + 16) + " " + b.getInt(pos + 20)));
+        final Map<String, Integer> wallets = new TreeMap<>();
+        for (Map.Entry<Object, String> address : names.entrySet()) {
+            if (address.getValue().startsWith("Address ")) {
+                wallets.put(address.getValue(), bp.getWallets().walletId((Long) address.getKey()));
+            }
+        }
+
+        final Map<String, Object> snapshot = new TreeMap<>();
+        snapshot.put("vertices", vertices);
+        snapshot.put("edges", edges);
+        snapshot.put("utxo", utxo);
+        snapshot.put("counterparties", counterparties);
+        snapshot.put("wallets", wallets);
+        snapshot.put("wallet set size", bp.getWallets().size());
+        return snapshot;
+    }
+
+    //Properties of addresses except wallet id, found by changing address by every output and input of the chain
+    //one by one, in order of the chain
+    private Map<String, Map<String, Object>> perOutputUpdates() {
+        final Map<String, Map<String, Object>> addresses = new TreeMap<>();
+        final Map<String, Set<String>> inputCounterparties = new HashMap<>();
+        final Map<String, Set<String>> outputCounterparties = new HashMap<>();
+        final Map<String, Object[]> outputs = new HashMap<>();
+        for (DecodedBlock block : chain) {
+            final Date date = block.getTime();
+            for (DecodedBlock.DecodedTransaction tx : block.getTransactions()) {
+                final Set<String> inputs = new TreeSet<>();
+                for (int i = 0; !tx.isCoinBase() && i < tx.getInputCount(); i++) {
+                    final Object[] spent = outputs.remove(tx.getInputHash(i) + ":" + tx.getInputIndex(i));
+                    final Map<String, Object> address = addresses.get((String) spent[0]);
+                    add(address, "AddressBalance", -(Long) spent[1]);
+                    add(address, "AddressOutputTransactionBalance", (Long) spent[1]);
+                    add(address, "AddressTransactionCount", 1);
+                    add(address, "AddressOutputTransactionCount", 1);
+                    address.put("AddressLastAppearDate", date);
+                    inputs.add((String) spent[0]);
+                }
+                final Set<String> paid = new TreeSet<>();
+                for (int i = 0; i < tx.getOutputCount(); i++) {
+                    final String name = tx.getOutputAddress(i);
+                    if (name == null) {
+                        continue;
+                    }
+                    final long value = tx.getOutputValue(i);
+                    outputs.put(tx.getHash() + ":" + i, new Object[]{name, value});
+                    final Map<String, Object> address = addresses.computeIfAbsent(name, k -> newAddress(date));
+                    add(address, "AddressBalance", value);
+                    add(address, "AddressInputTransactionBalance", value);
+                    add(address, "AddressTransactionCount", 1);
+                    add(address, "AddressInputTransactionCount", 1);
+                    if (inputs.contains(name)) {
+                        add(address, "AddressBetweenAddressTransactionCount", 1);
+                    }
+                    address.put("AddressLastAppearDate", date);
+                    paid.add(name);
+                }
+                for (String in : inputs) {
+                    for (String out : paid) {
+                        if (!in.equals(out)) {
+                            inputCounterparties.computeIfAbsent(out, k -> new HashSet<>()).add(in);
+                            outputCounterparties.computeIfAbsent(in, k -> new HashSet<>()).add(out);
+                        }
+                    }
+                }
+            }
+        }
+        for (Map.Entry<String, Map<String, Object>> address : addresses.entrySet()) {
+            address.getValue().put("AddressInputAddressCount",
+                    inputCounterparties.getOrDefault(address.getKey(), new HashSet<>()).size());
+            address.getValue().put("AddressOutputAddressCount",
+                    outputCounterparties.getOrDefault(address.getKey(), new HashSet<>()).size());
+        }
+        return addresses;
+    }
+
+    private static Map<String, Object> newAddress(Date date) {
+        final Map<String, Object> address = new TreeMap<>();
+        address.put("AddressBalance", 0L);
+        address.put("AddressFirstAppearDate", date);
+        address.put("AddressInputTransactionBalance", 0L);
+        address.put("AddressOutputTransactionBalance", 0L);
+        address.put("AddressTransactionCount", 0);
+        address.put("AddressInputTransactionCount", 0);
+        address.put("AddressOutputTransactionCount", 0);
+        address.put("AddressBetweenAddressTransactionCount", 0);
+        return address;
+    }
+
+    private static void add(Map<String, Object> address, String key, long value) {
+        final Object stored = address.get(key);
+        address.put(key, stored instanceof Long ? (Long) stored + value : (Object) ((Integer) stored + (int) value));
+    }
+
+    //Addresses of the chain grouped by common-input-ownership: addresses spending in one transaction are one wallet
+    private Set<Set<String>> commonInputWallets() {
+        final Map<String, Set<String>> wallets = new HashMap<>();
+        final Map<String, String> outputs = new HashMap<>();
+        for (DecodedBlock block : chain) {
+            for (DecodedBlock.DecodedTransaction tx : block.getTransactions()) {
+                Set<String> wallet = null;
+                for (int i = 0; !tx.isCoinBase() && i < tx.getInputCount(); i++) {
+                    final Set<String> joined = wallets.get(outputs.get(tx.getInputHash(i) + ":" + tx.getInputIndex(i)));
+                    if (wallet == null) {
+                        wallet = joined;
+                    } else if (wallet != joined) {
+                        wallet.addAll(joined);
+                        for (String member : joined) {
+                            wallets.put(member, wallet);
+                        }
+                    }
+                }
+                for (int i = 0; i < tx.getOutputCount(); i++) {
+                    final String name = tx.getOutputAddress(i);
+                    if (name != null) {
+                        outputs.put(tx.getHash() + ":" + i, name);
+                        wallets.computeIfAbsent(name, k -> new TreeSet<>(Collections.singleton(name)));
+                    }
+                }
+            }
+        }
+        return new HashSet<>(wallets.values());
+    }
+
+    //Chain of unit test network with fixed keys and times. Block 4 joins wallets of addresses A and B and spends
+    //an output created earlier in the block. Block 5 joins wallet of A and B with other ones, pays hot address H
+    //several times and spends an output created earlier in the block too. Addresses E, F and G are new
+    private List<DecodedBlock> chain() {
+        final LegacyAddress a = address(1);
+        final LegacyAddress b = address(2);
+        final LegacyAddress c = address(3);
+        final LegacyAddress d = address(4);
+        final LegacyAddress e = address(5);
+        final LegacyAddress f = address(6);
+        final LegacyAddress gAddress = address(7);
+        final LegacyAddress h = address(8);
+
+        final List<Block> blocks = new ArrayList<>();
+        final Block genesis = np.getDefaultSerializer().makeBlock(np.getGenesisBlock().bitcoinSerialize());
+        genesis.setTime(GENESIS_TIME);
+        genesis.setNonce(0);
+        genesis.solve();
+        blocks.add(genesis);
+        blocks.add(block(blocks, a));
+        blocks.add(block(blocks, b));
+        blocks.add(block(blocks, c));
+
+        final Transaction t1 = transaction(Arrays.asList(coinbase(blocks, 1, 0), coinbase(blocks, 2, 0)),
+                h, Coin.COIN, e, Coin.valueOf(98, 0), b, Coin.COIN);
+        final Transaction t2 = transaction(Arrays.asList(new TransactionOutPoint(np, 1, t1.getTxId())),
+                h, Coin.valueOf(10, 0), f, Coin.valueOf(88, 0));
+        blocks.add(block(blocks, d, t1, t2));
+
+        final Transaction t3 = transaction(Arrays.asList(coinbase(blocks, 3, 0),
+                new TransactionOutPoint(np, 1, t2.getTxId()), new TransactionOutPoint(np, 0, t1.getTxId()),
+                new TransactionOutPoint(np, 2, t1.getTxId())),
+                h, Coin.COIN, h, Coin.valueOf(2, 0), gAddress, Coin.valueOf(50, 0), h, Coin.valueOf(3, 0));
+        final Transaction t4 = transaction(Arrays.asList(new TransactionOutPoint(np, 2, t3.getTxId()),
+                coinbase(blocks, 4, 0)), h, Coin.valueOf(5, 0), a, Coin.valueOf(40, 0));
+        t4.addOutput(Coin.ZERO, ScriptBuilder.createOpReturnScript(new byte[]{0x62, 0x32, 0x67}));
+        blocks.add(block(blocks, h, t3, t4));
+
+        final List<DecodedBlock> decoded = new ArrayList<>();
+        for (Block block : blocks) {
+            decoded.add(DecodedBlock.decode(block, np));
+        }
+        return decoded;
+    }
+
+    //Next block paying its coinbase to given address, it's mined 10 minutes after the previous one
+    private Block block(List<Block> blocks, LegacyAddress miner, Transaction... transactions) {
+        final Block prev = blocks.get(blocks.size() - 1);
+        final Transaction coinbase = new Transaction(np);
+        coinbase.addInput(new TransactionInput(np, coinbase,
+                new ScriptBuilder().number(blocks.size()).build().getProgram()));
+        coinbase.addOutput(Coin.FIFTY_COINS, miner);
+        final List<Transaction> all = new ArrayList<>();
+        all.add(coinbase);
+        all.addAll(Arrays.asList(transactions));
+        final Block block = new Block(np, Block.BLOCK_VERSION_GENESIS, prev.getHash(), null,
+                prev.getTimeSeconds() + 600, prev.getDifficultyTarget(), 0, all);
+        block.solve();
+        return block;
+    }
+
+    private TransactionOutPoint coinbase(List<Block> blocks, int height, int index) {
+        return new TransactionOutPoint(np, index, blocks.get(height).getTransactions().get(0).getTxId());
+    }
+
+    //Transaction spending given outputs and paying given addresses, arguments are address and value pairs
+    private Transaction transaction(List<TransactionOutPoint> spent, Object... outputs) {
+        final Transaction tx = new Transaction(np);
+        for (TransactionOutPoint outPoint : spent) {
+            tx.addInput(new TransactionInput(np, tx, new byte[0], outPoint));
+        }
+        for (int i = 0; i < outputs.length; i += 2) {
+            tx.addOutput((Coin) outputs[i + 1], (LegacyAddress) outputs[i]);
+        }
+        return tx;
+    }
+
+    private LegacyAddress address(int key) {
+        return LegacyAddress.fromKey(np, ECKey.fromPrivate(BigInteger.valueOf(1000 + key)));
+    }
+}
@@ -0,0 +1,103 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+//Blocks stored out of order put in chain order, stale branches and blocks not connected to the chain
+public class ChainBuilderTest {
+    private static final File FILE = new File("blk00000.dat");
+
+    @Test
+    public void blocksAreOrderedByPrevHash() {
+        final List<BlockLocation> chain = chain(ChainBuilder.GENESIS_PREV_HASH, "a", 6);
+        final List<BlockLocation> stored = Arrays.asList(chain.get(0), chain.get(3), chain.get(2), chain.get(5),
+                chain.get(1), chain.get(4));
+        assertEquals(hashes(chain), hashes(order(new ChainBuilder(2), stored)));
+    }
+
+    @Test
+    public void blockIsEmittedWithForkDepthBlocksOnTop() {
+        final List<BlockLocation> chain = chain(ChainBuilder.GENESIS_PREV_HASH, "a", 4);
+        final ChainBuilder builder = new ChainBuilder(2);
+        assertTrue(builder.add(chain.get(0)).isEmpty());
+        assertTrue(builder.add(chain.get(1)).isEmpty());
+        assertEquals(Collections.singletonList("a0"), hashes(builder.add(chain.get(2))));
+        assertEquals(0, builder.getTipHeight());
+        assertEquals(Collections.singletonList("a1"), hashes(builder.add(chain.get(3))));
+        //Repeated block is ignored
+        assertTrue(builder.add(chain.get(3)).isEmpty());
+        assertEquals(Arrays.asList("a2", "a3"), hashes(builder.flush()));
+        assertEquals(3, builder.getTipHeight());
+    }
+
+    @Test
+    public void longestBranchWins() {
+        //a0 - a1 - a2 and stale b1 on top of a0, stale block comes first
+        final List<BlockLocation> chain = chain(ChainBuilder.GENESIS_PREV_HASH, "a", 3);
+        final List<BlockLocation> stored = Arrays.asList(chain.get(0), location("b1", "a0"), chain.get(1),
+                chain.get(2), location("b2", "b1"), location("b3", "b2"));
+        assertEquals(Arrays.asList("a0", "b1", "b2", "b3"), hashes(order(new ChainBuilder(2), stored)));
+
+        //Stale block deeper than fork depth is dropped
+        final ChainBuilder builder = new ChainBuilder(1);
+        final List<BlockLocation> emitted = new ArrayList<>();
+        for (BlockLocation location : chain) {
+            emitted.addAll(builder.add(location));
+        }
+        emitted.addAll(builder.add(location("c1", "a0")));
+        emitted.addAll(builder.add(location("c2", "c1")));
+        emitted.addAll(builder.flush());
+        assertEquals(Arrays.asList("a0", "a1", "a2"), hashes(emitted));
+    }
+
+    @Test
+    public void blocksNotConnectedToTipAreOrphans() {
+        final List<BlockLocation> chain = chain("t", "a", 3);
+        final List<BlockLocation> stored = new ArrayList<>(chain);
+        stored.add(location("x1", "x0"));
+        stored.add(location("x2", "x1"));
+        stored.add(chain(ChainBuilder.GENESIS_PREV_HASH, "g", 1).get(0));
+        final ChainBuilder builder = new ChainBuilder(2, "t", 10);
+        assertEquals(hashes(chain), hashes(order(builder, stored)));
+        assertEquals(13, builder.getTipHeight());
+        assertEquals(3, builder.getOrphanCount());
+    }
+
+    //Chain of count blocks named prefix0, prefix1... on top of given block
+    private static List<BlockLocation> chain(String prevHash, String prefix, int count) {
+        final List<BlockLocation> chain = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            chain.add(location(prefix + i, i == 0 ? prevHash : prefix + (i - 1)));
+        }
+        return chain;
+    }
+
+    private static BlockLocation location(String hash, String prevHash) {
+        return new BlockLocation(FILE, 0, 0, hash, prevHash);
+    }
+
+    private static List<BlockLocation> order(ChainBuilder builder, List<BlockLocation> stored) {
+        final List<BlockLocation> ordered = new ArrayList<>();
+        for (Iterator<BlockLocation> it = builder.order(stored.iterator()); it.hasNext(); ) {
+            ordered.add(it.next());
+        }
+        return ordered;
+    }
+
+    private static List<String> hashes(List<BlockLocation> locations) {
+        final List<String> hashes = new ArrayList<>();
+        for (BlockLocation location : locations) {
+            hashes.add(location.getHash());
+        }
+        return hashes;
+    }
+}
@@ -0,0 +1,66 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+//Counts of transactions linking addresses with counterparties and their rollback
+public class CounterpartySetTest {
+    private static final String BEST = "000000000019d6689c085ae165831e934ff763ae46a2a6c172b3f1b60a8ce26f";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void counterpartyIsNewOnlyOnce() throws IOException {
+        try (CounterpartySet set = new CounterpartySet(folder.newFile(), 1024)) {
+            assertTrue(set.increment(1, 2, CounterpartySet.INPUT));
+            assertFalse(set.increment(1, 2, CounterpartySet.INPUT));
+            assertTrue(set.increment(1, 2, CounterpartySet.OUTPUT));
+            assertTrue(set.increment(2, 1, CounterpartySet.INPUT));
+            assertEquals(2, set.get(1, 2, CounterpartySet.INPUT));
+            assertEquals(1, set.get(1, 2, CounterpartySet.OUTPUT));
+            assertEquals(3, set.size());
+
+            assertFalse(set.decrement(1, 2, CounterpartySet.INPUT));
+            assertTrue(set.decrement(1, 2, CounterpartySet.INPUT));
+            assertFalse(set.decrement(1, 2, CounterpartySet.INPUT));
+            assertEquals(0, set.get(1, 2, CounterpartySet.INPUT));
+            assertEquals(2, set.size());
+        }
+    }
+
+    @Test
+    public void rollbackUndoesIncrementsAndDecrements() throws IOException {
+        try (CounterpartySet set = new CounterpartySet(folder.newFile(), 1024)) {
+            for (int i = 0; i < 600; i++) {
+                set.increment(i, i + 1, CounterpartySet.OUTPUT);
+                set.increment(i, i + 1, CounterpartySet.OUTPUT);
+            }
+            set.commit(BEST, 3);
+            for (int i = 0; i < 600; i++) {
+                set.decrement(i, i + 1, CounterpartySet.OUTPUT);
+                if (i % 2 == 0) {
+                    set.decrement(i, i + 1, CounterpartySet.OUTPUT);
+                }
+            }
+            //Grows the set while changes are logged
+            for (int i = 0; i < 3000; i++) {
+                set.increment(i, i, CounterpartySet.INPUT);
+            }
+            set.rollback();
+
+            assertEquals(600, set.size());
+            for (int i = 0; i < 600; i++) {
+                assertEquals(2, set.get(i, i + 1, CounterpartySet.OUTPUT));
+                assertEquals(0, set.get(i, i, CounterpartySet.INPUT));
+            }
+        }
+    }
+}
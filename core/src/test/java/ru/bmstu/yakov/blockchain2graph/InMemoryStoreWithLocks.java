@@ -0,0 +1,40 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import org.janusgraph.diskstorage.BackendException;
+import org.janusgraph.diskstorage.StaticBuffer;
+import org.janusgraph.diskstorage.StoreMetaData;
+import org.janusgraph.diskstorage.configuration.Configuration;
+import org.janusgraph.diskstorage.inmemory.InMemoryStoreManager;
+import org.janusgraph.diskstorage.keycolumnvalue.KCVSProxy;
+import org.janusgraph.diskstorage.keycolumnvalue.KeyColumnValueStore;
+import org.janusgraph.diskstorage.keycolumnvalue.StandardStoreFeatures;
+import org.janusgraph.diskstorage.keycolumnvalue.StoreFeatures;
+import org.janusgraph.diskstorage.keycolumnvalue.StoreTransaction;
+
+//In-memory storage backend of tests, it's set as storage.backend by class name. Graph of a test is used by
+//one JanusGraph instance, so locks are granted at once. JanusGraph 0.5 takes its lock columns for locks
+//of another instance on Java 15 and later, because their timestamps have nanoseconds there, and in-memory
+//storage without locks of its own can't be used
+public class InMemoryStoreWithLocks extends InMemoryStoreManager {
+    private final StoreFeatures features;
+
+    public InMemoryStoreWithLocks(Configuration configuration) {
+        super(configuration);
+        features = new StandardStoreFeatures.Builder(super.getFeatures()).locking(true).build();
+    }
+
+    @Override
+    public StoreFeatures getFeatures() {
+        return features;
+    }
+
+    @Override
+    public KeyColumnValueStore openDatabase(String name, StoreMetaData.Container metaData) throws BackendException {
+        return new KCVSProxy(super.openDatabase(name, metaData)) {
+            @Override
+            public void acquireLock(StaticBuffer key, StaticBuffer column, StaticBuffer expectedValue,
+                                    StoreTransaction txh) {
+            }
+        };
+    }
+}
@@ -0,0 +1,152 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.LegacyAddress;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+//Framing of blk files: magic, length and block, zero padding, partial last block and start offset
+public class RawBlockReaderTest {
+    private static final NetworkParameters NP = UnitTestParams.get();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<Block> blocks = new ArrayList<>();
+
+    @Before
+    public void createBlocks() {
+        blocks.add(NP.getGenesisBlock());
+        final LegacyAddress address = LegacyAddress.fromKey(NP, new ECKey());
+        for (int i = 1; i < 4; i++) {
+            blocks.add(blocks.get(i - 1).createNextBlock(address));
+        }
+    }
+
+    @Test
+    public void blocksAreFoundInPlace() throws IOException {
+        final File file = folder.newFile();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final List<Long> offsets = new ArrayList<>();
+        for (Block block : blocks) {
+            offsets.add(out.size() + 8L);
+            record(out, block);
+        }
+        Files.write(file.toPath(), out.toByteArray());
+
+        final List<BlockLocation> locations = read(Collections.singletonList(file), 0);
+        assertEquals(blocks.size(), locations.size());
+        for (int i = 0; i < blocks.size(); i++) {
+            final BlockLocation location = locations.get(i);
+            assertEquals(blocks.get(i).getHashAsString(), location.getHash());
+            assertEquals(blocks.get(i).getPrevBlockHash().toString(), location.getPrevHash());
+            assertEquals((long) offsets.get(i), location.getOffset());
+            assertEquals(blocks.get(i).bitcoinSerialize().length, location.getSize());
+            //Block bytes are a slice of the mapping
+            final ByteBuffer slice = new BlockFileMap(1).slice(location);
+            final byte[] bytes = new byte[slice.remaining()];
+            slice.get(bytes);
+            assertArrayEquals(blocks.get(i).bitcoinSerialize(), bytes);
+        }
+    }
+
+    @Test
+    public void paddingAndPartialBlockAreSkipped() throws IOException {
+        final File first = folder.newFile();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        record(out, blocks.get(0));
+        out.write(new byte[1000]);
+        record(out, blocks.get(1));
+        out.write(new byte[4096]);
+        Files.write(first.toPath(), out.toByteArray());
+
+        //Last block is cut off as if node is still writing it
+        final File second = folder.newFile();
+        out.reset();
+        record(out, blocks.get(2));
+        final byte[] partial = record(blocks.get(3));
+        out.write(partial, 0, partial.length - 10);
+        Files.write(second.toPath(), out.toByteArray());
+
+        final List<BlockLocation> locations = read(Arrays.asList(first, second), 0);
+        assertEquals(3, locations.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(blocks.get(i).getHashAsString(), locations.get(i).getHash());
+        }
+        assertEquals(second, locations.get(2).getFile());
+    }
+
+    @Test
+    public void readingStartsAtOffset() throws IOException {
+        final File file = folder.newFile();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        record(out, blocks.get(0));
+        final long end = out.size();
+        record(out, blocks.get(1));
+        Files.write(file.toPath(), out.toByteArray());
+
+        final List<BlockLocation> locations = read(Collections.singletonList(file), end);
+        assertEquals(1, locations.size());
+        assertEquals(blocks.get(1).getHashAsString(), locations.get(0).getHash());
+        assertFalse(new RawBlockReader(NP, Collections.singletonList(file), new BlockFileMap(1), out.size())
+                .hasNext());
+    }
+
+    @Test
+    public void appendedRecordsAreReadUpToPadding() throws IOException {
+        final File file = folder.newFile();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        record(out, blocks.get(0));
+        record(out, blocks.get(1));
+        out.write(new byte[100]);
+        record(out, blocks.get(2));
+        Files.write(file.toPath(), out.toByteArray());
+
+        final RawBlockReader reader = new RawBlockReader(NP, Collections.singletonList(file), new BlockFileMap(1),
+                record(blocks.get(0)).length, true);
+        assertEquals(blocks.get(1).getHashAsString(), reader.next().getHash());
+        assertFalse(reader.hasNext());
+    }
+
+    private static List<BlockLocation> read(List<File> files, long startOffset) {
+        final List<BlockLocation> locations = new ArrayList<>();
+        final RawBlockReader reader = new RawBlockReader(NP, files, new BlockFileMap(2), startOffset);
+        while (reader.hasNext()) {
+            locations.add(reader.next());
+        }
+        return locations;
+    }
+
+    //Record as Bitcoin Core writes it: magic, little-endian length and block
+    static byte[] record(Block block) {
+        final byte[] bytes = block.bitcoinSerialize();
+        return ByteBuffer.allocate(8 + bytes.length)
+                .putInt((int) NP.getPacketMagic())
+                .order(ByteOrder.LITTLE_ENDIAN).putInt(bytes.length)
+                .put(bytes).array();
+    }
+
+    private static void record(ByteArrayOutputStream out, Block block) throws IOException {
+        out.write(record(block));
+    }
+}
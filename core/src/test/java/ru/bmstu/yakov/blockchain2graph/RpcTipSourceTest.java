@@ -0,0 +1,137 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+//JSON-RPC tip source asking an HTTP server which answers like Bitcoin Core
+public class RpcTipSourceTest {
+    private static final String HASH1 = "0000000000000000000000000000000000000000000000000000000000000001";
+    private static final String HASH2 = "0000000000000000000000000000000000000000000000000000000000000002";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    //Result of method, method which isn't here is answered with "Method not found"
+    private final Map<String, String> results = new ConcurrentHashMap<>();
+    private final List<String> calls = new ArrayList<>();
+    private final List<String> authorizations = new ArrayList<>();
+    private HttpServer server;
+    private String url;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::answer);
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void newBlockIsWaitedFor() throws Exception {
+        results.put("waitfornewblock", "{\"hash\":\"" + HASH1 + "\",\"height\":5}");
+        try (RpcTipSource source = new RpcTipSource(url, "user", "secret", null, 10, null)) {
+            final TipSource.Tip tip = source.poll();
+            assertEquals(HASH1, tip.getHash());
+            assertEquals(5, tip.getHeight());
+            assertNull(tip.getRaw());
+            //Poll time is out with the same best block
+            assertNull(source.poll());
+        }
+        assertEquals(Arrays.asList("waitfornewblock", "waitfornewblock"), calls);
+        assertEquals("Basic " + Base64.getEncoder().encodeToString("user:secret".getBytes(StandardCharsets.UTF_8)),
+                authorizations.get(0));
+    }
+
+    @Test
+    public void bestBlockIsPolledWithoutWaitForNewBlock() throws Exception {
+        results.put("getbestblockhash", "\"" + HASH2 + "\"");
+        results.put("getblockheader", "{\"hash\":\"" + HASH2 + "\",\"height\":7}");
+        try (RpcTipSource source = new RpcTipSource(url, "user", "secret", null, 10, null)) {
+            assertNull(source.poll());
+            final TipSource.Tip tip = source.poll();
+            assertEquals(HASH2, tip.getHash());
+            assertEquals(7, tip.getHeight());
+            assertNull(source.poll());
+        }
+        assertEquals(Arrays.asList("waitfornewblock", "getbestblockhash", "getblockheader", "getbestblockhash"),
+                calls);
+    }
+
+    @Test
+    public void cookieIsUsedWithoutUser() throws Exception {
+        final File cookie = folder.newFile(".cookie");
+        Files.write(cookie.toPath(), "__cookie__:abc\n".getBytes(StandardCharsets.UTF_8));
+        results.put("waitfornewblock", "{\"hash\":\"" + HASH1 + "\",\"height\":5}");
+        try (RpcTipSource source = new RpcTipSource(url, "", "", cookie, 10, null)) {
+            assertEquals(HASH1, source.poll().getHash());
+        }
+        assertEquals("Basic " + Base64.getEncoder().encodeToString("__cookie__:abc".getBytes(StandardCharsets.UTF_8)),
+                authorizations.get(0));
+    }
+
+    @Test
+    public void failedCallIsNotTip() throws Exception {
+        server.removeContext("/");
+        server.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(401, -1);
+            exchange.close();
+        });
+        try (RpcTipSource source = new RpcTipSource(url, "user", "wrong", null, 10, null)) {
+            assertNull(source.poll());
+        }
+    }
+
+    //Bitcoin Core answers error with status 404 for unknown method and 500 for others
+    private void answer(HttpExchange exchange) throws IOException {
+        final JsonNode request;
+        try (InputStream in = exchange.getRequestBody()) {
+            request = mapper.readTree(in);
+        }
+        final String method = request.get("method").asText();
+        synchronized (this) {
+            calls.add(method);
+            authorizations.add(exchange.getRequestHeaders().getFirst("Authorization"));
+        }
+        final String result = results.get(method);
+        final String body = result != null
+                ? "{\"result\":" + result + ",\"error\":null,\"id\":\"blockchain2graph\"}"
+                : "{\"result\":null,\"error\":{\"code\":-32601,\"message\":\"Method not found\"},"
+                + "\"id\":\"blockchain2graph\"}";
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(result != null ? 200 : 404, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.bitcoinj.core.LegacyAddress;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.params.MainNetParams;
+import org.junit.Test;
+
+//Address of output script of every type, test vectors are from Bitcoin wiki, BIP 173 and BIP 350
+public class ScriptClassifierTest {
+    private static final NetworkParameters NP = MainNetParams.get();
+    private static final String GENESIS_KEY = "04678afdb0fe5548271967f1a67130b7105cd6a828e03909a67962e0ea1f61deb649f6"
+            + "bc3f4cef38c4f35504e51ec112de5c384df7ba0b8d578a4c702b6bf11d5f";
+    private static final String COMPRESSED_KEY = "0279be667ef9dcbbac55a06295ce870b07029bfcdb2dce28d959f2815b16f81798";
+
+    @Test
+    public void payToPubKeyHash() {
+        assertEquals("1A1zP1eP5QGefi2DMPTfTL5SLmv7DivfNa",
+                address("76a914" + "62e907b15cbf27d5425399ebf6f0fb50ebb88f18" + "88ac"));
+    }
+
+    @Test
+    public void payToScriptHash() {
+        final String address = "3P14159f73E4gFr7JterCCQh9QjiTjiZrG";
+        final String hash = Utils.HEX.encode(LegacyAddress.fromBase58(NP, address).getHash());
+        assertEquals(address, address("a914" + hash + "87"));
+    }
+
+    @Test
+    public void payToWitnessPubKeyHash() {
+        assertEquals("bc1qw508d6qejxtdg4y5r3zarvary0c5xw7kv8f3t4",
+                address("0014" + "751e76e8199196d454941c45d1b3a323f1433bd6"));
+    }
+
+    @Test
+    public void payToWitnessScriptHash() {
+        assertEquals("bc1qrp33g0q5c5txsp9arysrx4k6zdkfs4nce4xj0gdcccefvpysxf3qccfmv3",
+                address("0020" + "1863143c14c5166804bd19203356da136c985678cd4d27a1b8c6329604903262"));
+    }
+
+    @Test
+    public void laterWitnessVersionsAreBech32m() {
+        assertEquals("bc1pw508d6qejxtdg4y5r3zarvary0c5xw7kw508d6qejxtdg4y5r3zarvary0c5xw7kt5nd6y",
+                address("5128" + "751e76e8199196d454941c45d1b3a323f1433bd6751e76e8199196d454941c45d1b3a323f1433bd6"));
+        assertEquals("bc1sw50qgdz25j", address("6002" + "751e"));
+        assertEquals("bc1zw508d6qejxtdg4y5r3zarvaryvaxxpcs", address("5210" + "751e76e8199196d454941c45d1b3a323"));
+    }
+
+    @Test
+    public void payToPubKeyIsPaidToKeyHash() {
+        assertEquals("1A1zP1eP5QGefi2DMPTfTL5SLmv7DivfNa", address("41" + GENESIS_KEY + "ac"));
+    }
+
+    @Test
+    public void bareMultisigHasPseudoAddress() {
+        final String script = "51" + "21" + COMPRESSED_KEY + "41" + GENESIS_KEY + "52" + "ae";
+        assertEquals(ScriptClassifier.MULTISIG + Sha256Hash.of(Utils.HEX.decode(script)), address(script));
+    }
+
+    @Test
+    public void otherScriptsAreNonstandard() {
+        //More signatures than keys, witness v0 program of wrong size, bare OP_TRUE and empty script
+        for (String script : new String[]{"52" + "21" + COMPRESSED_KEY + "51" + "ae",
+                "0019" + "751e76e8199196d454941c45d1b3a323f1433bd6751e76e819", "51", ""}) {
+            assertEquals(ScriptClassifier.NONSTANDARD + Sha256Hash.of(Utils.HEX.decode(script)), address(script));
+        }
+    }
+
+    @Test
+    public void unspendableScriptHasNoAddress() {
+        assertNull(address("6a" + "0568656c6c6f"));
+        assertNull(ScriptClassifier.address(NP, new byte[10001]));
+    }
+
+    private static String address(String script) {
+        return ScriptClassifier.address(NP, Utils.HEX.decode(script));
+    }
+}
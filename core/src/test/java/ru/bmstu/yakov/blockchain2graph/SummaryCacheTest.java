@@ -0,0 +1,63 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+
+//Summaries read from Graph Database are dropped when ingest changed the cache since the read started
+public class SummaryCacheTest {
+    private static final Map<String, Object> OLD = Collections.singletonMap("AddressBalance", 1L);
+    private static final Map<String, Object> NEW = Collections.singletonMap("AddressBalance", 2L);
+
+    @Test
+    public void fillIsAcceptedIfNothingChanged() {
+        final SummaryCache cache = new SummaryCache(10);
+        final long version = cache.version();
+        cache.fill("Address", "a", OLD, version);
+        assertEquals(OLD, cache.get("Address", "a"));
+    }
+
+    @Test
+    public void fillIsRejectedAfterPut() {
+        final SummaryCache cache = new SummaryCache(10);
+        final long version = cache.version();
+        cache.put("Address", "a", NEW);
+        cache.fill("Address", "a", OLD, version);
+        assertEquals(NEW, cache.get("Address", "a"));
+
+        //Put of another vertex rejects the read as well
+        final long next = cache.version();
+        cache.put("Address", "b", NEW);
+        cache.fill("Address", "c", OLD, next);
+        assertNull(cache.get("Address", "c"));
+    }
+
+    @Test
+    public void fillIsRejectedAfterClear() {
+        final SummaryCache cache = new SummaryCache(10);
+        cache.put("Address", "a", NEW);
+        final long version = cache.version();
+        cache.clear();
+        cache.fill("Address", "a", OLD, version);
+        assertNull(cache.get("Address", "a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() {
+        final SummaryCache cache = new SummaryCache(2);
+        cache.put("Address", "a", OLD);
+        cache.put("Transaction", "a", OLD);
+        assertNotNull(cache.get("Address", "a"));
+        cache.put("Block", "a", OLD);
+        assertEquals(2, cache.size());
+        assertNull(cache.get("Transaction", "a"));
+        assertNotNull(cache.get("Address", "a"));
+        assertNotNull(cache.get("Block", "a"));
+    }
+}
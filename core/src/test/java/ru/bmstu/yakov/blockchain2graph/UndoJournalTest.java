@@ -0,0 +1,129 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.apache.tinkerpop.gremlin.structure.T;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.apache.tinkerpop.gremlin.tinkergraph.structure.TinkerGraph;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+//Journal of block written and read back, journals of other blocks and pruning
+public class UndoJournalTest {
+    private static final String HASH = "00000000839a8e6886ab5951d76f411475428afc90947ee320161bbf18eb6048";
+    private static final String PREV_HASH = "000000000019d6689c085ae165831e934ff763ae46a2a6c172b3f1b60a8ce26f";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void blockIsReadAsWritten() throws IOException {
+        final UndoJournal journal = new UndoJournal(new File(folder.getRoot(), "undo"), 6);
+        final UndoJournal.Block block = new UndoJournal.Block(HASH, PREV_HASH, 1);
+        block.created(10L, "tx-10");
+        block.created(11L, "address-11");
+        block.address(address(12L, 500L));
+        block.address(address(12L, 700L));
+        block.spent(new UndoJournal.Outpoint(hash(1), 0, 20L, 5000000000L, 12L));
+        block.unspent(hash(2), 3);
+        block.linked(ids(12L), ids(11L, 12L));
+        block.wallets(Collections.singletonList(new long[]{12L, 0L, 12L, 1L}));
+        journal.write(block);
+
+        final UndoJournal.Block read = journal.read(1, HASH);
+        assertNotNull(read);
+        assertEquals(PREV_HASH, read.getPrevHash());
+        assertEquals(Arrays.asList(10L, 11L), read.getCreatedIds());
+        assertEquals(Arrays.asList("tx-10", "address-11"), read.getCreatedNames());
+
+        //Only the first change of address in block is kept
+        assertEquals(1, read.getAddresses().size());
+        final Object[] values = read.getAddresses().get(12L);
+        assertEquals(500L, values[0]);
+        assertEquals(new Date(1000L), values[1]);
+        assertEquals(3, values[5]);
+        assertEquals(7L, values[11]);
+
+        final UndoJournal.Outpoint spent = read.getSpent().get(0);
+        assertArrayEquals(hash(1), spent.txHash);
+        assertEquals(0, spent.index);
+        assertEquals(20L, spent.outputId);
+        assertEquals(5000000000L, spent.value);
+        assertEquals(12L, spent.addressId);
+        final UndoJournal.Outpoint unspent = read.getUnspent().get(0);
+        assertArrayEquals(hash(2), unspent.txHash);
+        assertEquals(3, unspent.index);
+
+        assertEquals(1, read.getLinks().size());
+        assertArrayEquals(new long[]{12L}, read.getLinks().get(0)[0]);
+        assertArrayEquals(new long[]{11L, 12L}, read.getLinks().get(0)[1]);
+        assertEquals(1, read.getWallets().size());
+        assertArrayEquals(new long[]{12L, 0L, 12L, 1L}, read.getWallets().get(0));
+    }
+
+    @Test
+    public void journalOfOtherBlockIsNotRead() throws IOException {
+        final UndoJournal journal = new UndoJournal(folder.getRoot(), 6);
+        journal.write(new UndoJournal.Block(HASH, PREV_HASH, 1));
+        assertNull(journal.read(1, PREV_HASH));
+        assertNull(journal.read(2, HASH));
+        assertNotNull(journal.read(1, HASH));
+    }
+
+    @Test
+    public void journalsDeeperThanUndoDepthArePruned() throws IOException {
+        final UndoJournal journal = new UndoJournal(folder.getRoot(), 2);
+        for (int height = 0; height <= 4; height++) {
+            journal.write(new UndoJournal.Block(HASH, PREV_HASH, height));
+        }
+        journal.prune(3, 4);
+        assertNull(journal.read(1, HASH));
+        assertNull(journal.read(2, HASH));
+        assertNotNull(journal.read(3, HASH));
+        assertNotNull(journal.read(4, HASH));
+
+        journal.delete(4);
+        assertNull(journal.read(4, HASH));
+    }
+
+    @Test
+    public void disabledJournalReadsNothing() throws IOException {
+        final UndoJournal journal = new UndoJournal(new File(folder.getRoot(), "undo"), 0);
+        assertFalse(journal.isEnabled());
+        assertNull(journal.read(1, HASH));
+        assertTrue(new UndoJournal(folder.getRoot(), 1).isEnabled());
+    }
+
+    private static Vertex address(long id, long balance) {
+        final Vertex vertex = TinkerGraph.open().addVertex(T.id, id);
+        final Object[] values = {balance, new Date(1000L), new Date(2000L), 100L, 200L, 3, 1, 2, 1, 2, 0, 7L};
+        for (int i = 0; i < values.length; i++) {
+            vertex.property(UndoJournal.ADDRESS_PROPERTIES[i], values[i]);
+        }
+        return vertex;
+    }
+
+    private static byte[] hash(int b) {
+        final byte[] hash = new byte[32];
+        Arrays.fill(hash, (byte) b);
+        return hash;
+    }
+
+    private static Set<Object> ids(Long... ids) {
+        return new LinkedHashSet<>(Arrays.asList(ids));
+    }
+}
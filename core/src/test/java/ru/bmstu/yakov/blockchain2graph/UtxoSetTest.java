@@ -0,0 +1,157 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.bitcoinj.core.Sha256Hash;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+//UTXO set and mapped hash table under it: growing, rollback, deletion and reopening
+public class UtxoSetTest {
+    private static final String BEST = "000000000019d6689c085ae165831e934ff763ae46a2a6c172b3f1b60a8ce26f";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void outputsAreKeptWhileGrowing() throws IOException {
+        try (UtxoSet set = new UtxoSet(folder.newFile(), 1024)) {
+            for (int i = 0; i < 5000; i++) {
+                set.put(txHash(i), i % 3, i, i * 10L, -i);
+            }
+            assertEquals(5000, set.size());
+            for (int i = 0; i < 5000; i++) {
+                final UtxoSet.Entry entry = set.get(txHash(i), i % 3);
+                assertEquals(i, entry.outputId);
+                assertEquals(i * 10L, entry.value);
+                assertEquals(-i, entry.addressId);
+            }
+            assertNull(set.get(txHash(1), 0));
+        }
+    }
+
+    @Test
+    public void outputsOfTransactionAreKeyedByIndex() throws IOException {
+        try (UtxoSet set = new UtxoSet(folder.newFile(), 1024)) {
+            set.put(txHash(1), 0, 10, 100, 1);
+            set.put(txHash(1), 1, 11, 200, 2);
+            set.put(txHash(1), 65536, 12, 300, 3);
+            assertEquals(3, set.size());
+            assertEquals(11, set.get(txHash(1), 1).outputId);
+            assertEquals(300, set.get(txHash(1), 65536).value);
+            assertNull(set.get(txHash(1), 2));
+
+            set.remove(txHash(1), 0);
+            assertNull(set.get(txHash(1), 0));
+            assertEquals(2, set.get(txHash(1), 1).addressId);
+        }
+    }
+
+    @Test
+    public void replacedOutputIsRestoredByRollback() throws IOException {
+        try (UtxoSet set = new UtxoSet(folder.newFile(), 1024)) {
+            set.put(txHash(1), 0, 10, 100, 1);
+            set.commit(BEST, 0);
+            set.put(txHash(1), 0, 20, 200, 2);
+            assertEquals(1, set.size());
+            assertEquals(20, set.get(txHash(1), 0).outputId);
+            set.rollback();
+            final UtxoSet.Entry entry = set.get(txHash(1), 0);
+            assertEquals(10, entry.outputId);
+            assertEquals(100, entry.value);
+            assertEquals(1, entry.addressId);
+
+            //Output spent and created again within a batch
+            set.remove(txHash(1), 0);
+            set.put(txHash(1), 0, 30, 300, 3);
+            set.rollback();
+            assertEquals(10, set.get(txHash(1), 0).outputId);
+            assertEquals(1, set.size());
+        }
+    }
+
+    @Test
+    public void removedOutputsAreNotFound() throws IOException {
+        try (UtxoSet set = new UtxoSet(folder.newFile(), 1024)) {
+            for (int i = 0; i < 700; i++) {
+                set.put(txHash(i), 0, i, i, i);
+            }
+            for (int i = 0; i < 700; i += 2) {
+                assertEquals(i, set.remove(txHash(i), 0).outputId);
+            }
+            assertNull(set.remove(txHash(0), 0));
+            for (int i = 0; i < 700; i++) {
+                assertEquals(i % 2 == 0, set.get(txHash(i), 0) == null);
+            }
+            final Set<Integer> visited = new HashSet<>();
+            set.forEach((hash, index, entry) -> visited.add((int) entry.outputId));
+            assertEquals(350, visited.size());
+        }
+    }
+
+    @Test
+    public void rollbackUndoesChangesSinceCommit() throws IOException {
+        try (UtxoSet set = new UtxoSet(folder.newFile(), 1024)) {
+            for (int i = 0; i < 500; i++) {
+                set.put(txHash(i), 0, i, i, i);
+            }
+            set.commit(BEST, 0);
+            //Grows the set while changes are logged
+            for (int i = 500; i < 2000; i++) {
+                set.put(txHash(i), 0, i, i, i);
+            }
+            for (int i = 0; i < 500; i += 5) {
+                set.remove(txHash(i), 0);
+            }
+            set.put(txHash(1), 0, 100, 100, 100);
+            set.rollback();
+
+            assertEquals(500, set.size());
+            for (int i = 0; i < 2000; i++) {
+                final UtxoSet.Entry entry = set.get(txHash(i), 0);
+                if (i < 500) {
+                    assertEquals(i, entry.outputId);
+                } else {
+                    assertNull(entry);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void setClosedAfterCommitIsConsistent() throws IOException {
+        final File file = folder.newFile();
+        try (UtxoSet set = new UtxoSet(file, 1024)) {
+            assertFalse(set.isConsistent(null, -1));
+            for (int i = 0; i < 1000; i++) {
+                set.put(txHash(i), 1, i, i, i);
+            }
+            set.commit(BEST, 7);
+        }
+        try (UtxoSet set = new UtxoSet(file, 1024)) {
+            assertTrue(set.isConsistent(BEST, 7));
+            assertFalse(set.isConsistent(BEST, 8));
+            assertEquals(1000, set.size());
+            assertEquals(999, set.get(txHash(999), 1).outputId);
+        }
+        //Set which wasn't closed is dirty
+        final UtxoSet dirty = new UtxoSet(file, 1024);
+        try (UtxoSet set = new UtxoSet(file, 1024)) {
+            assertFalse(set.isConsistent(BEST, 7));
+        }
+        dirty.close();
+    }
+
+    private static byte[] txHash(int i) {
+        return Sha256Hash.hash(new byte[]{(byte) i, (byte) (i >> 8), (byte) (i >> 16)});
+    }
+}
@@ -0,0 +1,98 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.GraphTraversalSource;
+import org.apache.tinkerpop.gremlin.structure.T;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.apache.tinkerpop.gremlin.tinkergraph.structure.TinkerGraph;
+import org.bitcoinj.core.Utils;
+import org.junit.Test;
+
+//Names of vertices in both encodings: hashes sharing HashKey, outputs named by edges of their transactions
+public class VertexNamesTest {
+    //Hashes with the same last 8 bytes, so they have the same HashKey
+    private static final String HASH = "00000000839a8e6886ab5951d76f411475428afc90947ee320161bbf18eb6048";
+    private static final String SAME_KEY = "11111111111111111111111111111111111111111111111120161bbf18eb6048";
+    private static final String ADDRESS = "1A1zP1eP5QGefi2DMPTfTL5SLmv7DivfNa";
+
+    private final TinkerGraph graph = TinkerGraph.open();
+    private final GraphTraversalSource g = graph.traversal();
+
+    @Test
+    public void hashesWithSameKeyAreToldApart() {
+        final VertexNames names = new VertexNames(VertexNames.BINARY);
+        final Vertex first = add(names, "Transaction", HASH);
+        final Vertex second = add(names, "Transaction", SAME_KEY);
+        assertEquals(VertexNames.hashKey(Utils.HEX.decode(HASH)), (long) second.<Long>value("HashKey"));
+
+        assertVertices(names.find(g, "Transaction", HASH).toList(), first);
+        assertVertices(names.find(g, "Transaction", SAME_KEY).toList(), second);
+        assertFalse(names.find(g, "Block", HASH).hasNext());
+        assertFalse(names.find(g, "Transaction",
+                "2222222222222222222222222222222222222222222222222222222222222222").hasNext());
+        assertEquals(HASH, names.of(g, first));
+        assertEquals(SAME_KEY, names.of(g, second));
+        assertFalse(first.properties("name").hasNext());
+    }
+
+    @Test
+    public void outputIsNamedByEdgeOfTransaction() {
+        final VertexNames names = new VertexNames(VertexNames.BINARY);
+        final Vertex tx = add(names, "Transaction", HASH);
+        final Vertex other = add(names, "Transaction", SAME_KEY);
+        final Vertex first = output(names, tx, 0);
+        final Vertex second = output(names, tx, 1);
+        final Vertex otherFirst = output(names, other, 0);
+        assertFalse(first.properties().hasNext());
+
+        assertVertices(names.find(g, "Output", HASH + ":0").toList(), first);
+        assertVertices(names.find(g, "Output", HASH + ":1").toList(), second);
+        assertVertices(names.find(g, "Output", SAME_KEY + ":0").toList(), otherFirst);
+        assertFalse(names.find(g, "Output", HASH + ":2").hasNext());
+        assertEquals(HASH + ":1", names.of(g, second));
+        assertEquals(SAME_KEY + ":0", names.of(g, otherFirst));
+    }
+
+    @Test
+    public void addressesAndHexNamesAreKeptInName() {
+        for (String encoding : new String[]{VertexNames.HEX, VertexNames.BINARY}) {
+            final VertexNames names = new VertexNames(encoding);
+            final Vertex address = add(names, "Address", ADDRESS + encoding);
+            assertEquals(ADDRESS + encoding, address.value("name"));
+            assertVertices(names.find(g, "Address", ADDRESS + encoding).toList(), address);
+            assertEquals(ADDRESS + encoding, names.of(g, address));
+        }
+        final VertexNames hex = new VertexNames(VertexNames.HEX);
+        final Vertex output = add(hex, "Output", HASH + ":0");
+        assertVertices(hex.find(g, "Output", HASH + ":0").toList(), output);
+        assertEquals(HASH + ":0", hex.of(g, output));
+        assertFalse(output.properties("Hash").hasNext());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownEncodingIsRejected() {
+        new VertexNames("base64");
+    }
+
+    private Vertex add(VertexNames names, String label, String name) {
+        final Vertex vertex = graph.addVertex(T.label, label);
+        names.set(vertex, name);
+        return vertex;
+    }
+
+    private Vertex output(VertexNames names, Vertex tx, int index) {
+        final Vertex output = add(names, "Output", names.of(g, tx) + ":" + index);
+        tx.addEdge("output", output, "OutputIndex", index);
+        return output;
+    }
+
+    private static void assertVertices(List<Vertex> found, Vertex expected) {
+        assertEquals(1, found.size());
+        assertTrue(found.contains(expected));
+    }
+}
@@ -0,0 +1,186 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+//Joining wallets of addresses, undoing changes of a block, splitting wallets, rollback and rebuilding
+//with stored wallet ids
+public class WalletSetTest {
+    private static final String BEST = "000000000019d6689c085ae165831e934ff763ae46a2a6c172b3f1b60a8ce26f";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void smallerWalletTakesIdOfLargerOne() throws IOException {
+        try (WalletSet set = new WalletSet(folder.newFile(), 1024)) {
+            assertEquals(1, set.add(10));
+            assertEquals(2, set.add(20));
+            assertEquals(3, set.add(30));
+            assertEquals(1, set.add(10));
+
+            final Map<Long, Integer> moved = new HashMap<>();
+            //Ties keep the older wallet
+            assertEquals(1, set.union(10, 20, moved::put));
+            assertEquals(1, moved.size());
+            assertEquals(Integer.valueOf(1), moved.get(20L));
+
+            moved.clear();
+            assertEquals(1, set.union(30, 20, moved::put));
+            assertEquals(1, moved.size());
+            assertEquals(Integer.valueOf(1), moved.get(30L));
+
+            moved.clear();
+            assertEquals(1, set.union(10, 30, moved::put));
+            assertTrue(moved.isEmpty());
+            assertEquals(1, set.walletId(30));
+            assertEquals(0, set.walletId(40));
+        }
+    }
+
+    @Test
+    public void changesOfBlockAreUndone() throws IOException {
+        try (WalletSet set = new WalletSet(folder.newFile(), 1024)) {
+            for (long address = 1; address <= 4; address++) {
+                set.add(address);
+            }
+            set.union(1, 2, (a, w) -> { });
+            set.commit(BEST, 1);
+
+            final int mark = set.mark();
+            set.add(5);
+            set.union(3, 4, (a, w) -> { });
+            set.union(4, 5, (a, w) -> { });
+            set.union(1, 5, (a, w) -> { });
+            final List<long[]> changes = set.changes(mark);
+            assertEquals(3, set.walletId(5));
+            assertEquals(3, set.walletId(2));
+            set.commit(BEST, 2);
+
+            set.undo(changes);
+            set.commit(BEST, 1);
+            assertEquals(4, set.size());
+            assertEquals(0, set.walletId(5));
+            assertEquals(1, set.walletId(2));
+            assertEquals(3, set.walletId(3));
+            assertEquals(4, set.walletId(4));
+            //Wallet ids are given again from the last one
+            assertEquals(6, set.add(6));
+        }
+    }
+
+    @Test
+    public void splitPartsGetWalletIdsBack() throws IOException {
+        try (WalletSet set = new WalletSet(folder.newFile(), 1024)) {
+            for (long address = 1; address <= 5; address++) {
+                set.add(address);
+            }
+            set.union(1, 2, (a, w) -> { });
+            set.union(4, 3, (a, w) -> { });
+            set.commit(BEST, 1);
+
+            //Deleted block joined both wallets and a new address
+            set.add(6);
+            set.union(3, 1, (a, w) -> { });
+            set.union(6, 4, (a, w) -> { });
+            assertEquals(1, set.walletId(4));
+            assertEquals(new HashSet<>(Arrays.asList(1L, 2L, 3L, 4L, 6L)), new HashSet<>(set.members(2)));
+
+            set.split(Arrays.asList(4L, 3L));
+            set.split(Arrays.asList(2L, 1L));
+            set.delete(6);
+            set.commit(BEST, 1);
+            assertEquals(5, set.size());
+            assertEquals(1, set.walletId(2));
+            assertEquals(3, set.walletId(4));
+            assertEquals(5, set.walletId(5));
+            assertEquals(0, set.walletId(6));
+            assertEquals(Arrays.asList(3L, 4L), sorted(set.members(4)));
+
+            //Sizes of roots are restored, so the larger wallet keeps its id
+            final Map<Long, Integer> moved = new HashMap<>();
+            assertEquals(3, set.union(5, 4, moved::put));
+            assertEquals(Integer.valueOf(3), moved.get(5L));
+        }
+    }
+
+    @Test
+    public void splitIsRolledBack() throws IOException {
+        try (WalletSet set = new WalletSet(folder.newFile(), 1024)) {
+            for (long address = 1; address <= 3; address++) {
+                set.add(address);
+            }
+            set.union(1, 2, (a, w) -> { });
+            set.union(3, 1, (a, w) -> { });
+            set.commit(BEST, 2);
+
+            set.split(Arrays.asList(1L, 2L));
+            set.split(Collections.singletonList(3L));
+            assertEquals(3, set.walletId(3));
+            set.rollback();
+            assertEquals(1, set.walletId(3));
+            assertEquals(Arrays.asList(1L, 2L, 3L), sorted(set.members(3)));
+        }
+    }
+
+    @Test
+    public void rollbackUndoesUnionsAndAddedAddresses() throws IOException {
+        try (WalletSet set = new WalletSet(folder.newFile(), 1024)) {
+            for (long address = 0; address < 100; address++) {
+                set.add(address);
+            }
+            set.commit(BEST, 1);
+            //Grows the set while changes are logged
+            for (long address = 100; address < 2000; address++) {
+                set.add(address);
+                set.union(address, address % 100, (a, w) -> { });
+            }
+            set.rollback();
+
+            assertEquals(100, set.size());
+            for (long address = 0; address < 100; address++) {
+                assertEquals(address + 1, set.walletId(address));
+            }
+            assertEquals(0, set.walletId(100));
+            assertEquals(101, set.add(100));
+        }
+    }
+
+    @Test
+    public void splitWalletGetsNewIdWhenRebuilt() throws IOException {
+        try (WalletSet set = new WalletSet(folder.newFile(), 1024)) {
+            //Wallet 5 lost the transaction joining address 3 with addresses 1 and 2
+            set.add(1, 5);
+            set.add(2, 5);
+            set.add(3, 5);
+            set.add(4, 9);
+            set.union(1, 2, (a, w) -> { });
+            set.separate();
+
+            assertEquals(set.walletId(1), set.walletId(2));
+            assertEquals(new HashSet<>(Arrays.asList(5, 10)),
+                    new HashSet<>(Arrays.asList(set.walletId(1), set.walletId(3))));
+            assertEquals(9, set.walletId(4));
+            assertEquals(11, set.add(6));
+        }
+    }
+
+    private static List<Long> sorted(List<Long> members) {
+        final List<Long> sorted = new ArrayList<>(members);
+        Collections.sort(sorted);
+        return sorted;
+    }
+}
@@ -0,0 +1,117 @@
+package ru.bmstu.yakov.blockchain2graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.params.MainNetParams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.zeromq.SocketType;
+import org.zeromq.ZContext;
+import org.zeromq.ZMQ;
+
+//ZMQ tip source subscribed to a publisher standing in for Bitcoin Core
+public class ZmqTipSourceTest {
+    private static final String GENESIS = "000000000019d6689c085ae165831e934ff763ae46a2a6c172b3f1b60a8ce26f";
+
+    private ZContext context;
+    private ZMQ.Socket publisher;
+    private String address;
+    private final ListAppender<ILoggingEvent> log = new ListAppender<>();
+
+    @Before
+    public void setUp() {
+        context = new ZContext();
+        publisher = context.createSocket(SocketType.PUB);
+        address = "tcp://127.0.0.1:" + publisher.bindToRandomPort("tcp://127.0.0.1");
+        log.start();
+        ((Logger) LoggerFactory.getLogger(ZmqTipSource.class)).addAppender(log);
+    }
+
+    @After
+    public void tearDown() {
+        ((Logger) LoggerFactory.getLogger(ZmqTipSource.class)).detachAppender(log);
+        context.close();
+    }
+
+    @Test
+    public void rawBlockIsHashedByHeader() {
+        final byte[] block = MainNetParams.get().getGenesisBlock().bitcoinSerialize();
+        try (ZmqTipSource source = new ZmqTipSource(address, ZmqTipSource.RAWBLOCK, null)) {
+            final TipSource.Tip tip = receive(source, ZmqTipSource.RAWBLOCK, block);
+            assertEquals(GENESIS, tip.getHash());
+            assertEquals(-1, tip.getHeight());
+            assertEquals(block.length, tip.getRaw().length);
+        }
+    }
+
+    @Test
+    public void hashBlockIsGivenInUsualByteOrder() {
+        try (ZmqTipSource source = new ZmqTipSource(address, ZmqTipSource.HASHBLOCK, null)) {
+            final TipSource.Tip tip = receive(source, ZmqTipSource.HASHBLOCK, Utils.HEX.decode(GENESIS));
+            assertEquals(GENESIS, tip.getHash());
+            assertNull(tip.getRaw());
+        }
+    }
+
+    @Test
+    public void sequenceGapIsReported() {
+        final byte[] hash = Utils.HEX.decode(GENESIS);
+        try (ZmqTipSource source = new ZmqTipSource(address, ZmqTipSource.HASHBLOCK, null)) {
+            receive(source, ZmqTipSource.HASHBLOCK, hash);
+            for (int sequence : new int[]{0, 1, 4}) {
+                send(ZmqTipSource.HASHBLOCK, hash, sequence);
+                assertEquals(GENESIS, source.poll().getHash());
+            }
+            assertEquals(1, warnings().size());
+            assertEquals("Missed 2 ZMQ messages, missing blocks are read from blk files", warnings().get(0));
+        }
+    }
+
+    @Test
+    public void otherTopicIsSkipped() {
+        try (ZmqTipSource source = new ZmqTipSource(address, ZmqTipSource.HASHBLOCK, null)) {
+            receive(source, ZmqTipSource.HASHBLOCK, Utils.HEX.decode(GENESIS));
+            publisher.sendMore("hashtx");
+            publisher.send(new byte[32]);
+            assertNull(source.poll());
+        }
+    }
+
+    //Subscription is made asynchronously, so message is sent until subscriber gets it
+    private TipSource.Tip receive(ZmqTipSource source, String topic, byte[] body) {
+        for (int attempt = 0; attempt < 20; attempt++) {
+            publisher.sendMore(topic);
+            publisher.send(body);
+            final TipSource.Tip tip = source.poll();
+            if (tip != null) {
+                return tip;
+            }
+        }
+        throw new AssertionError("Subscriber didn't get message from " + address);
+    }
+
+    private void send(String topic, byte[] body, int sequence) {
+        publisher.sendMore(topic.getBytes(StandardCharsets.US_ASCII));
+        publisher.sendMore(body);
+        publisher.send(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(sequence).array());
+    }
+
+    private List<String> warnings() {
+        return log.list.stream().filter(e -> e.getLevel() == Level.WARN)
+                .map(ILoggingEvent::getFormattedMessage).collect(Collectors.toList());
+    }
+}